@@ -1,9 +1,14 @@
 package simpledb.common;
 
-import java.lang.Exception;
+import simpledb.transaction.TransactionAbortedException;
 
-/** Exception that is thrown when a deadlock occurs. */
-public class DeadlockException extends Exception {
+/**
+ * Exception that is thrown when a deadlock occurs. The transaction that
+ * receives it was chosen as the victim and must abort; it is a
+ * TransactionAbortedException so that callers handle it like any other
+ * abort.
+ */
+public class DeadlockException extends TransactionAbortedException {
     private static final long serialVersionUID = 1L;
 
     public DeadlockException() {
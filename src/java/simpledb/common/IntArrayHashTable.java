@@ -0,0 +1,149 @@
+package simpledb.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from composite keys of a fixed number of
+ * ints to dense ids, like {@link IntHashTable} for keys of one int. The
+ * first key added gets id 0, the next new key id 1 and so on. The keys are
+ * kept in one flat array indexed by id, so neither lookups nor inserts of
+ * known keys allocate.
+ * <p>
+ * Collisions are resolved by linear probing; the table doubles when it is
+ * half full.
+ */
+public class IntArrayHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Marks an unused slot in ids. */
+    private static final int EMPTY = -1;
+
+    /** The number of ints in a key. */
+    private final int width;
+    /** Per slot, the id of its key, or EMPTY. */
+    private int[] ids;
+    /** Per slot, the hash of its key, to skip most key comparisons. */
+    private int[] hashes;
+    /** The keys, width ints per id. */
+    private int[] idKeys;
+    private int mask;
+    private int size;
+
+    /**
+     * @param width the number of ints in a key
+     */
+    public IntArrayHashTable(int width) {
+        this.width = width;
+        ids = new int[16];
+        Arrays.fill(ids, EMPTY);
+        hashes = new int[16];
+        idKeys = new int[8 * width];
+        mask = 15;
+    }
+
+    /** @return the number of ints in a key */
+    public int width() {
+        return width;
+    }
+
+    /** Hashes width ints of key, spreading the bits like IntHashTable. */
+    private int hash(int[] key, int offset) {
+        int h = 0;
+        for (int i = 0; i < width; i++) {
+            h = (h + key[offset + i]) * 0x9E3779B9;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(int id, int[] key) {
+        int base = id * width;
+        for (int i = 0; i < width; i++) {
+            if (idKeys[base + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key the key, in its first width entries
+     * @return the id of key, or -1 if it has not been added
+     */
+    public int get(int[] key) {
+        int h = hash(key, 0);
+        for (int s = h & mask; ; s = (s + 1) & mask) {
+            int id = ids[s];
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (hashes[s] == h && matches(id, key)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @param key the key, in its first width entries; it is copied, so the
+     *            array can be reused for the next key
+     * @return the id of key, adding it with the next free id if it is new
+     */
+    public int add(int[] key) {
+        int h = hash(key, 0);
+        int s = h & mask;
+        for (; ids[s] != EMPTY; s = (s + 1) & mask) {
+            if (hashes[s] == h && matches(ids[s], key)) {
+                return ids[s];
+            }
+        }
+        int id = size++;
+        ids[s] = id;
+        hashes[s] = h;
+        System.arraycopy(key, 0, idKeys, id * width, width);
+        if (size * width == idKeys.length) {
+            grow();
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        int newMask = capacity - 1;
+        int[] newIds = new int[capacity];
+        int[] newHashes = new int[capacity];
+        Arrays.fill(newIds, EMPTY);
+        for (int id = 0; id < size; id++) {
+            int h = hash(idKeys, id * width);
+            int s = h & newMask;
+            while (newIds[s] != EMPTY) {
+                s = (s + 1) & newMask;
+            }
+            newIds[s] = id;
+            newHashes[s] = h;
+        }
+        ids = newIds;
+        hashes = newHashes;
+        idKeys = Arrays.copyOf(idKeys, capacity / 2 * width);
+        mask = newMask;
+    }
+
+    /** @return the number of keys added */
+    public int size() {
+        return size;
+    }
+
+    /** @return entry i of the key with the given id */
+    public int key(int id, int i) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("no key with id " + id);
+        }
+        return idKeys[id * width + i];
+    }
+
+    /** Removes all keys; ids are handed out from 0 again. */
+    public void clear() {
+        Arrays.fill(ids, EMPTY);
+        size = 0;
+    }
+}
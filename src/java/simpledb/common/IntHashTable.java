@@ -0,0 +1,126 @@
+package simpledb.common;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from int keys to dense ids. The first key
+ * added gets id 0, the next new key id 1 and so on, so callers keep the
+ * values for a key in plain arrays indexed by its id. Neither lookups nor
+ * inserts of known keys allocate.
+ * <p>
+ * Collisions are resolved by linear probing; the table doubles when it is
+ * half full.
+ */
+public class IntHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Marks an unused slot in ids. */
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    /** Per slot, the id of its key, or EMPTY. */
+    private int[] ids;
+    /** Per id, its key. */
+    private int[] idKeys;
+    private int mask;
+    private int size;
+
+    public IntHashTable() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of keys to make room for up front
+     */
+    public IntHashTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new int[capacity];
+        ids = new int[capacity];
+        Arrays.fill(ids, EMPTY);
+        idKeys = new int[capacity / 2];
+        mask = capacity - 1;
+    }
+
+    /** Spreads the key bits so that sequential keys do not form runs. */
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return the id of key, or -1 if it has not been added
+     */
+    public int get(int key) {
+        for (int s = slot(key, mask); ; s = (s + 1) & mask) {
+            int id = ids[s];
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (keys[s] == key) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the id of key, adding it with the next free id if it is new
+     */
+    public int add(int key) {
+        int s = slot(key, mask);
+        for (; ids[s] != EMPTY; s = (s + 1) & mask) {
+            if (keys[s] == key) {
+                return ids[s];
+            }
+        }
+        int id = size++;
+        keys[s] = key;
+        ids[s] = id;
+        idKeys[id] = key;
+        if (size == idKeys.length) {
+            grow();
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        int newMask = capacity - 1;
+        int[] newKeys = new int[capacity];
+        int[] newIds = new int[capacity];
+        Arrays.fill(newIds, EMPTY);
+        for (int id = 0; id < size; id++) {
+            int key = idKeys[id];
+            int s = slot(key, newMask);
+            while (newIds[s] != EMPTY) {
+                s = (s + 1) & newMask;
+            }
+            newKeys[s] = key;
+            newIds[s] = id;
+        }
+        keys = newKeys;
+        ids = newIds;
+        idKeys = Arrays.copyOf(idKeys, capacity / 2);
+        mask = newMask;
+    }
+
+    /** @return the number of keys added */
+    public int size() {
+        return size;
+    }
+
+    /** @return the key with the given id */
+    public int key(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("no key with id " + id);
+        }
+        return idKeys[id];
+    }
+
+    /** Removes all keys; ids are handed out from 0 again. */
+    public void clear() {
+        Arrays.fill(ids, EMPTY);
+        size = 0;
+    }
+}
@@ -2,28 +2,49 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.NoSuchElementException;
 
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min) of any number of columns, grouped by any number of columns, in one
+ * pass over its child (see {@link GroupAggregator}).
+ * <p>
+ * In batch mode (see {@link Operator#setBatchMode}) the child is read in
+ * batches, which the aggregator merges column by column.
+ * <p>
+ * The groups held in memory are limited by {@link #setMemoryBudget(long)
+ * the memory budget}; beyond it partial aggregates are spilled to
+ * temporary files and merged partition by partition as the result is
+ * read.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** System property with the memory budget of aggregates in bytes; see
+     * {@link SpillFile#memoryBudget(String)}. */
+    public static final String MEMORY_PROPERTY = "simpledb.execution.Aggregate.memory";
+
+    private OpIterator child;
+    private int[] afields, gfields;
+    private Aggregator.Op[] aops;
+
+    private TupleDesc tupleDesc;
+
+    private GroupAggregator aggregator;
+    private OpIterator aggIterator;
+    private long memoryBudget = SpillFile.memoryBudget(MEMORY_PROPERTY);
+
     /**
      * Constructor.
-     * <p>
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -31,82 +52,159 @@ public class Aggregate extends Operator {
      *               there is no grouping
      * @param aop    The aggregation operator to use
      */
-
-    private OpIterator child;
-    private int afield, gfield;
-    private Aggregator.Op aop;
-
-    private Type aType, gType;
-    private String aName, gName;
-    private TupleDesc tupleDesc;
-
-    private Aggregator aggregator;
-    private OpIterator aggIterator;
-
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
-        this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this(child, new int[]{afield}, new Aggregator.Op[]{aop},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield});
+    }
 
-        aType = child.getTupleDesc().getFieldType(afield);
-        gType = gfield == -1 ? null : child.getTupleDesc().getFieldType(gfield);
+    /**
+     * Creates an aggregate of several columns, e.g. for
+     * SELECT a, b, SUM(x), COUNT(y), MAX(z) ... GROUP BY a, b. The result has
+     * the group-by columns, then a column per aggregate named like
+     * "sum(t.x)".
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns to aggregate.
+     * @param aops    The aggregate of each column.
+     * @param gfields The columns to group by, none for no grouping.
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        this(child, afields, aops, gfields, names(child.getTupleDesc(), afields, aops));
+    }
 
-        aName = aop.toString() + "(" + child.getTupleDesc().getFieldName(afield) + ")";
-        gName = gfield == -1 ? "" : child.getTupleDesc().getFieldName(gfield);
+    /**
+     * Creates an aggregate whose result columns have the given names, used
+     * when it combines partial aggregates and should be named like the
+     * aggregate computed in one phase would be.
+     */
+    Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields, String[] aNames) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("an aggregate needs an operator per column");
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        tupleDesc = resultDesc(child.getTupleDesc(), afields, gfields, aNames);
+    }
 
-        if(gfield == Aggregator.NO_GROUPING) {
-            tupleDesc = new TupleDesc(new Type[]{aType}, new String[]{aName});
-        } else {
-            tupleDesc = new TupleDesc(new Type[]{gType, aType}, new String[]{gName, aName});
+    /**
+     * @return the TupleDesc of an aggregate: the group-by columns of the
+     *         child, then an int column per aggregate with the given name
+     */
+    static TupleDesc resultDesc(TupleDesc td, int[] afields, int[] gfields, String[] aNames) {
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = td.getFieldType(gfields[i]);
+            names[i] = td.getFieldName(gfields[i]);
+        }
+        for (int j = 0; j < afields.length; j++) {
+            // every aggregate, also a count of strings, is an int
+            types[gfields.length + j] = Type.INT_TYPE;
+            names[gfields.length + j] = aNames[j];
         }
+        return new TupleDesc(types, names);
+    }
+
+    /** @return the names of aggregate columns, like "sum(t.x)" */
+    static String[] names(TupleDesc td, int[] afields, Aggregator.Op[] aops) {
+        String[] names = new String[afields.length];
+        for (int j = 0; j < afields.length; j++) {
+            names[j] = aops[j].toString() + "(" + td.getFieldName(afields[j]) + ")";
+        }
+        return names;
     }
 
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
-     * field index in the <b>INPUT</b> tuples. If not, return
-     * {@link Aggregator#NO_GROUPING}
+     * field index in the <b>INPUT</b> tuples (the first one if there are
+     * several). If not, return {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
         // some code goes here
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the group-by fields in the <b>INPUT</b> tuples, none if there
+     * is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     * of the groupby field in the <b>OUTPUT</b> tuples. If not, return
+     * of the (first) groupby field in the <b>OUTPUT</b> tuples. If not, return
      * null;
      */
     public String groupFieldName() {
         // some code goes here
-        if(gfield == Aggregator.NO_GROUPING) return null;
-        return child.getTupleDesc().getFieldName(gfield);
+        if(gfields.length == 0) return null;
+        return child.getTupleDesc().getFieldName(gfields[0]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      */
     public int aggregateField() {
         // some code goes here
-        return afield;
+        return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     * tuples
+     * @return the aggregate fields in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return return the name of the (first) aggregate field in the
+     * <b>INPUT</b> tuples
      */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(afield);
+        return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    /**
+     * Sets how much memory the groups may take; beyond it partial
+     * aggregates are spilled to temporary files.
+     *
+     * @param bytes the memory budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of partitions the last open() spilled partial
+     *         aggregates to
+     */
+    public int getSpilledPartitions() {
+        return aggregator == null ? 0 : aggregator.getSpilledPartitions();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -119,26 +217,46 @@ public class Aggregate extends Operator {
         super.open();
         child.open();
 
-        if(aType == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(gfield, gType, afield, aop);
-        } else {
-            aggregator = new StringAggregator(gfield, gType, afield, aop);
+        TupleDesc td = child.getTupleDesc();
+        Type[] gTypes = new Type[gfields.length];
+        for(int i = 0; i < gfields.length; i++) {
+            gTypes[i] = td.getFieldType(gfields[i]);
+        }
+        Type[] aTypes = new Type[afields.length];
+        for(int j = 0; j < afields.length; j++) {
+            aTypes[j] = td.getFieldType(afields[j]);
+        }
+        if(aggregator != null) {
+            aggregator.deleteSpillFiles();
         }
+        aggregator = new GroupAggregator(gfields, gTypes, afields, aTypes, aops);
+        aggregator.setMemoryBudget(memoryBudget);
 
-        while(child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
+        try {
+            if(isBatchMode()) {
+                TupleBatch batch;
+                while((batch = child.nextBatch()) != null) {
+                    aggregator.mergeBatchIntoGroups(batch);
+                    if(aggregator.overBudget()) aggregator.spill();
+                }
+            } else {
+                while(child.hasNext()) {
+                    aggregator.mergeTupleIntoGroup(child.next());
+                    if(aggregator.overBudget()) aggregator.spill();
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("aggregate could not use its spill files: " + e.getMessage());
         }
 
-        aggIterator = aggregator.iterator();
+        aggIterator = aggregator.iterator(tupleDesc);
         aggIterator.open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The first fields are the fields by which we are
+     * grouping, if any, and the others are the results of computing the
+     * aggregates. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -152,10 +270,8 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by a field per aggregate value column.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -171,7 +287,8 @@ public class Aggregate extends Operator {
         // some code goes here
         super.close();
         child.close();
-        aggIterator.close();
+        if(aggIterator != null) aggIterator.close();
+        if(aggregator != null) aggregator.deleteSpillFiles();
     }
 
     @Override
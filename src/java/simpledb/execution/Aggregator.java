@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,18 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges every row of a batch into the aggregate, as
+     * mergeTupleIntoGroup would.
+     *
+     * @param batch the rows, with an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroups(TupleBatch batch) {
+        for (int r = 0; r < batch.size(); r++) {
+            mergeTupleIntoGroup(batch.getTuple(r));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
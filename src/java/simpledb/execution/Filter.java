@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -26,6 +27,8 @@ public class Filter extends Operator {
 
     private Predicate p;
     private OpIterator child;
+    /** Rows of the child's batch that pass, used by nextBatch(). */
+    private transient int[] rows;
 
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
@@ -82,6 +85,29 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Reads the child's batches and drops the rows that do not pass the
+     * predicate from them.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        checkOpen();
+        TupleBatch b;
+        while((b = child.nextBatch()) != null) {
+            if(rows == null || rows.length < b.size()) {
+                rows = new int[b.capacity()];
+            }
+            int n = p.filter(b, rows);
+            if(n > 0) {
+                if(n < b.size()) {
+                    b.retain(rows, n);
+                }
+                return b;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
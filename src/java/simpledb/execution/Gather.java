@@ -0,0 +1,425 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An exchange operator that runs each of its children on a worker thread
+ * and returns the tuples of all of them, in no particular order. Together
+ * with scans of partitions of a heap file (see
+ * {@link SeqScan#SeqScan(simpledb.transaction.TransactionId, int, String, int, int)})
+ * it reads a table in parallel; {@link #parallelize} builds such plans.
+ * <p>
+ * The workers run as part of the transaction the children were created
+ * with, so they take the same page locks in the buffer pool a serial scan
+ * would, and the locks are released when the transaction completes. A
+ * worker hands over the tuples it reads in chunks through a bounded queue,
+ * so workers that get ahead of the consumer wait for it.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** System property with the number of workers the planner splits the
+     * scan of a table between, e.g. -Dsimpledb.execution.workers=4. */
+    public static final String WORKERS_PROPERTY = "simpledb.execution.workers";
+    private static volatile int workers = Math.max(1, Integer.getInteger(WORKERS_PROPERTY, 1));
+
+    /** Tables are only split in partitions of at least this many pages. */
+    public static final int MIN_PAGES_PER_WORKER = 4;
+
+    /** Tuples a worker hands over at a time. */
+    private static final int CHUNK_SIZE = TupleBatch.DEFAULT_SIZE;
+    /** Chunks each worker may have queued ahead of the consumer. */
+    private static final int CHUNKS_PER_WORKER = 4;
+    /** Put in the queue by a worker when it is done. */
+    private static final List<Tuple> DONE = new ArrayList<>(0);
+
+    /**
+     * Runs the workers of every Gather. Threads are created as needed, so
+     * that the workers of one Gather never wait for those of another, which
+     * may wait for a consumer reading from the first one.
+     */
+    private static final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-gather");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Sets the number of workers the planner splits the scan of a table
+     * between; 1 turns parallel scans off. Takes effect for plans built
+     * afterwards.
+     */
+    public static void setWorkers(int n) {
+        workers = Math.max(1, n);
+    }
+
+    public static int getWorkers() {
+        return workers;
+    }
+
+    private OpIterator[] children;
+
+    private transient BlockingQueue<List<Tuple>> queue;
+    /** Set to make the workers stop early. */
+    private transient volatile boolean cancelled;
+    /** The first exception thrown by a worker. */
+    private transient volatile Throwable failure;
+    /** The threads running workers; guarded by itself. */
+    private transient Set<Thread> running;
+    /** The number of workers that are done. */
+    private transient int finished;
+    private transient List<Tuple> chunk;
+    private transient int pos;
+
+    /**
+     * @param children the plans to run in parallel, which must all return
+     *                 tuples with the same TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        this.children = children.clone();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    private void start() {
+        queue = new ArrayBlockingQueue<>(children.length * (CHUNKS_PER_WORKER + 1));
+        running = new HashSet<>();
+        cancelled = false;
+        failure = null;
+        finished = 0;
+        chunk = null;
+        for (OpIterator child : children) {
+            BlockingQueue<List<Tuple>> q = queue;
+            Set<Thread> threads = running;
+            pool.execute(() -> drain(child, q, threads));
+        }
+    }
+
+    /** Runs on a worker: reads all tuples of child into q. */
+    private void drain(OpIterator child, BlockingQueue<List<Tuple>> q, Set<Thread> threads) {
+        synchronized (threads) {
+            threads.add(Thread.currentThread());
+        }
+        try {
+            if (cancelled) {
+                return;
+            }
+            child.open();
+            try {
+                List<Tuple> out = new ArrayList<>(CHUNK_SIZE);
+                if (isBatchMode()) {
+                    TupleBatch b;
+                    while (!cancelled && (b = child.nextBatch()) != null) {
+                        for (int r = 0; r < b.size(); r++) {
+                            out.add(b.getTuple(r));
+                            if (out.size() == CHUNK_SIZE) {
+                                q.put(out);
+                                out = new ArrayList<>(CHUNK_SIZE);
+                            }
+                        }
+                    }
+                } else {
+                    while (!cancelled && child.hasNext()) {
+                        out.add(child.next());
+                        if (out.size() == CHUNK_SIZE) {
+                            q.put(out);
+                            out = new ArrayList<>(CHUNK_SIZE);
+                        }
+                    }
+                }
+                if (!out.isEmpty() && !cancelled) {
+                    q.put(out);
+                }
+            } finally {
+                child.close();
+            }
+        } catch (Throwable e) {
+            if (failure == null) {
+                failure = e;
+            }
+            cancelled = true;
+        } finally {
+            synchronized (threads) {
+                threads.remove(Thread.currentThread());
+            }
+            // the consumer keeps taking from the queue until every worker
+            // is done, so this does not block forever
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    q.put(DONE);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (chunk != null && pos < chunk.size()) {
+                return chunk.get(pos++);
+            }
+            if (finished == children.length) {
+                return null;
+            }
+            List<Tuple> next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+            if (next == DONE) {
+                finished++;
+                checkFailure();
+            } else {
+                chunk = next;
+                pos = 0;
+            }
+        }
+    }
+
+    /** Rethrows the exception a worker failed with, if any. */
+    private void checkFailure() throws DbException, TransactionAbortedException {
+        Throwable e = failure;
+        if (e == null) {
+            return;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new DbException("parallel scan failed: " + e);
+    }
+
+    /** Makes the workers stop and waits until they are done. */
+    private void stop() {
+        if (queue == null) {
+            return;
+        }
+        cancelled = true;
+        if (failure != null) {
+            // a worker failed, e.g. as a deadlock victim: the others may be
+            // waiting for locks that are only released when the transaction
+            // aborts, which it cannot do before they are done
+            synchronized (running) {
+                for (Thread t : running) {
+                    t.interrupt();
+                }
+            }
+        }
+        boolean interrupted = false;
+        while (finished < children.length) {
+            try {
+                if (queue.take() == DONE) {
+                    finished++;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        queue = null;
+        chunk = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    public void close() {
+        stop();
+        super.close();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children.clone();
+    }
+
+    /**
+     * Rewrites a plan so that the scan at its bottom is split between
+     * workers, if the plan is a scan of a heap file under any number of
+     * Filters, or an Aggregate over such a scan or over a Gather:
+     * <ul>
+     * <li>Filter*(SeqScan) becomes Gather over Filter*(SeqScan of partition
+     * i), one per worker, so the filters are evaluated by the workers.
+     * <li>An Aggregate becomes a final Aggregate over a Gather of partial
+     * Aggregates, one per partition (or per child of the Gather), so each
+     * worker aggregates the rows it reads. The final aggregate sums the
+     * partial counts and sums, takes the minimum or maximum of the partial
+     * minimums or maximums, and computes an average from a partial SUM and
+     * COUNT with SC_AVG; its results are named like those of the original
+     * Aggregate. The memory budget of the original is split between the
+     * partial aggregates.
+     * </ul>
+     * Other plans, and plans over tables too small to be worth splitting,
+     * are returned unchanged.
+     *
+     * @param workers the number of partitions to split the table in
+     */
+    public static OpIterator parallelize(OpIterator plan, int workers) {
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            OpIterator child = a.getChildren()[0];
+            OpIterator[] inputs;
+            if (child instanceof Gather) {
+                inputs = ((Gather) child).getChildren();
+            } else {
+                int partitions = partitions(child, workers);
+                if (partitions < 2) {
+                    return plan;
+                }
+                inputs = new OpIterator[partitions];
+                for (int i = 0; i < partitions; i++) {
+                    inputs[i] = partition(child, i, partitions);
+                }
+            }
+            return twoPhase(a, inputs);
+        }
+        int partitions = partitions(plan, workers);
+        return partitions < 2 ? plan : gather(plan, partitions);
+    }
+
+    /**
+     * @return a final Aggregate over a Gather of partial aggregates of
+     *         inputs, computing what a does, or a if one of its aggregates
+     *         cannot be combined from partial results
+     */
+    private static OpIterator twoPhase(Aggregate a, OpIterator[] inputs) {
+        int[] gfields = a.groupFields();
+        int[] afields = a.aggregateFields();
+        Aggregator.Op[] ops = a.aggregateOps();
+        // partial results have the group-by values, then the partial
+        // aggregates: two, a SUM and a COUNT, for an AVG
+        List<Integer> partialFields = new ArrayList<>();
+        List<Aggregator.Op> partialOps = new ArrayList<>();
+        int[] finalFields = new int[ops.length];
+        Aggregator.Op[] finalOps = new Aggregator.Op[ops.length];
+        String[] names = new String[ops.length];
+        for (int j = 0; j < ops.length; j++) {
+            finalFields[j] = gfields.length + partialOps.size();
+            names[j] = a.getTupleDesc().getFieldName(gfields.length + j);
+            switch (ops[j]) {
+                case SUM:
+                case COUNT:
+                    finalOps[j] = Aggregator.Op.SUM;
+                    break;
+                case MIN:
+                case MAX:
+                    finalOps[j] = ops[j];
+                    break;
+                case AVG:
+                    finalOps[j] = Aggregator.Op.SC_AVG;
+                    partialFields.add(afields[j]);
+                    partialOps.add(Aggregator.Op.SUM);
+                    partialFields.add(afields[j]);
+                    partialOps.add(Aggregator.Op.COUNT);
+                    continue;
+                default:
+                    return a;
+            }
+            partialFields.add(afields[j]);
+            partialOps.add(ops[j]);
+        }
+        int[] pfields = new int[partialFields.size()];
+        for (int j = 0; j < pfields.length; j++) {
+            pfields[j] = partialFields.get(j);
+        }
+        Aggregator.Op[] pops = partialOps.toArray(new Aggregator.Op[0]);
+        OpIterator[] partials = new OpIterator[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            Aggregate partial = new Aggregate(inputs[i], pfields, pops, gfields);
+            partial.setMemoryBudget(a.getMemoryBudget() / inputs.length);
+            partials[i] = partial;
+        }
+        int[] finalGroups = new int[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            finalGroups[i] = i;
+        }
+        Aggregate result = new Aggregate(new Gather(partials), finalFields, finalOps, finalGroups, names);
+        result.setMemoryBudget(a.getMemoryBudget());
+        return result;
+    }
+
+    private static Gather gather(OpIterator plan, int partitions) {
+        OpIterator[] children = new OpIterator[partitions];
+        for (int i = 0; i < partitions; i++) {
+            children[i] = partition(plan, i, partitions);
+        }
+        return new Gather(children);
+    }
+
+    /**
+     * @return the number of partitions to split the scan of plan in, or 0
+     *         if plan is not Filter*(SeqScan) over a heap file
+     */
+    private static int partitions(OpIterator plan, int workers) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (!(plan instanceof SeqScan) || ((SeqScan) plan).getPartitions() != 1) {
+            return 0;
+        }
+        SeqScan scan = (SeqScan) plan;
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile)) {
+            return 0;
+        }
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return Math.min(workers, f.numPages() / MIN_PAGES_PER_WORKER);
+    }
+
+    /** Copies a Filter*(SeqScan) plan, with the scan reading one partition. */
+    private static OpIterator partition(OpIterator plan, int partition, int partitions) {
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new Filter(f.getPredicate(), partition(f.getChildren()[0], partition, partitions));
+        }
+        SeqScan s = (SeqScan) plan;
+        return new SeqScan(s.getTransactionId(), s.getTableId(), s.getAlias(), partition, partitions);
+    }
+}
@@ -0,0 +1,735 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.IntArrayHashTable;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Computes any number of aggregates over the same input in one pass,
+ * grouped by any number of columns (or none). The result has a row per
+ * group with the group-by values followed by the aggregate values.
+ * <p>
+ * Groups are numbered in order of appearance. Composite keys of int
+ * columns are numbered by an {@link IntArrayHashTable}; keys with other
+ * columns by a HashMap. The state of a group is a row count and, per
+ * aggregate, a long running sum, minimum or maximum, kept in arrays indexed
+ * by group number. COUNT and AVG share the row count, as there are no NULL
+ * values. Results are read from those arrays when they are iterated, not
+ * copied into tuples first.
+ * <p>
+ * SC_AVG combines partial averages, computed elsewhere as a SUM and a
+ * COUNT: its column is the sum and the column after it the count, and it
+ * keeps a running total of each.
+ * <p>
+ * The groups held in memory are limited by {@link #setMemoryBudget a
+ * memory budget}. When {@link #overBudget()} the caller should
+ * {@link #spill()}: the partial aggregates of all groups are then written
+ * to temporary files, hash-partitioned by group, and the groups are
+ * cleared. The iterator then merges the partial aggregates of one
+ * partition at a time, so only that partition's groups are in memory; a
+ * partition too large for the budget is partitioned again by other bits
+ * of the hash.
+ * <p>
+ * Only COUNT can be computed over a column that is not an int.
+ */
+public class GroupAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int PARTITION_BITS = 5;
+    /** Number of partitions groups are spilled to. */
+    public static final int PARTITIONS = 1 << PARTITION_BITS;
+    /** Partitions are only split again this many times, after which the
+     * hash has no bits left to tell their groups apart. */
+    private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+    /** Estimated heap bytes of a group key that is not all ints, beyond
+     * its field data: a list of fields, much like a tuple, and its entry in
+     * the HashMap. */
+    private static final int KEY_OVERHEAD = SpillFile.TUPLE_OVERHEAD + 32;
+
+    private final int[] gfields;
+    private final Type[] gtypes;
+    private final int[] afields;
+    private final Type[] atypes;
+    private final Op[] ops;
+    /** How many times the groups have been partitioned: 0 for the input,
+     * 1 for a partition spilled by it, and so on. */
+    private final int level;
+
+    /** Group numbers of int keys; null if a group-by column is not an int. */
+    private final IntArrayHashTable intGroups;
+    /** The key of a row, reused for every row. */
+    private final int[] key;
+    /** Group numbers of other keys, and the keys by number. */
+    private final Map<List<Field>, Integer> groupIds;
+    private final List<List<Field>> groupKeys;
+    private int groups;
+
+    /** Per group, the number of rows merged into it. */
+    private long[] counts = new long[16];
+    /** Per aggregate, per group, its running sum, minimum or maximum; null
+     * for COUNT, which only needs the row count. */
+    private final long[][] values;
+    /** Per aggregate, per group, the total of the partial counts of an
+     * SC_AVG; null for other aggregates. */
+    private final long[][] partialCounts;
+
+    /** The group of each row of the batch being merged. */
+    private transient int[] batchGroups;
+
+    private long memoryBudget = Long.MAX_VALUE;
+    /** The number of groups that fit in the memory budget. */
+    private long budgetGroups = Long.MAX_VALUE;
+    /** Per partition, the partial aggregates spilled to it; null until the
+     * first spill. */
+    private transient SpillFile[] spillFiles;
+    private int spilledPartitions;
+
+    /**
+     * @param gfields the group-by columns, none for no grouping
+     * @param gtypes their types
+     * @param afields the columns to aggregate
+     * @param atypes their types
+     * @param ops the aggregate of each column, one of MIN, MAX, SUM, AVG,
+     *            COUNT and SC_AVG
+     * @throws IllegalArgumentException if an aggregate is not supported
+     */
+    public GroupAggregator(int[] gfields, Type[] gtypes, int[] afields, Type[] atypes, Op[] ops) {
+        this(gfields, gtypes, afields, atypes, ops, 0);
+    }
+
+    private GroupAggregator(int[] gfields, Type[] gtypes, int[] afields, Type[] atypes, Op[] ops, int level) {
+        this.level = level;
+        this.gfields = gfields.clone();
+        this.gtypes = gtypes.clone();
+        this.afields = afields.clone();
+        this.atypes = atypes.clone();
+        this.ops = ops.clone();
+        boolean allInts = true;
+        for (Type t : gtypes) {
+            allInts &= t == Type.INT_TYPE;
+        }
+        if (gfields.length == 0 || allInts) {
+            intGroups = gfields.length == 0 ? null : new IntArrayHashTable(gfields.length);
+            groupIds = null;
+            groupKeys = null;
+        } else {
+            intGroups = null;
+            groupIds = new HashMap<>();
+            groupKeys = new ArrayList<>();
+        }
+        key = new int[gfields.length];
+        values = new long[ops.length][];
+        partialCounts = new long[ops.length][];
+        for (int j = 0; j < ops.length; j++) {
+            switch (ops[j]) {
+                case SC_AVG:
+                    partialCounts[j] = new long[16];
+                    // fall through
+                case MIN:
+                case MAX:
+                case SUM:
+                case AVG:
+                    if (atypes[j] != Type.INT_TYPE) {
+                        throw new IllegalArgumentException(ops[j] + " of a " + atypes[j] + " column");
+                    }
+                    values[j] = new long[16];
+                    break;
+                case COUNT:
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported aggregate " + ops[j]);
+            }
+        }
+    }
+
+    /** @return the number of groups in memory */
+    public int groups() {
+        return groups;
+    }
+
+    /**
+     * Sets how much memory the groups may take; see {@link #overBudget()}.
+     *
+     * @param bytes the memory budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+        budgetGroups = Math.max(1, bytes / groupBytes());
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /** @return the estimated heap bytes of a group */
+    private int groupBytes() {
+        int bytes = 8 + 8 * stateValues();
+        if (intGroups != null) {
+            // the key, and two slots of ids and hashes at most half full
+            return bytes + 4 * gfields.length + 16;
+        }
+        for (Type t : gtypes) {
+            bytes += t.getLen();
+        }
+        return bytes + KEY_OVERHEAD;
+    }
+
+    /**
+     * @return whether the groups in memory exceed the memory budget, and
+     *         should be spilled. Groups of a partition split as often as
+     *         the hash allows are never spilled again.
+     */
+    public boolean overBudget() {
+        return groups > budgetGroups && level < MAX_LEVEL;
+    }
+
+    /**
+     * @return the number of partitions partial aggregates were spilled to,
+     *         0 if the groups never exceeded the memory budget
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the schema of spilled partial aggregates: the group-by
+     *         columns, the row count, a value per aggregate other than
+     *         COUNT and the partial count of each SC_AVG, with each long
+     *         stored as two ints
+     */
+    private TupleDesc stateDesc() {
+        List<Type> types = new ArrayList<>(Arrays.asList(gtypes));
+        for (int i = 0; i <= stateValues(); i++) {
+            types.add(Type.INT_TYPE);
+            types.add(Type.INT_TYPE);
+        }
+        return new TupleDesc(types.toArray(new Type[0]));
+    }
+
+    /** @return the number of longs a group keeps besides its row count */
+    private int stateValues() {
+        int n = 0;
+        for (int j = 0; j < ops.length; j++) {
+            n += (values[j] != null ? 1 : 0) + (partialCounts[j] != null ? 1 : 0);
+        }
+        return n;
+    }
+
+    private static void setLong(Tuple t, int i, long v) {
+        t.setField(i, new IntField((int) (v >>> 32)));
+        t.setField(i + 1, new IntField((int) v));
+    }
+
+    private static long getLong(Tuple t, int i) {
+        return ((long) t.getInt(i) << 32) | (t.getInt(i + 1) & 0xFFFFFFFFL);
+    }
+
+    /** @return the partition of group g at this level */
+    private int partition(int g) {
+        int h;
+        if (intGroups != null) {
+            h = 0;
+            for (int i = 0; i < gfields.length; i++) {
+                h = (h + intGroups.key(g, i)) * 0x85EBCA6B;
+            }
+        } else {
+            h = groupKeys.get(g).hashCode() * 0x85EBCA6B;
+        }
+        h ^= h >>> 15;
+        return Integer.rotateLeft(h, level * PARTITION_BITS) >>> (32 - PARTITION_BITS);
+    }
+
+    /**
+     * Writes the partial aggregates of the groups in memory to the spill
+     * files of their partitions, and clears the groups. Groups can be
+     * spilled any number of times; the partial aggregates are merged when
+     * the partitions are read back.
+     */
+    public void spill() throws IOException {
+        TupleDesc sd = stateDesc();
+        if (spillFiles == null) {
+            spillFiles = new SpillFile[PARTITIONS];
+            for (int p = 0; p < PARTITIONS; p++) {
+                spillFiles[p] = new SpillFile(sd);
+            }
+        }
+        for (int g = 0; g < groups; g++) {
+            Tuple t = new Tuple(sd);
+            for (int i = 0; i < gfields.length; i++) {
+                t.setField(i, groupValue(g, i));
+            }
+            int f = gfields.length;
+            setLong(t, f, counts[g]);
+            f += 2;
+            for (int j = 0; j < ops.length; j++) {
+                if (values[j] != null) {
+                    setLong(t, f, values[j][g]);
+                    f += 2;
+                }
+                if (partialCounts[j] != null) {
+                    setLong(t, f, partialCounts[j][g]);
+                    f += 2;
+                }
+            }
+            spillFiles[partition(g)].add(t);
+        }
+        spilledPartitions = 0;
+        for (SpillFile f : spillFiles) {
+            if (f.size() > 0) {
+                spilledPartitions++;
+            }
+        }
+        clear();
+    }
+
+    /** Removes all groups from memory; groups are numbered from 0 again. */
+    void clear() {
+        if (intGroups != null) {
+            intGroups.clear();
+        } else if (groupIds != null) {
+            groupIds.clear();
+            groupKeys.clear();
+        }
+        groups = 0;
+    }
+
+    /**
+     * Merges a spilled partial aggregate, as written by spill(), into its
+     * group.
+     */
+    private void mergeState(Tuple t) {
+        int g = groupOf(t, null);
+        int f = gfields.length;
+        counts[g] += getLong(t, f);
+        f += 2;
+        for (int j = 0; j < ops.length; j++) {
+            long[] acc = values[j];
+            if (acc == null) {
+                continue;
+            }
+            long v = getLong(t, f);
+            f += 2;
+            if (partialCounts[j] != null) {
+                partialCounts[j][g] += getLong(t, f);
+                f += 2;
+            }
+            switch (ops[j]) {
+                case MIN:
+                    acc[g] = Math.min(acc[g], v);
+                    break;
+                case MAX:
+                    acc[g] = Math.max(acc[g], v);
+                    break;
+                default:
+                    acc[g] += v;
+            }
+        }
+    }
+
+    /** Deletes the spill files, if any. */
+    public void deleteSpillFiles() {
+        if (spillFiles != null) {
+            for (SpillFile f : spillFiles) {
+                f.delete();
+            }
+            spillFiles = null;
+        }
+    }
+
+    /** Makes room for group g, which is new, and starts its aggregates. */
+    private void newGroup(int g) {
+        if (g == counts.length) {
+            counts = Arrays.copyOf(counts, g * 2);
+            for (int j = 0; j < values.length; j++) {
+                if (values[j] != null) {
+                    values[j] = Arrays.copyOf(values[j], g * 2);
+                }
+                if (partialCounts[j] != null) {
+                    partialCounts[j] = Arrays.copyOf(partialCounts[j], g * 2);
+                }
+            }
+        }
+        counts[g] = 0;
+        for (int j = 0; j < ops.length; j++) {
+            if (ops[j] == Op.MIN) {
+                values[j][g] = Long.MAX_VALUE;
+            } else if (ops[j] == Op.MAX) {
+                values[j][g] = Long.MIN_VALUE;
+            } else if (values[j] != null) {
+                values[j][g] = 0;
+            }
+            if (partialCounts[j] != null) {
+                partialCounts[j][g] = 0;
+            }
+        }
+        groups++;
+    }
+
+    /**
+     * @return the group of the current key, adding the group if it is new
+     */
+    private int groupOfKey() {
+        int g = intGroups.add(key);
+        if (g == groups) {
+            newGroup(g);
+        }
+        return g;
+    }
+
+    /**
+     * @return the group of a key that is not all ints, adding the group if
+     *         it is new
+     */
+    private int groupOf(List<Field> k) {
+        Integer g = groupIds.get(k);
+        if (g == null) {
+            g = groups;
+            groupIds.put(k, g);
+            groupKeys.add(k);
+            newGroup(g);
+        }
+        return g;
+    }
+
+    /**
+     * @param fields the group-by columns of tup, or null if they are its
+     *               first columns
+     */
+    private int groupOf(Tuple tup, int[] fields) {
+        if (gfields.length == 0) {
+            if (groups == 0) {
+                newGroup(0);
+            }
+            return 0;
+        }
+        if (intGroups != null) {
+            for (int i = 0; i < gfields.length; i++) {
+                key[i] = tup.getInt(fields == null ? i : fields[i]);
+            }
+            return groupOfKey();
+        }
+        Field[] k = new Field[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            k[i] = tup.getField(fields == null ? i : fields[i]);
+        }
+        return groupOf(Arrays.asList(k));
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g = groupOf(tup, gfields);
+        counts[g]++;
+        for (int j = 0; j < ops.length; j++) {
+            long[] acc = values[j];
+            if (acc == null) {
+                continue;
+            }
+            int v = tup.getInt(afields[j]);
+            if (partialCounts[j] != null) {
+                partialCounts[j][g] += tup.getInt(afields[j] + 1);
+            }
+            switch (ops[j]) {
+                case MIN:
+                    acc[g] = Math.min(acc[g], v);
+                    break;
+                case MAX:
+                    acc[g] = Math.max(acc[g], v);
+                    break;
+                default:
+                    acc[g] += v;
+            }
+        }
+    }
+
+    /**
+     * Merges the rows of a batch: first finds the group of every row, then
+     * updates each aggregate in a loop over its column.
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        int n = batch.size();
+        if (n == 0) {
+            return;
+        }
+        if (batchGroups == null || batchGroups.length < n) {
+            batchGroups = new int[batch.capacity()];
+        }
+        int[] rowGroups = batchGroups;
+        if (gfields.length == 0) {
+            if (groups == 0) {
+                newGroup(0);
+            }
+            Arrays.fill(rowGroups, 0, n, 0);
+        } else if (intGroups != null) {
+            int[][] columns = new int[gfields.length][];
+            for (int i = 0; i < gfields.length; i++) {
+                columns[i] = batch.getInts(gfields[i]);
+            }
+            for (int r = 0; r < n; r++) {
+                for (int i = 0; i < columns.length; i++) {
+                    key[i] = columns[i][r];
+                }
+                rowGroups[r] = groupOfKey();
+            }
+        } else {
+            for (int r = 0; r < n; r++) {
+                Field[] k = new Field[gfields.length];
+                for (int i = 0; i < gfields.length; i++) {
+                    k[i] = batch.getField(r, gfields[i]);
+                }
+                rowGroups[r] = groupOf(Arrays.asList(k));
+            }
+        }
+        long[] rowCounts = counts;
+        for (int r = 0; r < n; r++) {
+            rowCounts[rowGroups[r]]++;
+        }
+        for (int j = 0; j < ops.length; j++) {
+            long[] acc = values[j];
+            if (acc == null) {
+                continue;
+            }
+            int[] column = batch.getInts(afields[j]);
+            if (partialCounts[j] != null) {
+                long[] pc = partialCounts[j];
+                int[] countColumn = batch.getInts(afields[j] + 1);
+                for (int r = 0; r < n; r++) {
+                    pc[rowGroups[r]] += countColumn[r];
+                }
+            }
+            switch (ops[j]) {
+                case MIN:
+                    for (int r = 0; r < n; r++) {
+                        acc[rowGroups[r]] = Math.min(acc[rowGroups[r]], column[r]);
+                    }
+                    break;
+                case MAX:
+                    for (int r = 0; r < n; r++) {
+                        acc[rowGroups[r]] = Math.max(acc[rowGroups[r]], column[r]);
+                    }
+                    break;
+                default:
+                    for (int r = 0; r < n; r++) {
+                        acc[rowGroups[r]] += column[r];
+                    }
+            }
+        }
+    }
+
+    /** @return value i of the key of group g */
+    private Field groupValue(int g, int i) {
+        if (intGroups != null) {
+            return new IntField(intGroups.key(g, i));
+        }
+        return groupKeys.get(g).get(i);
+    }
+
+    /** @return the value of aggregate j for group g */
+    int result(int j, int g) {
+        switch (ops[j]) {
+            case COUNT:
+                return (int) counts[g];
+            case AVG:
+                return (int) (values[j][g] / counts[g]);
+            case SC_AVG:
+                return (int) (values[j][g] / partialCounts[j][g]);
+            default:
+                return (int) values[j][g];
+        }
+    }
+
+    /**
+     * @return the types of the result rows: the group-by columns, then an
+     *         int per aggregate
+     */
+    public Type[] resultTypes() {
+        Type[] types = Arrays.copyOf(gtypes, gtypes.length + ops.length);
+        Arrays.fill(types, gtypes.length, types.length, Type.INT_TYPE);
+        return types;
+    }
+
+    public OpIterator iterator() {
+        return iterator(new TupleDesc(resultTypes()));
+    }
+
+    /**
+     * @param td the TupleDesc of the result rows, which must have the types
+     *           of {@link #resultTypes()}
+     * @return an iterator over the result rows. If groups were spilled it
+     *         spills the rest when opened and returns the groups partition
+     *         by partition; otherwise it reads the groups as they are when
+     *         it is read.
+     */
+    public OpIterator iterator(TupleDesc td) {
+        return spillFiles == null ? new GroupIterator(td) : new SpilledIterator(td);
+    }
+
+    /**
+     * Returns the groups of spilled partitions one partition at a time, each
+     * merged by an aggregator of its own. Groups still in memory are spilled
+     * when it is opened.
+     */
+    private class SpilledIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        /** The next partition to merge, or -1 if not open. */
+        private int next = -1;
+        private GroupAggregator partition;
+        private OpIterator groupsOfPartition;
+
+        SpilledIterator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public void open() throws DbException {
+            try {
+                if (groups > 0) {
+                    spill();
+                }
+            } catch (IOException e) {
+                throw new DbException("aggregate could not use its spill files: " + e.getMessage());
+            }
+            next = 0;
+        }
+
+        /** Merges the next partition with groups into partition. */
+        private boolean load() throws DbException, TransactionAbortedException {
+            try {
+                for (; next < PARTITIONS; next++) {
+                    if (spillFiles[next].size() == 0) {
+                        continue;
+                    }
+                    partition = new GroupAggregator(gfields, gtypes, afields, atypes, ops, level + 1);
+                    partition.setMemoryBudget(memoryBudget);
+                    try (SpillFile.Reader reader = spillFiles[next++].reader()) {
+                        Tuple t;
+                        while ((t = reader.next()) != null) {
+                            partition.mergeState(t);
+                            if (partition.overBudget()) {
+                                partition.spill();
+                            }
+                        }
+                    }
+                    groupsOfPartition = partition.iterator(td);
+                    groupsOfPartition.open();
+                    return true;
+                }
+            } catch (IOException e) {
+                throw new DbException("aggregate could not use its spill files: " + e.getMessage());
+            }
+            return false;
+        }
+
+        /** Closes the partition being returned and deletes its spill files. */
+        private void release() {
+            if (groupsOfPartition != null) {
+                groupsOfPartition.close();
+                partition.deleteSpillFiles();
+                groupsOfPartition = null;
+                partition = null;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next < 0) {
+                throw new IllegalStateException("iterator not open");
+            }
+            while (groupsOfPartition == null || !groupsOfPartition.hasNext()) {
+                release();
+                if (!load()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return groupsOfPartition.next();
+        }
+
+        public void rewind() throws DbException {
+            release();
+            next = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            release();
+            next = -1;
+        }
+    }
+
+    private class GroupIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        /** The next group to return, or -1 if not open. */
+        private int next = -1;
+
+        GroupIterator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public void open() {
+            next = 0;
+        }
+
+        public boolean hasNext() {
+            if (next < 0) {
+                throw new IllegalStateException("iterator not open");
+            }
+            return next < groups;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int g = next++;
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < gfields.length; i++) {
+                t.setField(i, groupValue(g, i));
+            }
+            for (int j = 0; j < ops.length; j++) {
+                t.setField(gfields.length + j, new IntField(result(j, g)));
+            }
+            return t;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            next = -1;
+        }
+    }
+}
@@ -2,22 +2,47 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.IntHashTable;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Joins on equality with a hybrid hash join that holds at most about
+ * {@link #setMemoryBudget(long) the memory budget} of child1 tuples in
+ * memory and spills the rest to temporary files.
+ * <p>
+ * {@link #nextBatch()} probes with child2's batches and fills the output
+ * batch column by column, without creating joined tuples.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** System property with the memory budget of hash joins in bytes; see
+     * {@link SpillFile#memoryBudget(String)}. */
+    public static final String MEMORY_PROPERTY = "simpledb.execution.HashEquiJoin.memory";
+    private static final int PARTITION_BITS = 5;
+    /** Number of partitions the build side is hashed into. */
+    public static final int PARTITIONS = 1 << PARTITION_BITS;
+    /** Spilled partitions are only split again this many times, after
+     * which the hash has no bits left to tell their keys apart. */
+    private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
-    private final TupleDesc comboTD;
+    private TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    private long memoryBudget = SpillFile.memoryBudget(MEMORY_PROPERTY);
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -55,28 +80,424 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
+    /**
+     * A spilled partition: its build tuples, the probe tuples that must
+     * meet them, and how many times they were partitioned again.
+     */
+    private static final class Spilled {
+        final SpillFile build, probe;
+        final int level;
+
+        Spilled(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    /**
+     * Build tuples by join key: those of the partitions kept in memory while
+     * child2 is read, then one spilled partition (or one chunk of it) at a
+     * time. Kept across rewinds unless partitions were spilled.
+     */
+    transient private BuildTable table;
+    /** Index in table of the next build tuple that matches t2, or -1. */
+    transient private int match = -1;
+    /** Whether both join fields are ints, which are hashed without boxing. */
+    transient private boolean intKeys;
+    /** Per partition, its spilled build tuples, or null while in memory. */
+    transient private SpillFile[] buildFiles;
+    /** Per spilled partition, the probe tuples that must meet them. */
+    transient private SpillFile[] probeFiles;
+    transient private boolean built = false;
+    /** Whether child2 has been read, and spilled partitions are joined. */
+    transient private boolean residentDone;
+    /** Spilled partitions still to be joined. */
+    transient private Deque<Spilled> pending;
+    /** The spilled partition being joined, or null. */
+    transient private Spilled current;
+    transient private SpillFile.Reader buildReader, probeReader;
+    transient private long budgetTuples;
+    transient private int extraProbePasses;
+    /** Batch mode: the output batch, and the child2 batch whose row
+     * probeRow is being joined while child2 is read. */
+    transient private TupleBatch out, probeBatch;
+    transient private int probeRow;
+
+    /**
+     * Sets how much memory the join may use for build tuples; partitions
+     * beyond it are spilled to temporary files.
+     *
+     * @param bytes the memory budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of partitions the last build spilled to disk
+     */
+    public int getSpilledPartitions() {
+        int n = 0;
+        if (buildFiles != null) {
+            for (SpillFile f : buildFiles) {
+                if (f != null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of times since the last build that the probe
+     *         tuples of a spilled partition were read again, because its
+     *         build tuples did not fit in memory and the partition could
+     *         not be split any further
+     */
+    public int getExtraProbePasses() {
+        return extraProbePasses;
+    }
+
+    private int partition(Tuple t, int field, int level) {
+        return partition(intKeys ? t.getInt(field) : t.getField(field).hashCode(), level);
+    }
+
+    /**
+     * @return the partition of a key hash after the given number of splits;
+     *         each split uses the next PARTITION_BITS bits of the hash
+     */
+    private static int partition(int hash, int level) {
+        return Integer.rotateLeft(hash * 0x9E3779B9, level * PARTITION_BITS) >>> (32 - PARTITION_BITS);
+    }
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    /**
+     * Reads child1 once, hashing it into partitions. Whenever the tuples in
+     * memory exceed the budget the largest partition still in memory is
+     * written to a spill file, and later tuples of that partition go
+     * straight to the file. The partitions left in memory make up table.
+     */
+    @SuppressWarnings("unchecked")
+    private void build() throws DbException, TransactionAbortedException, IOException {
+        TupleDesc td1 = child1.getTupleDesc();
+        intKeys = td1.getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        budgetTuples = Math.max(1, memoryBudget / SpillFile.tupleBytes(td1));
+        List<Tuple>[] parts = new List[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            parts[p] = new ArrayList<>();
+        }
+        buildFiles = new SpillFile[PARTITIONS];
+        probeFiles = new SpillFile[PARTITIONS];
+        long inMemory = 0;
         while (child1.hasNext()) {
             t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            int p = partition(t1, pred.getField1(), 0);
+            if (buildFiles[p] != null) {
+                buildFiles[p].add(t1);
+                continue;
+            }
+            parts[p].add(t1);
+            if (++inMemory > budgetTuples) {
+                int victim = p;
+                for (int q = 0; q < PARTITIONS; q++) {
+                    if (parts[q] != null && parts[q].size() > parts[victim].size()) {
+                        victim = q;
+                    }
+                }
+                SpillFile f = new SpillFile(td1);
+                for (Tuple t : parts[victim]) {
+                    f.add(t);
+                }
+                inMemory -= parts[victim].size();
+                parts[victim] = null;
+                buildFiles[victim] = f;
+                probeFiles[victim] = new SpillFile(child2.getTupleDesc());
+            }
+        }
+        table = new BuildTable(intKeys, pred.getField1());
+        for (List<Tuple> part : parts) {
+            if (part != null) {
+                for (Tuple t : part) {
+                    table.add(t);
+                }
+            }
+        }
+        t1 = null;
+        built = true;
+        extraProbePasses = 0;
+    }
+
+    /**
+     * Loads the next budget-sized chunk of the current spilled partition
+     * into table. A partition is only joined in more than one chunk if it
+     * could not be split any further: most of its tuples share a key, or
+     * their keys hash alike in every bit.
+     *
+     * @return false if the partition has no tuples left
+     */
+    private boolean loadChunk() throws IOException {
+        table.clear();
+        long n = 0;
+        Tuple t;
+        while (n < budgetTuples && (t = buildReader.next()) != null) {
+            table.add(t);
+            n++;
+        }
+        return n > 0;
+    }
+
+    /**
+     * Takes the next spilled partition to join and loads its first chunk.
+     * Partitions whose build tuples exceed the budget are first split by
+     * the next bits of the hash, as long as there are bits left.
+     *
+     * @return false if there is none
+     */
+    private boolean startPartition() throws IOException {
+        while ((current = pending.poll()) != null) {
+            if (current.build.size() > budgetTuples && current.level < MAX_LEVEL) {
+                split(current);
+                continue;
+            }
+            buildReader = current.build.reader();
+            loadChunk();
+            probeReader = current.probe.reader();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Partitions the build and probe tuples of s again, by the next bits of
+     * the hash, and queues the parts that have both. Each tuple of s is
+     * read once and written once.
+     */
+    private void split(Spilled s) throws IOException {
+        int level = s.level + 1;
+        SpillFile[] builds = new SpillFile[PARTITIONS];
+        SpillFile[] probes = new SpillFile[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            builds[p] = new SpillFile(child1.getTupleDesc());
+            probes[p] = new SpillFile(child2.getTupleDesc());
+        }
+        Tuple t;
+        try (SpillFile.Reader reader = s.build.reader()) {
+            while ((t = reader.next()) != null) {
+                builds[partition(t, pred.getField1(), level)].add(t);
+            }
+        }
+        try (SpillFile.Reader reader = s.probe.reader()) {
+            while ((t = reader.next()) != null) {
+                probes[partition(t, pred.getField2(), level)].add(t);
+            }
+        }
+        s.delete();
+        for (int p = 0; p < PARTITIONS; p++) {
+            Spilled part = new Spilled(builds[p], probes[p], level);
+            if (builds[p].size() > 0 && probes[p].size() > 0) {
+                pending.push(part);
+            } else {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Advances t2 to the next probe tuple with matches and points match at
+     * the first of them. Probe tuples of partitions in memory are joined as
+     * child2 is read; those of spilled partitions are written out and
+     * joined partition by partition afterwards, reusing table.
+     *
+     * @return false when the join is done
+     */
+    private boolean nextProbe() throws DbException, TransactionAbortedException, IOException {
+        if (!residentDone) {
+            while (child2.hasNext()) {
+                t2 = child2.next();
+                int p = partition(t2, pred.getField2(), 0);
+                if (buildFiles[p] != null) {
+                    probeFiles[p].add(t2);
+                    continue;
+                }
+                match = table.first(t2, pred.getField2());
+                if (match >= 0) {
+                    return true;
+                }
+            }
+            if (!finishResident()) {
+                return false;
+            }
+        }
+        while (current != null) {
+            Tuple t;
+            while ((t = probeReader.next()) != null) {
+                match = table.first(t, pred.getField2());
+                if (match >= 0) {
+                    t2 = t;
+                    return true;
+                }
+            }
+            probeReader.close();
+            if (loadChunk()) {
+                extraProbePasses++;
+                probeReader = current.probe.reader();
+                continue;
+            }
+            closeReaders();
+            current.delete();
+            startPartition();
+        }
+        return false;
+    }
+
+    /**
+     * Called when child2 has been read: moves on to the spilled partitions.
+     *
+     * @return false if there are no spilled probe tuples to join
+     */
+    private boolean finishResident() throws IOException {
+        residentDone = true;
+        pending = new ArrayDeque<>();
+        for (int p = 0; p < PARTITIONS; p++) {
+            if (buildFiles[p] != null && probeFiles[p].size() > 0) {
+                pending.add(new Spilled(buildFiles[p], probeFiles[p], 0));
+            }
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        // the resident partitions are done; give their memory to the spilled ones
+        table.clear();
+        return startPartition();
+    }
+
+    /**
+     * Batch mode counterpart of the first phase of nextProbe(): advances
+     * probeRow, through child2's batches, to the next row with matches and
+     * points match at the first of them. Rows of spilled partitions are
+     * written out.
+     *
+     * @return false when child2 has no more rows
+     */
+    private boolean nextProbeRow() throws DbException, TransactionAbortedException, IOException {
+        int f2 = pred.getField2();
+        while (true) {
+            if (probeBatch == null || ++probeRow >= probeBatch.size()) {
+                probeBatch = child2.nextBatch();
+                probeRow = 0;
+                if (probeBatch == null) {
+                    return false;
+                }
+            }
+            Field key = intKeys ? null : probeBatch.getField(probeRow, f2);
+            int p = partition(intKeys ? probeBatch.getInt(probeRow, f2) : key.hashCode(), 0);
+            if (buildFiles[p] != null) {
+                probeFiles[p].add(probeBatch.getTuple(probeRow));
+                continue;
+            }
+            match = intKeys ? table.first(probeBatch.getInt(probeRow, f2)) : table.first(key);
+            if (match >= 0) {
                 return true;
+            }
         }
-        return cnt > 0;
+    }
 
+    /**
+     * Joins child1 with child2's batches into an output batch, which is
+     * reused by the next call.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        checkOpen();
+        if (out == null) {
+            out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE);
+        }
+        out.clear();
+        try {
+            if (!built) {
+                build();
+            }
+            while (!out.isFull()) {
+                if (match >= 0) {
+                    if (probeBatch != null) {
+                        out.addJoined(table.tuple(match), probeBatch, probeRow);
+                    } else {
+                        out.addJoined(table.tuple(match), t2);
+                    }
+                    match = table.next(match);
+                    continue;
+                }
+                if (!residentDone) {
+                    if (nextProbeRow()) {
+                        continue;
+                    }
+                    if (!finishResident()) {
+                        break;
+                    }
+                }
+                // spilled partitions are joined tuple by tuple
+                if (!nextProbe()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join could not use its spill files: " + e.getMessage());
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    private void closeReaders() {
+        if (buildReader != null) {
+            buildReader.close();
+            buildReader = null;
+        }
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+    }
+
+    private void deleteSpillFiles() {
+        closeReaders();
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        if (pending != null) {
+            for (Spilled part : pending) {
+                part.delete();
+            }
+            pending = null;
+        }
+        for (SpillFile[] files : new SpillFile[][]{buildFiles, probeFiles}) {
+            if (files != null) {
+                for (SpillFile f : files) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+        buildFiles = probeFiles = null;
+        table = null;
+        built = false;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        residentDone = false;
         super.open();
     }
 
@@ -86,22 +507,37 @@ public class HashEquiJoin extends Operator {
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.match=-1;
+        out = probeBatch = null;
+        deleteSpillFiles();
     }
 
+    /**
+     * Without spilled partitions only child2 is read again; the in-memory
+     * table is kept. Otherwise the join starts over from both children.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        match = -1;
+        probeBatch = null;
+        if (built && getSpilledPartitions() == 0) {
+            child2.rewind();
+        } else {
+            deleteSpillFiles();
+            child1.rewind();
+            child2.rewind();
+        }
+        residentDone = false;
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. This implementation is a hybrid hash
+     * join: child1 is hashed into partitions that are kept in memory as
+     * long as they fit the memory budget, and child2 probes them. Both
+     * children are read once; tuples of partitions that did not fit are
+     * written to temporary files and read once more, plus once for each
+     * time a partition still too large for the budget is split again.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -116,48 +552,28 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        t1 = table.tuple(match);
+        match = table.next(match);
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        // combined tuple
+        return Tuple.merge(comboTD, t1, t2);
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        try {
+            if (!built) {
+                build();
+            }
+            while (match < 0) {
+                if (!nextProbe()) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join could not use its spill files: " + e.getMessage());
         }
-
-        return null;
+        return processList();
     }
 
     @Override
@@ -169,6 +585,96 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
     
+    /**
+     * Build tuples by join key. The tuples with the same key are chained
+     * through arrays, so that probing allocates nothing. Int keys are mapped
+     * to key ids by an IntHashTable, other keys by a HashMap.
+     */
+    private static final class BuildTable {
+        private final boolean intKeys;
+        private final int field;
+        private final IntHashTable intIds;
+        private final Map<Field, Integer> ids;
+        /** Per key id, the index of the last tuple with that key. */
+        private int[] last = new int[16];
+        /** Per tuple, the index of the previous tuple with its key, or -1. */
+        private int[] previous = new int[16];
+        private Tuple[] tuples = new Tuple[16];
+        private int keys, size;
+
+        BuildTable(boolean intKeys, int field) {
+            this.intKeys = intKeys;
+            this.field = field;
+            this.intIds = intKeys ? new IntHashTable() : null;
+            this.ids = intKeys ? null : new HashMap<>();
+        }
+
+        void add(Tuple t) {
+            int id;
+            if (intKeys) {
+                id = intIds.add(t.getInt(field));
+            } else {
+                Integer known = ids.get(t.getField(field));
+                id = known != null ? known : keys;
+                if (known == null) {
+                    ids.put(t.getField(field), id);
+                }
+            }
+            if (size == tuples.length) {
+                tuples = Arrays.copyOf(tuples, size * 2);
+                previous = Arrays.copyOf(previous, size * 2);
+            }
+            if (id == keys) {
+                if (keys == last.length) {
+                    last = Arrays.copyOf(last, keys * 2);
+                }
+                last[keys++] = -1;
+            }
+            tuples[size] = t;
+            previous[size] = last[id];
+            last[id] = size++;
+        }
+
+        /**
+         * @return the index of a tuple whose key equals field probeField of
+         *         t, or -1 if there is none
+         */
+        int first(Tuple t, int probeField) {
+            return intKeys ? first(t.getInt(probeField)) : first(t.getField(probeField));
+        }
+
+        /** @return the index of a tuple with int key, or -1 */
+        int first(int key) {
+            int id = intIds.get(key);
+            return id < 0 ? -1 : last[id];
+        }
+
+        /** @return the index of a tuple with key, or -1 */
+        int first(Field key) {
+            Integer id = ids.get(key);
+            return id == null ? -1 : last[id];
+        }
+
+        /** @return the index of the next tuple with the key of tuple i, or -1 */
+        int next(int i) {
+            return previous[i];
+        }
+
+        Tuple tuple(int i) {
+            return tuples[i];
+        }
+
+        void clear() {
+            if (intKeys) {
+                intIds.clear();
+            } else {
+                ids.clear();
+            }
+            Arrays.fill(tuples, 0, size, null);
+            keys = size = 0;
+        }
+    }
 }
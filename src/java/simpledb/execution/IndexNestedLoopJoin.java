@@ -0,0 +1,209 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator joins on equality by looking up each
+ * child1 tuple's key in a B+ tree on the join field of child2, instead of
+ * scanning or hashing child2.
+ * <p>
+ * child2 must be a scan of a {@link BTreeFile} keyed on its join field,
+ * sequential or a {@link BTreeScan}, possibly under filters (see
+ * {@link #canProbe}). It is never opened: the join reads the file through
+ * {@link BTreeFile#indexIterator} and applies the filters' predicates, and
+ * the B+ tree scan's, to the tuples it finds.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+
+    /** The B+ tree scanned by child2, the transaction scanning it, and the
+     * predicates child2 applies to it. */
+    private BTreeFile file;
+    private TransactionId tid;
+    private List<Predicate> filters;
+
+    transient private Tuple t1;
+    transient private DbFileIterator probe;
+    transient private long probes;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The right(inner) relation: a scan of a B+ tree file keyed
+     *            on p's second field, possibly filtered
+     * @throws IllegalArgumentException if child2 cannot be probed
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS || !canProbe(child2, p.getField2())) {
+            throw new IllegalArgumentException("no B+ tree to probe for a "
+                    + p.getOperator() + " join on field " + p.getField2());
+        }
+        this.pred = p;
+        setChildren(new OpIterator[]{child1, child2});
+    }
+
+    /**
+     * Tells whether it is a scan of a B+ tree file keyed on the given
+     * field, or a chain of filters over one.
+     *
+     * @param it the operator
+     * @param field the index of the field in it's TupleDesc
+     */
+    public static boolean canProbe(OpIterator it, int field) {
+        while (it instanceof Filter) {
+            it = ((Filter) it).getChildren()[0];
+        }
+        int tableId;
+        if (it instanceof SeqScan) {
+            tableId = ((SeqScan) it).getTableId();
+        } else if (it instanceof BTreeScan) {
+            tableId = ((BTreeScan) it).getTableId();
+        } else {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * @return the number of index lookups since the last open()
+     */
+    public long getProbeCount() {
+        return probes;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        t1 = null;
+        probes = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        child1.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        child1.rewind();
+        t1 = null;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples come out in child1 order, each followed by its
+     * matches in child2.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null) {
+                while (probe.hasNext()) {
+                    Tuple t2 = probe.next();
+                    if (matches(t2)) {
+                        return Tuple.merge(td, t1, t2);
+                    }
+                }
+                closeProbe();
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = child1.next();
+            probe = file.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, t1.getField(pred.getField1())));
+            probe.open();
+            probes++;
+        }
+    }
+
+    private boolean matches(Tuple t2) {
+        for (Predicate p : filters) {
+            if (!p.filter(t2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        filters = new ArrayList<>();
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            filters.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (it instanceof BTreeScan) {
+            BTreeScan scan = (BTreeScan) it;
+            tid = scan.getTransactionId();
+            file = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+            IndexPredicate ipred = scan.getIndexPredicate();
+            if (ipred != null) {
+                filters.add(new Predicate(file.keyField(), ipred.getOp(), ipred.getField()));
+            }
+        } else {
+            SeqScan scan = (SeqScan) it;
+            tid = scan.getTransactionId();
+            file = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        }
+    }
+
+}
@@ -1,21 +1,22 @@
 package simpledb.execution;
 
-import com.azul.crs.client.service.FirstCallMonitor;
 import simpledb.common.Type;
-import simpledb.storage.*;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * A single-column {@link GroupAggregator}, which does the work.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final GroupAggregator aggregator;
+    private final TupleDesc td;
+
     /**
      * Aggregate constructor
      * 
@@ -30,33 +31,16 @@ public class IntegerAggregator implements Aggregator {
      * @param what
      *            the aggregation operator
      */
-
-    private int gbFieldIndex, aFieldIndex;
-    private Type gbfieldtype;
-    private Op what;
-
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
-        this.gbFieldIndex = gbfield;
-        this.gbfieldtype = gbfieldtype;
-        this.aFieldIndex = afield;
-        this.what = what;
-        switch (what) {
-            case SUM:
-                aggHandler = new SumHandler();
-                break;
-            case COUNT:
-                aggHandler = new CountHandler();
-                break;
-            case MIN:
-                aggHandler = new MinHandler();
-                break;
-            case MAX:
-                aggHandler = new MaxHandler();
-                break;
-            case AVG:
-                aggHandler = new AvgHandler();
-                break;
+        if (gbfield == NO_GROUPING) {
+            aggregator = new GroupAggregator(new int[0], new Type[0],
+                    new int[]{afield}, new Type[]{Type.INT_TYPE}, new Op[]{what});
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"AggValue"});
+        } else {
+            aggregator = new GroupAggregator(new int[]{gbfield}, new Type[]{gbfieldtype},
+                    new int[]{afield}, new Type[]{Type.INT_TYPE}, new Op[]{what});
+            td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupByValue", "AggValue"});
         }
     }
 
@@ -69,95 +53,12 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field gbField;
-        if(gbFieldIndex == NO_GROUPING) {
-            gbField = null;
-        } else {
-            gbField = tup.getField(gbFieldIndex);
-        }
-        IntField aField = (IntField) tup.getField(aFieldIndex);
-        aggHandler.handler(gbField, aField);
+        aggregator.mergeTupleIntoGroup(tup);
     }
 
-    private abstract class AggHandler {
-        HashMap<Field, Integer> agg;
-
-        public AggHandler() {
-            agg = new HashMap<>();
-        }
-
-        public HashMap<Field, Integer> get() {
-            return agg;
-        }
-
-        abstract void handler(Field gbField, IntField aField);
-    }
-
-    AggHandler aggHandler;
-
-    private class SumHandler extends AggHandler {
-        @Override
-        void handler(Field gbField, IntField aField) {
-            if(agg.containsKey(gbField)) {
-                agg.put(gbField, agg.get(gbField) + aField.getValue());
-            } else {
-                agg.put(gbField, aField.getValue());
-            }
-        }
-    }
-
-    public class CountHandler extends AggHandler {
-        @Override
-        void handler(Field gbField, IntField aField) {
-            if(agg.containsKey(gbField)) {
-                agg.put(gbField, agg.get(gbField) + 1);
-            } else {
-                agg.put(gbField, 1);
-            }
-        }
-    }
-
-    private class MinHandler extends AggHandler {
-        @Override
-        void handler(Field gbField, IntField aField) {
-            if(agg.containsKey(gbField)) {
-                agg.put(gbField, Math.min(agg.get(gbField), aField.getValue()));
-            } else {
-                agg.put(gbField, aField.getValue());
-            }
-        }
-    }
-
-    private class MaxHandler extends AggHandler {
-        @Override
-        void handler(Field gbField, IntField aField) {
-            if(agg.containsKey(gbField)) {
-                agg.put(gbField, Math.max(agg.get(gbField), aField.getValue()));
-            } else {
-                agg.put(gbField, aField.getValue());
-            }
-        }
-    }
-
-    private class AvgHandler extends AggHandler {
-        HashMap<Field, Integer> count, sum;
-
-        public AvgHandler() {
-            sum = new HashMap<>();
-            count = new HashMap<>();
-        }
-
-        @Override
-        void handler(Field gbField, IntField aField) {
-            if(count.containsKey(gbField)) {
-                count.put(gbField, count.get(gbField) + 1);
-                sum.put(gbField, sum.get(gbField) + aField.getValue());
-            } else {
-                count.put(gbField, 1);
-                sum.put(gbField, aField.getValue());
-            }
-            agg.put(gbField, sum.get(gbField)/count.get(gbField));
-        }
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        aggregator.mergeBatchIntoGroups(batch);
     }
 
     /**
@@ -170,24 +71,7 @@ public class IntegerAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        HashMap<Field, Integer> agg = aggHandler.get();
-        List<Tuple> tuples = new ArrayList<>();
-        TupleDesc tupleDesc;
-        if(gbFieldIndex == NO_GROUPING) {
-            tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"AggValue"});
-            Tuple tuple = new Tuple(tupleDesc);
-            tuple.setField(0, new IntField(agg.get(null)));
-            tuples.add(tuple);
-        } else {
-            tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupByValue", "AggValue"});
-            for(Map.Entry<Field, Integer> entry : agg.entrySet()) {
-                Tuple tuple = new Tuple(tupleDesc);
-                tuple.setField(0, entry.getKey());
-                tuple.setField(1, new IntField(entry.getValue()));
-                tuples.add(tuple);
-            }
-        }
-        return new TupleIterator(tupleDesc, tuples);
+        return aggregator.iterator(td);
     }
 
 }
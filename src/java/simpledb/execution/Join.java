@@ -2,6 +2,8 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,11 +11,19 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Joins with a block nested-loop join: child1 is read a block at a time,
+ * as many tuples as fit in {@link #setMemoryBudget(long) the memory budget},
+ * and child2 is scanned once per block rather than once per child1 tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** System property with the memory budget of a block of child1 tuples
+     * in bytes; see {@link SpillFile#memoryBudget(String)}. */
+    public static final String MEMORY_PROPERTY = "simpledb.execution.Join.memory";
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -28,12 +38,57 @@ public class Join extends Operator {
 
     private JoinPredicate p;
     private OpIterator child1, child2;
+    /** Schema of the output, merged once from the children's. */
+    private TupleDesc td;
+    private long memoryBudget = SpillFile.memoryBudget(MEMORY_PROPERTY);
 
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Sets how much memory a block of child1 tuples may take.
+     *
+     * @param bytes the memory budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget to hold as many child1 tuples as the given
+     * number of heap pages do.
+     */
+    public void setBlockPages(int pages) {
+        TupleDesc td1 = child1.getTupleDesc();
+        // one header bit per slot, as in HeapPage
+        long perPage = (BufferPool.getPageSize() * 8L) / (td1.getSize() * 8L + 1);
+        setMemoryBudget(pages * perPage * SpillFile.tupleBytes(td1));
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit in a block
+     *         of the given number of bytes, at least 1
+     */
+    public static int blockCapacity(long budget, TupleDesc td) {
+        long n = budget / SpillFile.tupleBytes(td);
+        return (int) Math.max(1, Math.min(n, Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * @return the number of blocks of child1 read since the last open(),
+     *         which is the number of times child2 was scanned
+     */
+    public int getBlockCount() {
+        return blocks;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -48,7 +103,7 @@ public class Join extends Operator {
      * */
     public String getJoinField1Name() {
         // some code goes here
-        return null;
+        return child1.getTupleDesc().getFieldName(p.getField1());
     }
 
     /**
@@ -58,7 +113,7 @@ public class Join extends Operator {
      * */
     public String getJoinField2Name() {
         // some code goes here
-        return null;
+        return child2.getTupleDesc().getFieldName(p.getField2());
     }
 
     /**
@@ -67,7 +122,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -75,6 +130,10 @@ public class Join extends Operator {
         // some code goes here
         child1.open();
         child2.open();
+        capacity = blockCapacity(memoryBudget, child1.getTupleDesc());
+        block = new ArrayList<>(Math.min(capacity, 1024));
+        blocks = 0;
+        loadBlock();
         super.open();
     }
 
@@ -83,12 +142,43 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
+        block = null;
+        t2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        blocks = 0;
+        loadBlock();
+    }
+
+    /** The current block of child1 tuples. */
+    transient private List<Tuple> block;
+    transient private int capacity;
+    transient private int blocks;
+    /** The child2 tuple being joined with the block, or null. */
+    transient private Tuple t2;
+    /** Index in block of the next tuple to try against t2. */
+    transient private int pos;
+
+    /**
+     * Reads the next block of child1 tuples.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        t2 = null;
+        while (block.size() < capacity && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        blocks++;
+        return true;
     }
 
     /**
@@ -97,6 +187,9 @@ public class Join extends Operator {
      * satisfies the join predicate. There are many possible implementations;
      * the simplest is a nested loops join.
      * <p>
+     * Within a block, tuples come out in child2 order, each child2 tuple
+     * followed by its matches in the block.
+     * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
      * relation. Therefore, if an equality predicate is used there will be two
@@ -110,38 +203,23 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
 
-    private Tuple t1;
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while(child1.hasNext() || t1 != null) {
-            if(child1.hasNext() && t1 == null) {
-                t1 = child1.next();
-            }
-            TupleDesc td1 = child1.getTupleDesc();
-
-            while(child2.hasNext()) {
-                TupleDesc td2 = child2.getTupleDesc();
-                Tuple t2 = child2.next();
-                if(getJoinPredicate().filter(t1, t2)) {
-                    TupleDesc td = TupleDesc.merge(td1, td2);
-                    Tuple t = new Tuple(td);
-                    int i = 0;
-                    for(;i < td1.numFields();i ++) {
-                        t.setField(i, t1.getField(i));
-                    }
-                    for(int j = 0;j < td2.numFields();j ++) {
-                        t.setField(i+j, t2.getField(j));
+        while (!block.isEmpty()) {
+            if (t2 != null) {
+                while (pos < block.size()) {
+                    Tuple t1 = block.get(pos++);
+                    if (p.filter(t1, t2)) {
+                        return Tuple.merge(td, t1, t2);
                     }
-                    if(!child2.hasNext()) {
-                        child2.rewind();
-                        t1 = null;
-                    }
-                    return t;
                 }
             }
-            child2.rewind();
-            t1 = null;
+            if (child2.hasNext()) {
+                t2 = child2.next();
+                pos = 0;
+            } else if (loadBlock()) {
+                child2.rewind();
+            }
         }
         return null;
     }
@@ -158,6 +236,7 @@ public class Join extends Operator {
         if(children == null || children.length < 2) return ;
         child1 = children[0];
         child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,26 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next tuples as a batch, for batch-at-a-time execution. The
+   * batch is only valid until the next call on this iterator; the caller
+   * may change it, e.g. drop rows, but not keep it. An opened iterator is
+   * read either with next() or with nextBatch() until it is rewound.
+   * <p>
+   * This default reads up to {@link TupleBatch#DEFAULT_SIZE} tuples with
+   * next(); operators with a batched implementation override it.
+   *
+   * @return the next batch, never empty, or null if there are no more tuples
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    TupleBatch batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+    while (!batch.isFull() && hasNext()) {
+      batch.add(next());
+    }
+    return batch.size() == 0 ? null : batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
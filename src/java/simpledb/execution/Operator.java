@@ -16,10 +16,33 @@ public abstract class Operator implements OpIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Turns batch-at-a-time execution of this operator and the operators
+     * below it on or off. When it is on, operators that consume their whole
+     * input before producing output read it with
+     * {@link OpIterator#nextBatch}. {@link Query#start} passes the mode of
+     * the query to its plan; it takes effect when the operators are next
+     * opened.
+     */
+    public void setBatchMode(boolean on) {
+        batchMode = on;
+        OpIterator[] children = getChildren();
+        if (children != null) {
+            for (OpIterator child : children) {
+                if (child instanceof Operator) {
+                    ((Operator) child).setBatchMode(on);
+                }
+            }
+        }
+    }
+
+    public boolean isBatchMode() {
+        return batchMode;
+    }
+
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        if (!this.open)
-            throw new IllegalStateException("Operator not yet open");
-        
+        checkOpen();
+
         if (next == null)
             next = fetchNext();
         return next != null;
@@ -38,6 +61,14 @@ public abstract class Operator implements OpIterator {
         return result;
     }
 
+    /**
+     * @throws IllegalStateException if this operator is not open
+     */
+    protected void checkOpen() {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -61,6 +92,7 @@ public abstract class Operator implements OpIterator {
 
     private Tuple next = null;
     private boolean open = false;
+    private boolean batchMode = false;
     private int estimatedCardinality = 0;
 
     public void open() throws DbException, TransactionAbortedException {
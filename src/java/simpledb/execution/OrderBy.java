@@ -2,18 +2,31 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Inputs that fit in {@link #setMemoryBudget(long) the memory budget} are
+ * sorted in memory. Larger inputs are sorted externally: replacement
+ * selection writes sorted runs, about twice the budget long on random
+ * input, to temporary files, and the runs are combined by a k-way merge
+ * through a heap. When there are more runs than can be merged at once
+ * with one read buffer each, they are merged in several passes.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** System property with the memory budget of sorts in bytes; see
+     * {@link SpillFile#memoryBudget(String)}. */
+    public static final String MEMORY_PROPERTY = "simpledb.execution.OrderBy.memory";
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
@@ -21,6 +34,10 @@ public class OrderBy extends Operator {
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private long memoryBudget = SpillFile.memoryBudget(MEMORY_PROPERTY);
+    /** Sorted runs of an external sort, or null if the input fit in memory. */
+    transient private List<SpillFile> runs;
+    transient private RunMerger merger;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -59,24 +76,212 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * Sets how much memory the sort may use for tuples; beyond it sorted
+     * runs are spilled to temporary files.
+     *
+     * @param bytes the memory budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of sorted runs the last open() merged, or 0 if
+     *         it sorted in memory
+     */
+    public int getRunCount() {
+        return runs == null ? 0 : runs.size();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        try {
+            sort();
+        } catch (IOException e) {
+            discard();
+            throw new DbException("ORDER BY could not use its run files: " + e.getMessage());
+        }
         super.open();
     }
 
+    private void sort() throws DbException, TransactionAbortedException, IOException {
+        discard();
+        TupleComparator comparator = new TupleComparator(orderByField, asc);
+        long capacity = Math.max(2, memoryBudget / SpillFile.tupleBytes(td));
+        // load tuples into a collection while they fit, and sort it
+        while (childTups.size() < capacity && child.hasNext())
+            childTups.add(child.next());
+        if (!child.hasNext()) {
+            childTups.sort(comparator);
+            it = childTups.iterator();
+            return;
+        }
+        runs = writeRuns(comparator);
+        childTups.clear();
+        int fanIn = (int) Math.max(2, memoryBudget / SpillFile.BUFFER_SIZE);
+        while (runs.size() > fanIn) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile out = new SpillFile(td);
+                RunMerger m = new RunMerger(group, comparator);
+                for (Tuple t = m.next(); t != null; t = m.next()) {
+                    out.add(t);
+                }
+                m.close();
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+                merged.add(out);
+            }
+            runs = merged;
+        }
+        merger = new RunMerger(runs, comparator);
+    }
+
+    /**
+     * Replacement selection over the tuples loaded so far and the rest of
+     * the child. The smallest tuple in memory is written to the current
+     * run and replaced by the next input tuple; an input tuple that sorts
+     * before the last one written waits in the heap for the next run.
+     */
+    private List<SpillFile> writeRuns(TupleComparator comparator)
+            throws DbException, TransactionAbortedException, IOException {
+        PriorityQueue<RunEntry> heap = new PriorityQueue<>(childTups.size(), (a, b) ->
+                a.run != b.run ? Integer.compare(a.run, b.run) : comparator.compare(a.tuple, b.tuple));
+        for (Tuple t : childTups) {
+            heap.add(new RunEntry(0, t));
+        }
+        childTups.clear();
+        List<SpillFile> written = new ArrayList<>();
+        SpillFile run = null;
+        int current = -1;
+        while (!heap.isEmpty()) {
+            RunEntry e = heap.poll();
+            if (e.run != current) {
+                run = new SpillFile(td);
+                written.add(run);
+                current = e.run;
+            }
+            run.add(e.tuple);
+            if (child.hasNext()) {
+                Tuple t = child.next();
+                e.run = comparator.compare(t, e.tuple) < 0 ? current + 1 : current;
+                e.tuple = t;
+                heap.add(e);
+            }
+        }
+        return written;
+    }
+
+    /** A tuple waiting in the replacement selection heap. */
+    private static final class RunEntry {
+        int run;
+        Tuple tuple;
+
+        RunEntry(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Merges sorted runs through a heap that holds the next tuple of every
+     * run.
+     */
+    private static final class RunMerger {
+        private final PriorityQueue<RunHead> heap;
+        private final List<SpillFile.Reader> readers = new ArrayList<>();
+
+        RunMerger(List<SpillFile> runs, TupleComparator comparator) throws IOException {
+            heap = new PriorityQueue<>(runs.size(), (a, b) -> comparator.compare(a.tuple, b.tuple));
+            for (SpillFile run : runs) {
+                RunHead h = new RunHead(run.reader());
+                readers.add(h.reader);
+                h.tuple = h.reader.next();
+                if (h.tuple != null) {
+                    heap.add(h);
+                }
+            }
+        }
+
+        /** @return the next tuple in sort order, or null after the last */
+        Tuple next() throws IOException {
+            RunHead h = heap.poll();
+            if (h == null) {
+                return null;
+            }
+            Tuple t = h.tuple;
+            h.tuple = h.reader.next();
+            if (h.tuple != null) {
+                heap.add(h);
+            }
+            return t;
+        }
+
+        void close() {
+            for (SpillFile.Reader r : readers) {
+                r.close();
+            }
+        }
+    }
+
+    private static final class RunHead {
+        final SpillFile.Reader reader;
+        Tuple tuple;
+
+        RunHead(SpillFile.Reader reader) {
+            this.reader = reader;
+        }
+    }
+
+    /** Drops the sorted tuples and deletes the run files. */
+    private void discard() {
+        childTups.clear();
+        it = null;
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs != null) {
+            for (SpillFile f : runs) {
+                f.delete();
+            }
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        discard();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    /**
+     * Starts over on the sorted tuples; the input is not read or sorted
+     * again. An external sort merges its runs again.
+     */
+    public void rewind() throws DbException {
+        if (runs == null) {
+            it = childTups.iterator();
+            return;
+        }
+        merger.close();
+        try {
+            merger = new RunMerger(runs, new TupleComparator(orderByField, asc));
+        } catch (IOException e) {
+            throw new DbException("ORDER BY could not reopen its run files: " + e.getMessage());
+        }
     }
 
     /**
@@ -86,7 +291,14 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (merger != null) {
+            try {
+                return merger.next();
+            } catch (IOException e) {
+                throw new DbException("ORDER BY could not read its run files: " + e.getMessage());
+            }
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -104,25 +316,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -1,7 +1,10 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -112,6 +115,67 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Applies the predicate to every row of a batch. An int field compared
+     * with an int operand is compared in a loop over the column, without
+     * creating fields.
+     *
+     * @param b
+     *            The batch to compare against
+     * @param rows
+     *            Receives the numbers of the rows for which the comparison
+     *            is true, ascending; must have room for b.size() entries
+     * @return the number of rows for which the comparison is true
+     */
+    public int filter(TupleBatch b, int[] rows) {
+        int n = 0;
+        int size = b.size();
+        if (b.getTupleDesc().getFieldType(field) != Type.INT_TYPE || !(operand instanceof IntField)) {
+            for (int r = 0; r < size; r++) {
+                if (b.getField(r, field).compare(op, operand)) {
+                    rows[n++] = r;
+                }
+            }
+            return n;
+        }
+        int[] column = b.getInts(field);
+        int v = ((IntField) operand).getValue();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int r = 0; r < size; r++) {
+                    if (column[r] == v) rows[n++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int r = 0; r < size; r++) {
+                    if (column[r] != v) rows[n++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int r = 0; r < size; r++) {
+                    if (column[r] > v) rows[n++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int r = 0; r < size; r++) {
+                    if (column[r] >= v) rows[n++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int r = 0; r < size; r++) {
+                    if (column[r] < v) rows[n++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int r = 0; r < size; r++) {
+                    if (column[r] <= v) rows[n++] = r;
+                }
+                break;
+        }
+        return n;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
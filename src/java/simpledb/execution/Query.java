@@ -5,6 +5,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.*;
@@ -15,6 +16,10 @@ import java.util.*;
  * plan in the form of a high level OpIterator (built by initiating the
  * constructors of query plans) and runs it as a part of a specified
  * transaction.
+ * <p>
+ * In batch mode (see {@link #setBatchMode}) the plan is read with
+ * {@link OpIterator#nextBatch} and the query hands out the rows of each
+ * batch as tuples.
  * 
  * @author Sam Madden
  */
@@ -23,10 +28,18 @@ public class Query implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /** System property that runs queries batch-at-a-time by default, e.g.
+     * -Dsimpledb.execution.batch=true. */
+    public static final String BATCH_PROPERTY = "simpledb.execution.batch";
+
     transient private OpIterator op;
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
+    /** In batch mode, the current batch of the plan and its next row. */
+    transient private boolean batched = Boolean.getBoolean(BATCH_PROPERTY);
+    transient private TupleBatch batch;
+    transient private int row;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -48,6 +61,19 @@ public class Query implements Serializable {
         return this.op;
     }
 
+    /**
+     * Turns batch-at-a-time execution of this query on or off. Takes effect
+     * on the next {@link #start}, which passes the mode to the operators of
+     * the plan.
+     */
+    public void setBatchMode(boolean on) {
+        this.batched = on;
+    }
+
+    public boolean isBatchMode() {
+        return this.batched;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
@@ -59,8 +85,12 @@ public class Query implements Serializable {
 
     public void start() throws DbException,
             TransactionAbortedException {
+        if (op instanceof Operator) {
+            ((Operator) op).setBatchMode(batched);
+        }
         op.open();
 
+        batch = null;
         started = true;
     }
 
@@ -70,7 +100,14 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        if (!batched) {
+            return op.hasNext();
+        }
+        if (batch == null || row >= batch.size()) {
+            batch = op.nextBatch();
+            row = 0;
+        }
+        return batch != null;
     }
 
     /**
@@ -90,12 +127,19 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        if (!batched) {
+            return op.next();
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.getTuple(row++);
     }
 
     /** Close the iterator */
     public void close() {
         op.close();
+        batch = null;
         started = false;
     }
 
@@ -8,7 +8,9 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import javax.xml.crypto.Data;
@@ -31,6 +33,16 @@ public class SeqScan implements OpIterator {
 
     private DbFileIterator iterator;
 
+    /** This scan reads partition of the partitions the table is split in. */
+    private int partition;
+    private int partitions = 1;
+
+    /** The aliased TupleDesc, built on first use. */
+    private TupleDesc td;
+
+    /** The batch returned by nextBatch(), reused by every call. */
+    private transient TupleBatch batch;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -64,6 +76,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    public TransactionId getTransactionId() {
+        return transactionId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -89,12 +115,52 @@ public class SeqScan implements OpIterator {
         // some code goes here
         tableId = tableid;
         this.tableAlias = tableAlias;
+        td = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a scan over one partition of a heap file: its pages are split
+     * into a number of ranges of about the same size, and this scan reads
+     * one of them. The scans of all partitions together read each tuple of
+     * the table once, so they can be run in parallel (see {@link Gather}).
+     *
+     * @param partition the range of pages to read, from 0 to partitions - 1
+     * @param partitions the number of ranges the pages are split in
+     * @throws IllegalArgumentException if the table is not a heap file
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int partition, int partitions) {
+        transactionId = tid;
+        tableId = tableid;
+        this.tableAlias = tableAlias;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be scanned by partition");
+        }
+        if (partition < 0 || partition >= partitions) {
+            throw new IllegalArgumentException("no partition " + partition + " of " + partitions);
+        }
+        this.partition = partition;
+        this.partitions = partitions;
+        HeapFile hf = (HeapFile) f;
+        long pages = hf.numPages();
+        iterator = hf.iterator(tid, (int) (pages * partition / partitions),
+                (int) (pages * (partition + 1) / partitions));
+    }
+
+    /** @return the partition of the table this scan reads, 0 if it reads all of it */
+    public int getPartition() {
+        return partition;
+    }
+
+    /** @return the number of partitions the table is split in, 1 if this scan reads all of it */
+    public int getPartitions() {
+        return partitions;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         iterator.open();
@@ -112,6 +178,13 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        if(td == null) {
+            td = aliasedTupleDesc().intern();
+        }
+        return td;
+    }
+
+    private TupleDesc aliasedTupleDesc() {
         TupleDesc oriDesc = Database.getCatalog().getTupleDesc(tableId);
         Type[] typeAr = new Type[oriDesc.numFields()];
         String[] newFieldAr = new String[oriDesc.numFields()];
@@ -133,6 +206,19 @@ public class SeqScan implements OpIterator {
         return iterator.next();
     }
 
+    /**
+     * Reads the next tuples of the table straight into a batch; heap files
+     * decode them from their pages without creating tuples.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null || batch.getTupleDesc() != getTupleDesc()) {
+            batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        }
+        batch.clear();
+        return iterator.nextBatch(batch) == 0 ? null : batch;
+    }
+
     public void close() {
         // some code goes here
         iterator.close();
@@ -0,0 +1,173 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Computes the same aggregates as {@link Aggregate}, over a child whose
+ * rows of a group are adjacent, e.g. because it is sorted on the group-by
+ * field (see {@link SortMergeJoin#isOrderedOn}). Groups are aggregated one
+ * at a time and each is returned as soon as the first row of the next one
+ * is read, so only the aggregates of one group are kept in memory and the
+ * first group is returned without reading the rest of the input.
+ * <p>
+ * Groups are returned in the order of the input. If rows of a group are
+ * not adjacent, the group is returned once for each run of its rows.
+ */
+public class SortAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] afields, gfields;
+    private final Aggregator.Op[] aops;
+    private final TupleDesc td;
+
+    /** The aggregates of the group being read, as a single group. */
+    private transient GroupAggregator group;
+    /** The first row of the next group, or null at the end of the input. */
+    private transient Tuple first;
+
+    /**
+     * @param child  The OpIterator that is feeding us tuples, with the rows
+     *               of each group adjacent.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use
+     */
+    public SortAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield}, new Aggregator.Op[]{aop},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield});
+    }
+
+    /**
+     * @param child   The OpIterator that is feeding us tuples, with the rows
+     *                of each group adjacent.
+     * @param afields The columns to aggregate.
+     * @param aops    The aggregate of each column.
+     * @param gfields The columns to group by, none for no grouping.
+     */
+    public SortAggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("an aggregate needs an operator per column");
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        td = Aggregate.resultDesc(child.getTupleDesc(), afields, gfields,
+                Aggregate.names(child.getTupleDesc(), afields, aops));
+    }
+
+    /**
+     * @return the first group-by field in the <b>INPUT</b> tuples, or
+     * {@link Aggregator#NO_GROUPING}
+     */
+    public int groupField() {
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the group-by fields in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the aggregate fields in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        child.open();
+        TupleDesc ctd = child.getTupleDesc();
+        Type[] aTypes = new Type[afields.length];
+        for (int j = 0; j < afields.length; j++) {
+            aTypes[j] = ctd.getFieldType(afields[j]);
+        }
+        group = new GroupAggregator(new int[0], new Type[0], afields, aTypes, aops);
+        first = child.hasNext() ? child.next() : null;
+    }
+
+    private boolean sameGroup(Tuple a, Tuple b) {
+        for (int g : gfields) {
+            if (!a.getField(g).equals(b.getField(g))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rows of the next group, up to and including the first row
+     * of the group after it, and returns its aggregates.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (first == null) {
+            return null;
+        }
+        Tuple key = first;
+        first = null;
+        group.clear();
+        group.mergeTupleIntoGroup(key);
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(key, t)) {
+                first = t;
+                break;
+            }
+            group.mergeTupleIntoGroup(t);
+        }
+        Tuple result = new Tuple(td);
+        for (int i = 0; i < gfields.length; i++) {
+            result.setField(i, key.getField(gfields[i]));
+        }
+        for (int j = 0; j < afields.length; j++) {
+            result.setField(gfields.length + j, new IntField(group.result(j, 0)));
+        }
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        first = child.hasNext() ? child.next() : null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        group = null;
+        first = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children == null || children.length < 1) return;
+        child = children[0];
+    }
+}
@@ -0,0 +1,270 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two inputs that are sorted on their join
+ * fields by merging them. An input that is not already in ascending order
+ * of its join field (see {@link #isOrderedOn}) is sorted with an
+ * {@link OrderBy} first.
+ * <p>
+ * Equality joins stream both inputs and buffer only the inner tuples of
+ * one key at a time. Range joins (&lt;, &lt;=, &gt;, &gt;=) keep the sorted
+ * inner input in memory: for each outer tuple the matching inner tuples are
+ * a prefix or a suffix of it, whose boundary only moves forward as the
+ * outer key grows.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+
+    /** The children, sorted if they were not ordered already. */
+    transient private OpIterator in1, in2;
+    transient private Tuple t1;
+    /** Inner tuples matching t1: group[from, to). */
+    transient private List<Tuple> group;
+    transient private int from, to, next;
+
+    /** Equality join: key of group, and the first inner tuple after it. */
+    transient private Field groupKey;
+    transient private Tuple pending;
+
+    /** Range join: position in group that separates matches from the rest. */
+    transient private int bound;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; one of EQUALS,
+     *            LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("sort-merge join does not support " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate predicates with op
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Tells whether an operator returns its tuples in ascending order of a
+     * field, as far as can be seen from the plan: B+ tree scans and
+     * sequential scans of B+ tree files on the tree's key field, ascending
+     * ORDER BY and TopN on the field, merge join output on the outer join
+     * field, and filters over any of those.
+     *
+     * @param it the operator
+     * @param field the index of the field in it's TupleDesc
+     */
+    public static boolean isOrderedOn(OpIterator it, int field) {
+        if (it instanceof Filter) {
+            return isOrderedOn(((Filter) it).getChildren()[0], field);
+        }
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof TopN) {
+            TopN t = (TopN) it;
+            return t.isASC() && t.getOrderByField() == field;
+        }
+        if (it instanceof SortMergeJoin) {
+            return ((SortMergeJoin) it).pred.getField1() == field;
+        }
+        int tableId;
+        if (it instanceof SeqScan) {
+            tableId = ((SeqScan) it).getTableId();
+        } else if (it instanceof BTreeScan) {
+            tableId = ((BTreeScan) it).getTableId();
+        } else {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    private static OpIterator sorted(OpIterator child, int field) {
+        return isOrderedOn(child, field) ? child : new OrderBy(field, true, child);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        in1 = sorted(child1, pred.getField1());
+        in2 = sorted(child2, pred.getField2());
+        in1.open();
+        in2.open();
+        group = new ArrayList<>();
+        if (pred.getOperator() != Predicate.Op.EQUALS) {
+            // the range join works on the whole inner input
+            while (in2.hasNext()) {
+                group.add(in2.next());
+            }
+        }
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        t1 = null;
+        from = to = next = bound = 0;
+        groupKey = null;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            group.clear();
+            pending = in2.hasNext() ? in2.next() : null;
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (in2 != null) {
+            in2.close();
+            in1.close();
+        }
+        in1 = in2 = null;
+        group = null;
+        t1 = pending = null;
+        groupKey = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        in1.rewind();
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            in2.rewind();
+        }
+        start();
+    }
+
+    /**
+     * Points group, from and to at the inner tuples that match t1.
+     */
+    private void match() throws DbException, TransactionAbortedException {
+        Field key = t1.getField(pred.getField1());
+        int f2 = pred.getField2();
+        switch (pred.getOperator()) {
+            case EQUALS:
+                if (groupKey == null || compare(groupKey, key) != 0) {
+                    // inner keys below this outer key match nothing any more
+                    while (pending != null && compare(pending.getField(f2), key) < 0) {
+                        pending = in2.hasNext() ? in2.next() : null;
+                    }
+                    group.clear();
+                    groupKey = key;
+                    while (pending != null && compare(pending.getField(f2), key) == 0) {
+                        group.add(pending);
+                        pending = in2.hasNext() ? in2.next() : null;
+                    }
+                }
+                from = 0;
+                to = group.size();
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                // t1 < t2: the inner tuples from the first key above t1's
+                boolean strict = pred.getOperator() == Predicate.Op.LESS_THAN;
+                while (bound < group.size()) {
+                    int c = compare(group.get(bound).getField(f2), key);
+                    if (c > 0 || (c == 0 && !strict))
+                        break;
+                    bound++;
+                }
+                from = bound;
+                to = group.size();
+                break;
+            default:
+                // t1 > t2: the inner tuples up to the first key not below t1's
+                boolean orEq = pred.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+                while (bound < group.size()) {
+                    int c = compare(group.get(bound).getField(f2), key);
+                    if (c > 0 || (c == 0 && !orEq))
+                        break;
+                    bound++;
+                }
+                from = 0;
+                to = bound;
+                break;
+        }
+        next = from;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Outer tuples come out in ascending order of their join
+     * field, each followed by its matches in ascending order of theirs.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (t1 == null || next >= to) {
+            if (!in1.hasNext()) {
+                return null;
+            }
+            t1 = in1.next();
+            match();
+        }
+        return Tuple.merge(td, t1, group.get(next++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
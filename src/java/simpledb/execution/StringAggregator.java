@@ -1,20 +1,22 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
-import simpledb.storage.*;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * A single-column {@link GroupAggregator}, which does the work.
  */
 public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final GroupAggregator aggregator;
+    private final TupleDesc td;
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -23,18 +25,20 @@ public class StringAggregator implements Aggregator {
      * @param what aggregation operator to use -- only supports COUNT
      * @throws IllegalArgumentException if what != COUNT
      */
-
-    private int gbFieldIndex, aFieldIndex;
-    private Type gbfieldtype;
-    private Op what;
-
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
-        this.gbFieldIndex = gbfield;
-        this.gbfieldtype = gbfieldtype;
-        this.aFieldIndex = afield;
-        this.what = what;
-        aggHandler = new CountHandler();
+        if (what != Op.COUNT) {
+            throw new IllegalArgumentException(what + " of a string column");
+        }
+        if (gbfield == NO_GROUPING) {
+            aggregator = new GroupAggregator(new int[0], new Type[0],
+                    new int[]{afield}, new Type[]{Type.STRING_TYPE}, new Op[]{what});
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"AggValue"});
+        } else {
+            aggregator = new GroupAggregator(new int[]{gbfield}, new Type[]{gbfieldtype},
+                    new int[]{afield}, new Type[]{Type.STRING_TYPE}, new Op[]{what});
+            td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupByValue", "AggValue"});
+        }
     }
 
     /**
@@ -43,41 +47,12 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field gbField;
-        if(gbFieldIndex == NO_GROUPING) {
-            gbField = null;
-        } else {
-            gbField = tup.getField(gbFieldIndex);
-        }
-        Field aField = tup.getField(aFieldIndex);
-        aggHandler.handler(gbField);
-    }
-
-    private abstract class AggHandler {
-        HashMap<Field, Integer> agg;
-
-        public AggHandler() {
-            agg = new HashMap<>();
-        }
-
-        public HashMap<Field, Integer> get() {
-            return agg;
-        }
-
-        abstract void handler(Field gbField);
+        aggregator.mergeTupleIntoGroup(tup);
     }
 
-    AggHandler aggHandler;
-
-    public class CountHandler extends AggHandler {
-        @Override
-        void handler(Field gbField) {
-            if(agg.containsKey(gbField)) {
-                agg.put(gbField, agg.get(gbField) + 1);
-            } else {
-                agg.put(gbField, 1);
-            }
-        }
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        aggregator.mergeBatchIntoGroups(batch);
     }
 
     /**
@@ -90,24 +65,7 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        HashMap<Field, Integer> agg = aggHandler.get();
-        List<Tuple> tuples = new ArrayList<>();
-        TupleDesc tupleDesc;
-        if(gbFieldIndex == NO_GROUPING) {
-            tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"AggValue"});
-            Tuple tuple = new Tuple(tupleDesc);
-            tuple.setField(0, new IntField(agg.get(null)));
-            tuples.add(tuple);
-        } else {
-            tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupByValue", "AggValue"});
-            for(Map.Entry<Field, Integer> entry : agg.entrySet()) {
-                Tuple tuple = new Tuple(tupleDesc);
-                tuple.setField(0, entry.getKey());
-                tuple.setField(1, new IntField(entry.getValue()));
-                tuples.add(tuple);
-            }
-        }
-        return new TupleIterator(tupleDesc, tuples);
+        return aggregator.iterator(td);
     }
 
 }
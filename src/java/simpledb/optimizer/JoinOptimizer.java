@@ -1,8 +1,12 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.SpillFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,7 +77,15 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        boolean ordered1 = SortMergeJoin.isOrderedOn(plan1, t1id);
+        boolean ordered2 = !(lj instanceof LogicalSubplanJoinNode)
+                && SortMergeJoin.isOrderedOn(plan2, t2id);
+        if (lj.probeIndex && lj.p == Predicate.Op.EQUALS
+                && IndexNestedLoopJoin.canProbe(plan2, t2id)) {
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (useMergeJoin(lj.p, ordered1, ordered2)) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -121,17 +133,127 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of a join whose inputs may already be sorted on
+     * their join fields.
+     * <p>
+     * An equality join over unsorted inputs costs as a hash join: one scan of
+     * each input, an insert per outer tuple and a lookup per inner tuple.
+     * Other joins over unsorted inputs cost as a block nested-loops join,
+     * which scans the inner side once per block of outer tuples. A range
+     * join is run as a sort-merge join: each input is scanned once, unsorted
+     * inputs are sorted at n log n comparisons, and every output tuple costs
+     * one step. An equality join is run as a merge join only if both inputs
+     * are sorted, in which case it costs one scan of each input and one
+     * comparison per input tuple.
+     * 
+     * @param sorted1
+     *            Whether the left-hand side is in ascending order of its
+     *            join field
+     * @param sorted2
+     *            Whether the right-hand side is in ascending order of its
+     *            join field
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
         }
+        if (!useMergeJoin(j.p, sorted1, sorted2)) {
+            if (j.p == Predicate.Op.EQUALS) {
+                // hash join: build a table of child1, probe it with child2
+                return cost1 + cost2 + 2 * card1 + card2;
+            }
+            // block nested loops: one scan of the inner side per block
+            double blocks = Math.ceil((double) card1 / outerBlockCapacity(j));
+            return cost1 + blocks * cost2 + card1 * card2;
+        }
+        double cost = cost1 + cost2 + card1 + card2;
+        if (!sorted1)
+            cost += sortCost(card1);
+        if (!sorted2)
+            cost += sortCost(card2);
+        if (j.p != Predicate.Op.EQUALS)
+            cost += 0.3 * card1 * card2;
+        return cost;
+    }
+
+    /**
+     * Estimate the cost of joining by looking up each outer tuple's key in a
+     * B+ tree on the inner join field ({@link IndexNestedLoopJoin}). Each
+     * lookup reads one page per level of the tree.
+     * 
+     * @param j
+     *            An equality join whose inner table is a B+ tree file keyed
+     *            on the join field
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param cost1
+     *            Estimated cost of one full scan of the left-hand side
+     * @param cost2
+     *            Estimated cost of one full scan of the inner table
+     * @return An estimate of the cost of this join, or
+     *         Double.MAX_VALUE if it cannot be run with index lookups
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS
+                || !isBTreeKey(j.t2Alias, j.f2PureName))
+            return Double.MAX_VALUE;
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(
+                p.getTableId(j.t2Alias));
+        int pages = Math.max(1, f.numPages());
+        double height = TableStats.estimateIndexHeight(f);
+        return cost1 + card1 * (height * cost2 / pages + 1);
+    }
+
+    /**
+     * Whether a join with operator op is run as a {@link SortMergeJoin}:
+     * always for range predicates, and for equality if both inputs are
+     * already sorted (otherwise a hash join does not need to sort).
+     */
+    private static boolean useMergeJoin(Predicate.Op op, boolean sorted1,
+            boolean sorted2) {
+        if (!SortMergeJoin.supports(op))
+            return false;
+        return op != Predicate.Op.EQUALS || (sorted1 && sorted2);
+    }
+
+    /**
+     * The number of outer tuples a block nested-loop {@link Join} holds per
+     * block, sized by the outer base table's tuples (one int field if the
+     * table is not known).
+     */
+    private int outerBlockCapacity(LogicalJoinNode j) {
+        long budget = SpillFile.memoryBudget(Join.MEMORY_PROPERTY);
+        Integer tableId = p == null ? null : p.getTableId(j.t1Alias);
+        TupleDesc td = tableId == null ? new TupleDesc(new Type[]{Type.INT_TYPE})
+                : Database.getCatalog().getTupleDesc(tableId);
+        return Join.blockCapacity(budget, td);
+    }
+
+    /** The comparisons needed to sort card tuples. */
+    private static double sortCost(int card) {
+        return card < 2 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Whether the table with the given alias is a B+ tree file keyed on the
+     * field. Scans of such a table return its tuples in ascending order of
+     * the field, and the tree can be probed for a key.
+     */
+    private boolean isBTreeKey(String tableAlias, String field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(p.getTableId(tableAlias));
+        if (!(f instanceof BTreeFile))
+            return false;
+        int key = ((BTreeFile) f).keyField();
+        return field.equals(f.getTupleDesc().getFieldName(key));
     }
 
     /**
@@ -252,6 +374,8 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
 
+        if (joins.isEmpty())
+            return joins;
         PlanCache pc = new PlanCache();
         CostCard best = new CostCard();
         int size = joins.size();
@@ -338,6 +462,9 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // base tables stored as B+ trees keyed on their join field: they
+        // are sorted on it and can be probed
+        boolean leftKeyed = false, rightKeyed = false;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -353,6 +480,9 @@ public class JoinOptimizer {
                             filterSelectivities.get(j.t2Alias));
             rightPkey = table2Alias != null && isPkey(table2Alias,
                     j.f2PureName);
+            leftKeyed = isBTreeKey(j.t1Alias, j.f1PureName);
+            rightKeyed = table2Alias != null && isBTreeKey(table2Alias,
+                    j.f2PureName);
         } else {
             // news is not empty -- figure best way to join j to news
             prevBest = pc.getOrder(news);
@@ -381,6 +511,8 @@ public class JoinOptimizer {
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
                         j.f2PureName);
+                rightKeyed = j.t2Alias != null && isBTreeKey(j.t2Alias,
+                        j.f2PureName);
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
@@ -393,6 +525,7 @@ public class JoinOptimizer {
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
+                leftKeyed = isBTreeKey(j.t1Alias, j.f1PureName);
 
             } else {
                 // don't consider this plan if one of j.t1 or j.t2
@@ -402,18 +535,37 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                leftKeyed, rightKeyed);
+        boolean index1 = false;
+        if (rightKeyed && estimateIndexJoinCost(j, t1card, t1cost, t2cost) < cost1) {
+            cost1 = estimateIndexJoinCost(j, t1card, t1cost, t2cost);
+            index1 = true;
+        }
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                rightKeyed, leftKeyed);
+        boolean index2 = false;
+        if (leftKeyed && estimateIndexJoinCost(j2, t2card, t2cost, t1cost) < cost2) {
+            cost2 = estimateIndexJoinCost(j2, t2card, t2cost, t1cost);
+            index2 = true;
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
+            index1 = index2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
+        if (index1) {
+            // j may be shared with other plans; mark a copy
+            j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName,
+                    j.f2PureName, j.p);
+            j.probeIndex = true;
+        }
         if (cost1 >= bestCostSoFar)
             return null;
 
@@ -25,6 +25,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the JoinOptimizer chose to join by looking up each t1 key in
+     * the B+ tree on t2's join field. */
+    public boolean probeIndex;
+
     public LogicalJoinNode() {
     }
 
@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -32,12 +34,14 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    /** The aggregates of the query: per aggregate its operator and field. */
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -189,23 +193,39 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        if (gfield != null && !groupByFields.contains(disambiguateName(gfield)))
+            addGroupBy(gfield);
+        addAggregate(op, afield);
+    }
+
+    /** Add an aggregate over the field to the query. Any number of
+        aggregates are computed in one pass over the input.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        aggOps.add(op);
+        aggFields.add(disambiguateName(afield));
         hasAgg = true;
     }
 
+    /** Add a GROUP BY field to the query; the aggregates are grouped by all
+        fields added, in the order they are added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        groupByFields.add(disambiguateName(gfield));
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -219,6 +239,21 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: only the first n result tuples are returned.
+        @param n the number of tuples to return
+        @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        limit = n;
+    }
+
+    /** @return the LIMIT of this plan, or -1 if it has none */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -261,6 +296,16 @@ public class LogicalPlan {
 
     }
 
+    /** @return the index of the aggregate op(fname) among the aggregates of
+        the query */
+    private int aggregateIndex(String op, String fname) throws ParsingException {
+        for (int j = 0; j < aggOps.size(); j++) {
+            if (aggOps.get(j).equals(op) && aggFields.get(j).equals(fname))
+                return j;
+        }
+        throw new ParsingException("Aggregate " + op + "(" + fname + ") is not computed by the query");
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -274,6 +319,21 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Rebuilds the filters over a table's sequential scan on top of a B+
+     * tree scan that returns only the tuples matching key, leaving out the
+     * filter on key itself.
+     */
+    private static OpIterator indexScan(TransactionId t, int tableId, String alias,
+                                        OpIterator filters, Predicate key) {
+        if (filters instanceof Filter) {
+            Filter f = (Filter) filters;
+            OpIterator child = indexScan(t, tableId, alias, f.getChildren()[0], key);
+            return f.getPredicate() == key ? child : new Filter(f.getPredicate(), child);
+        }
+        return new BTreeScan(t, tableId, alias, new IndexPredicate(key.getOp(), key.getOperand()));
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,6 +352,8 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,Predicate> indexFilters = new HashMap<>();
+        Map<String,Double> indexSelectivities = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -342,8 +404,36 @@ public class LogicalPlan {
             double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            // remember the most selective filter the table's B+ tree can answer
+            DbFile file = Database.getCatalog().getDatabaseFile(this.getTableId(lf.tableAlias));
+            if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == p.getField()
+                    && lf.p != Predicate.Op.NOT_EQUALS && lf.p != Predicate.Op.LIKE
+                    && (!indexSelectivities.containsKey(lf.tableAlias)
+                        || sel < indexSelectivities.get(lf.tableAlias))) {
+                indexFilters.put(lf.tableAlias, p);
+                indexSelectivities.put(lf.tableAlias, sel);
+            }
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // read a table through its B+ tree when the filter on the key is
+        // selective enough to beat a scan of the whole file
+        for (Map.Entry<String, Predicate> e : indexFilters.entrySet()) {
+            String alias = e.getKey();
+            int tableId = this.getTableId(alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            if (s.estimateIndexScanCost(indexSelectivities.get(alias)) < s.estimateScanCost()) {
+                subplanMap.put(alias, indexScan(t, tableId, alias, subplanMap.get(alias), e.getValue()));
+            }
+        }
+
+        // split the scans of large heap files between worker threads
+        if (Gather.getWorkers() > 1) {
+            for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+                e.setValue(Gather.parallelize(e.getValue(), Gather.getWorkers()));
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -413,7 +503,7 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                outFields.add(groupByFields.size() + aggregateIndex(si.aggOp, si.fname));
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -425,16 +515,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -459,20 +550,41 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            int[] afields = new int[aggFields.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+            int[] gfields = new int[groupByFields.size()];
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (int j = 0; j < afields.length; j++) {
+                    afields[j] = td.fieldNameToIndex(aggFields.get(j));
+                    aops[j] = getAggOp(aggOps.get(j));
+                }
+                for (int g = 0; g < gfields.length; g++) {
+                    gfields[g] = td.fieldNameToIndex(groupByFields.get(g));
+                }
+                if (gfields.length == 1 && SortMergeJoin.isOrderedOn(node, gfields[0])) {
+                    // the rows of each group arrive together: aggregate one
+                    // group at a time instead of hashing them all
+                    node = new SortAggregate(node, afields, aops, gfields);
+                } else {
+                    Aggregate aggNode = new Aggregate(node, afields, aops, gfields);
+                    // aggregate in the workers that read a split scan, and
+                    // combine their partial aggregates
+                    node = Gather.getWorkers() > 1 ? Gather.parallelize(aggNode, Gather.getWorkers()) : aggNode;
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            // with a LIMIT only the first tuples are needed, so keep a bounded heap instead of sorting
+            if (limit >= 0)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
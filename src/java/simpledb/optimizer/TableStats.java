@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -113,7 +114,8 @@ public class TableStats {
             maxValue[i] = Integer.MIN_VALUE;
         }
         totalTuples = 0;
-        SeqScan scan = new SeqScan(new TransactionId(), tableId);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId);
         try {
             scan.open();
             while(scan.hasNext()) {
@@ -156,6 +158,8 @@ public class TableStats {
         } catch (DbException | TransactionAbortedException e) {
             e.printStackTrace();
         }
+        // lock waits do not time out, so the scan must not keep its locks
+        Database.getBufferPool().transactionComplete(tid);
     }
 
     /**
@@ -172,8 +176,48 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        HeapFile heapFile = (HeapFile) dbFile;
-        return heapFile.numPages() * ioCostPerPage;
+        return numPages() * ioCostPerPage;
+    }
+
+    private int numPages() {
+        return dbFile instanceof BTreeFile ? ((BTreeFile) dbFile).numPages()
+                : ((HeapFile) dbFile).numPages();
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that match a predicate on the
+     * key field of a B+ tree table through the tree: one page per level to
+     * find the first match, then the share of the pages that the predicate
+     * selects.
+     * 
+     * @param selectivity
+     *            The estimated selectivity of the predicate
+     * @return The estimated cost of the index scan, or Double.MAX_VALUE if
+     *         the table is not a B+ tree
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        if (!(dbFile instanceof BTreeFile))
+            return Double.MAX_VALUE;
+        int pages = Math.max(1, numPages());
+        return (estimateIndexHeight((BTreeFile) dbFile) + Math.ceil(selectivity * pages))
+                * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the number of pages a lookup in a B+ tree reads to reach a
+     * leaf, from the number of pages of the tree and the number of entries
+     * that fit on an internal page.
+     *
+     * @param f
+     *            The B+ tree file
+     * @return The estimated height of the tree, counting the leaf level
+     */
+    static double estimateIndexHeight(BTreeFile f) {
+        int pages = Math.max(1, f.numPages());
+        // internal pages hold a key and a child pointer per entry
+        int fanout = Math.max(2, BufferPool.getPageSize()
+                / (f.getTupleDesc().getFieldType(f.keyField()).getLen() + 4));
+        return 1 + Math.ceil(Math.log(pages) / Math.log(fanout));
     }
 
     /**
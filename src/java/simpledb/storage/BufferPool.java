@@ -9,10 +9,22 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -22,6 +34,18 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is striped into segments, each with its own monitor and
+ * its own {@link ReplacementPolicy}. A cache hit only locks the segment its
+ * page hashes to, and lock waits happen outside of every buffer pool monitor.
+ * Lock waits block until the lock is released; deadlocks are detected with a
+ * waits-for graph instead of timeouts.
+ * <p>
+ * Sequential scans can ask for pages to be read ahead with
+ * {@link #prefetchPage(PageId)}. Prefetched pages are read by a background
+ * thread without taking any lock, into frames of the regular pool budget.
+ * A miss on a page that is already being read, by a prefetch or another
+ * fetch, waits for that read instead of reading the page again.
  * 
  * @Threadsafe, all fields are final
  */
@@ -37,52 +61,229 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
 
+    /** Default number of page-table segments. Each segment has its own
+    monitor and its own replacement policy, so concurrent fetches of pages that
+    hash to different segments never contend with each other. */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /** Number of threads that read prefetched pages, shared by all pools. */
+    public static final int PREFETCH_THREADS = 2;
+
+    /** Reads prefetched pages for every buffer pool. */
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int numPages;
+    /** Number of pages currently cached across all segments. */
+    private final AtomicInteger numCached;
+    private final Segment[] segments;
+
+    private final ReplacementPolicy.Type policy;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    /** Pages each running transaction may have dirtied: the pages it
+    fetched with READ_WRITE and the pages its inserts and deletes returned. */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writeSets = new ConcurrentHashMap<>();
+
+    /** Hit and miss counters per table id. */
+    private final ConcurrentHashMap<Integer, LongAdder[]> tableCounters = new ConcurrentHashMap<>();
+
+    /** Page reads in progress. A miss on a page in this map waits for the
+    read to finish instead of reading the page again. */
+    private final ConcurrentHashMap<PageId, PendingRead> pendingReads = new ConcurrentHashMap<>();
+    /** Prefetched pages that no getPage call has asked for yet. Only
+    changed with the monitor of the page's segment held. */
+    private final Set<PageId> prefetched = ConcurrentHashMap.newKeySet();
+    /** Prefetch reads scheduled but not finished yet. */
+    private final AtomicInteger prefetchesPending = new AtomicInteger();
+    /** At most this many prefetched pages may be pending or unused at once. */
+    private final int maxPrefetched;
+    private volatile boolean prefetchEnabled = true;
+
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder prefetchWaits = new LongAdder();
+    private final LongAdder prefetchWasted = new LongAdder();
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
-     *
-     * @param numPages maximum number of pages in this buffer pool.
+     * A page read in progress. Fetches of the same page wait on done.
      */
+    static class PendingRead {
+        final boolean prefetch;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
 
-    private final int numPages;
-    private final ConcurrentHashMap<PageId, Node> pageCache;
+        PendingRead(boolean prefetch) {
+            this.prefetch = prefetch;
+        }
+    }
 
-    class Node {
-        PageId pageId;
-        Page page;
-        Node left, right;
-        public Node() {}
-        public Node(PageId _pageId, Page _page) {
-            pageId = _pageId;
-            page = _page;
+    /**
+     * One stripe of the page table. A segment owns the pages whose ids hash
+     * to it and asks its own replacement policy for victims. All fields are
+     * protected by the segment's monitor.
+     */
+    static class Segment {
+        final HashMap<PageId, Page> pageCache = new HashMap<>();
+        final ReplacementPolicy policy;
+
+        Segment(ReplacementPolicy policy) {
+            this.policy = policy;
         }
     }
-    Node L, R;
 
-    private void remove(Node node) {
-//        System.out.println("node.left " + node.left);
-//        System.out.println("node.left.right " + node.left.right);
-//        System.out.println("node.right " + node.right);
-        node.left.right = node.right;
-        node.right.left = node.left;
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, DEFAULT_SEGMENTS);
     }
 
-    private void insert(Node node) {
-        node.left = L;
-        node.right = L.right;
-        L.right.left = node;
-        L.right = node;
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a page table
+     * split into numSegments segments, using the replacement policy selected
+     * by the {@value ReplacementPolicy#POLICY_PROPERTY} system property.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numSegments number of page-table segments; rounded up to a
+     *                    power of two.
+     */
+    public BufferPool(int numPages, int numSegments) {
+        this(numPages, numSegments, ReplacementPolicy.Type.fromSystemProperty());
     }
 
-    public BufferPool(int numPages) {
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a page table
+     * split into numSegments segments. A single segment degenerates to one
+     * global replacement list behind one monitor.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numSegments number of page-table segments; rounded up to a
+     *                    power of two, then halved while segments would hold
+     *                    fewer pages than the policy needs (see
+     *                    {@link ReplacementPolicy.Type#getMinSegmentPages}).
+     * @param policy the replacement policy of every segment
+     */
+    public BufferPool(int numPages, int numSegments, ReplacementPolicy.Type policy) {
         // some code goes here
+        if (numSegments < 1) {
+            throw new IllegalArgumentException("numSegments must be positive");
+        }
         this.numPages = numPages;
-        this.pageCache = new ConcurrentHashMap<>();
-        L = new Node();
-        R = new Node();
-        L.right = R;
-        R.left = L;
+        this.numCached = new AtomicInteger(0);
+        // a quarter of the pool, so read-ahead cannot crowd out the working
+        // set; pools too small for that never prefetch
+        this.maxPrefetched = numPages / 4;
+        int n = Integer.highestOneBit(numSegments);
+        if (n < numSegments) {
+            n <<= 1;
+        }
+        while (n > 1 && numPages / n < policy.getMinSegmentPages()) {
+            n >>= 1;
+        }
+        this.policy = policy;
+        this.segments = new Segment[n];
+        int perSegment = Math.max(1, (numPages + n - 1) / n);
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(policy.create(perSegment));
+        }
         lockManager = new LockManager();
     }
+
+    private Segment segmentFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /** @return the maximum number of pages this pool caches */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the number of pages currently cached */
+    public int getNumCachedPages() {
+        return numCached.get();
+    }
+
+    /** @return the number of page-table segments */
+    public int getNumSegments() {
+        return segments.length;
+    }
+
+    /** @return the number of getPage calls served from the cache */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return the number of getPage calls for pages of a table served from the cache */
+    public long getHitCount(int tableId) {
+        LongAdder[] c = tableCounters.get(tableId);
+        return c == null ? 0 : c[0].sum();
+    }
+
+    /** @return the number of getPage calls for pages of a table that had to read from disk */
+    public long getMissCount(int tableId) {
+        LongAdder[] c = tableCounters.get(tableId);
+        return c == null ? 0 : c[1].sum();
+    }
+
+    /** @return the number of pages read ahead by {@link #prefetchPage} */
+    public long getPrefetchCount() {
+        return prefetches.sum();
+    }
+
+    /** @return the number of getPage calls that found a prefetched page,
+     * including the ones that had to wait for its read to finish */
+    public long getPrefetchHitCount() {
+        return prefetchHits.sum();
+    }
+
+    /** @return the number of getPage calls that waited for a prefetch read */
+    public long getPrefetchWaitCount() {
+        return prefetchWaits.sum();
+    }
+
+    /** @return the number of prefetched pages evicted or discarded unused */
+    public long getPrefetchWastedCount() {
+        return prefetchWasted.sum();
+    }
+
+    /**
+     * Turns read-ahead on or off. While it is off, {@link #prefetchPage}
+     * does nothing.
+     */
+    public void setPrefetchEnabled(boolean enabled) {
+        this.prefetchEnabled = enabled;
+    }
+
+    /** @return true if {@link #prefetchPage} reads pages ahead */
+    public boolean isPrefetchEnabled() {
+        return prefetchEnabled;
+    }
+
+    /** @return the replacement policy of this pool */
+    public ReplacementPolicy.Type getReplacementPolicy() {
+        return policy;
+    }
+
+    private LongAdder[] countersFor(int tableId) {
+        LongAdder[] c = tableCounters.get(tableId);
+        if (c == null) {
+            c = tableCounters.computeIfAbsent(tableId, id -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        }
+        return c;
+    }
     
     public static int getPageSize() {
       return pageSize;
@@ -99,122 +300,306 @@ public class BufferPool {
     }
 
 
-    class Lock {
-        private TransactionId tid;
-        private Permissions type;
+    /**
+     * Lock word of one page: the number of transactions sharing it and the
+     * transaction that holds it exclusively. At most one of them is set.
+     * Which transactions share the page is recorded in their own lock
+     * tables.
+     */
+    static class PageLock {
+        int shared;
+        TransactionId owner;
 
-        public Lock(TransactionId tid, Permissions type) {
-            this.tid = tid;
-            this.type = type;
+        boolean isFree() {
+            return shared == 0 && owner == null;
         }
+    }
 
-        public TransactionId getTid() {
-            return tid;
-        }
+    /**
+     * Page-level shared/exclusive locks with blocking waits.
+     * <p>
+     * Every locked page has a lock word, and every transaction has a table
+     * of the locks it holds, so releasing a transaction's locks only visits
+     * its own pages.
+     * <p>
+     * All lock state is guarded by one latch, which is only held for the
+     * bookkeeping and never while a transaction waits. A transaction whose
+     * request conflicts waits on the condition queue of that page and is
+     * signalled whenever a lock on the page is released.
+     * <p>
+     * Before a transaction starts waiting, the waits-for graph (waiter to
+     * the current holders of the page it waits for) is searched for a cycle
+     * through the new edge. If there is one, the youngest transaction of the
+     * cycle is chosen as the single victim and gets a DeadlockException;
+     * every other transaction keeps waiting.
+     */
+    class LockManager {
+        /** Lock word of each locked page. */
+        private final HashMap<PageId, PageLock> pageLocks = new HashMap<>();
+        /** Lock table of each transaction that holds locks. */
+        private final HashMap<TransactionId, HashMap<PageId, Permissions>> held = new HashMap<>();
 
-        public Permissions getType() {
-            return type;
-        }
+        private final ReentrantLock latch = new ReentrantLock();
+        /** Condition queue of each page that has waiters. */
+        private final HashMap<PageId, PageQueue> queues = new HashMap<>();
+        /**
+         * Waits-for graph: the pages each blocked transaction waits for,
+         * with the number of its threads waiting for each. Threads of one
+         * transaction, such as the workers of a Gather, can wait for
+         * different pages at the same time.
+         */
+        private final HashMap<TransactionId, HashMap<PageId, Integer>> waitsFor = new HashMap<>();
+        /** Waiting transactions chosen as deadlock victims. A victim stays
+         * in the set until none of its threads waits any more. */
+        private final HashSet<TransactionId> victims = new HashSet<>();
 
-        public void setTid(TransactionId tid) {
-            this.tid = tid;
+        /**
+         * Acquires a lock on pid, waiting while it conflicts with locks of
+         * other transactions.
+         *
+         * @throws DeadlockException if waiting would deadlock and tid is the
+         *         youngest transaction of the cycle
+         * @throws TransactionAbortedException if the wait is interrupted
+         */
+        public void acquire(TransactionId tid, PageId pid, Permissions type)
+                throws TransactionAbortedException {
+            latch.lock();
+            try {
+                if(lock(tid, pid, type)) {
+                    return;
+                }
+                PageQueue queue = queues.get(pid);
+                if(queue == null) {
+                    queue = new PageQueue(latch.newCondition());
+                    queues.put(pid, queue);
+                }
+                queue.waiters ++;
+                waitsFor.computeIfAbsent(tid, k -> new HashMap<>()).merge(pid, 1, Integer::sum);
+                try {
+                    while(true) {
+                        TransactionId victim = findVictim(tid);
+                        if(victim != null) {
+                            // wake up every thread of the victim so that it can abort
+                            victims.add(victim);
+                            for(PageId p : waitsFor.get(victim).keySet()) {
+                                queues.get(p).cond.signalAll();
+                            }
+                        }
+                        if(victims.contains(tid)) {
+                            throw new DeadlockException();
+                        }
+                        queue.cond.await();
+                        if(victims.contains(tid)) {
+                            throw new DeadlockException();
+                        }
+                        if(lock(tid, pid, type)) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                } finally {
+                    // other threads of tid may be waiting for other pages
+                    HashMap<PageId, Integer> pages = waitsFor.get(tid);
+                    if(pages.merge(pid, -1, Integer::sum) == 0) {
+                        pages.remove(pid);
+                    }
+                    if(pages.isEmpty()) {
+                        waitsFor.remove(tid);
+                        victims.remove(tid);
+                    }
+                    if(-- queue.waiters == 0) {
+                        queues.remove(pid);
+                    }
+                }
+            } finally {
+                latch.unlock();
+            }
         }
 
-        public void setType(Permissions type) {
-            this.type = type;
+        /**
+         * Searches the waits-for graph for a cycle through tid, which has
+         * just started waiting.
+         *
+         * @return the youngest transaction on the cycle, or null if there
+         *         is none
+         */
+        private TransactionId findVictim(TransactionId tid) {
+            ArrayList<TransactionId> path = new ArrayList<>();
+            path.add(tid);
+            return findVictim(tid, path, new HashSet<>());
         }
-    }
 
-    class LockManager {
-        ConcurrentHashMap<PageId, Vector<Lock>> locksMap;
+        private TransactionId findVictim(TransactionId start, ArrayList<TransactionId> path,
+                                         HashSet<TransactionId> visited) {
+            TransactionId waiter = path.get(path.size() - 1);
+            HashMap<PageId, Integer> pages = waitsFor.get(waiter);
+            if(pages == null) {
+                return null;
+            }
+            for(PageId pid : pages.keySet()) {
+                for(TransactionId holder : holders(pid)) {
+                    if(holder.equals(waiter)) {
+                        continue;
+                    }
+                    if(holder.equals(start)) {
+                        TransactionId youngest = start;
+                        for(TransactionId t : path) {
+                            if(t.getId() > youngest.getId()) {
+                                youngest = t;
+                            }
+                        }
+                        return youngest;
+                    }
+                    if(visited.add(holder)) {
+                        path.add(holder);
+                        TransactionId victim = findVictim(start, path, visited);
+                        path.remove(path.size() - 1);
+                        if(victim != null) {
+                            return victim;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
 
-        public LockManager() {
-            locksMap = new ConcurrentHashMap<>();
+        /** Wakes up the transactions waiting for pid. Requires the latch. */
+        private void signal(PageId pid) {
+            PageQueue queue = queues.get(pid);
+            if(queue != null) {
+                queue.cond.signalAll();
+            }
         }
 
-        public synchronized boolean lock(TransactionId tid, PageId pid, Permissions type) {
-            Vector<Lock> locks = locksMap.get(pid);
-            Lock lock = new Lock(tid, type);
-            if(locks == null) {
-                //no locks on this page
-                locks = new Vector<>();
-                locks.add(lock);
-                locksMap.put(pid, locks);
-                return true;
+        /**
+         * The transactions holding a lock on pid. Shared holders are only
+         * recorded in the lock tables, which are searched when a deadlock
+         * check needs them. Requires the latch.
+         */
+        private List<TransactionId> holders(PageId pid) {
+            List<TransactionId> holders = new ArrayList<>();
+            PageLock pl = pageLocks.get(pid);
+            if(pl == null) {
+                return holders;
             }
+            if(pl.owner != null) {
+                holders.add(pl.owner);
+                return holders;
+            }
+            for(Map.Entry<TransactionId, HashMap<PageId, Permissions>> e : held.entrySet()) {
+                if(e.getValue().containsKey(pid)) {
+                    holders.add(e.getKey());
+                }
+            }
+            return holders;
+        }
 
-            if(locks.size() == 1) {
-                Lock firstLock = locks.get(0);
-                if(firstLock.tid.equals(tid)) {
-                    // 是当前事务的锁
-                    if(firstLock.type.equals(Permissions.READ_ONLY) && type.equals(Permissions.READ_WRITE)) {
-                        // 锁升级
-                        firstLock.setType(type);
-                    }
+        /** Tries to grant a lock without waiting. Requires the latch. */
+        private boolean lock(TransactionId tid, PageId pid, Permissions type) {
+            HashMap<PageId, Permissions> mine = held.get(tid);
+            Permissions have = mine == null ? null : mine.get(pid);
+            PageLock pl = pageLocks.get(pid);
+            if(have != null) {
+                // 是当前事务的锁
+                if(have == Permissions.READ_WRITE || type == Permissions.READ_ONLY) {
                     return true;
-                } else {
-                    // 同为共享锁
-                    if(firstLock.type.equals(Permissions.READ_ONLY) && type.equals(Permissions.READ_ONLY)) {
-                        locks.add(lock);
-                        return true;
-                    }
+                }
+                // 锁升级, 只有唯一的共享锁持有者可以升级
+                if(pl.shared > 1) {
                     return false;
                 }
+                pl.shared = 0;
+                pl.owner = tid;
+                mine.put(pid, Permissions.READ_WRITE);
+                return true;
             }
 
-            // 存在多个事务锁，说明全是共享锁
-            if(type.equals(Permissions.READ_WRITE)) {
+            if(pl == null) {
+                //no locks on this page
+                pl = new PageLock();
+            } else if(pl.owner != null || type == Permissions.READ_WRITE) {
+                // 与排他锁冲突, 或者请求排他锁时有共享锁
                 return false;
             }
-
-            for(Lock lock1 : locks) {
-                // 重复请求共享锁
-                if(lock.tid.equals(tid)) {
-                    return true;
-                }
+            if(type == Permissions.READ_WRITE) {
+                pl.owner = tid;
+            } else {
+                pl.shared ++;
             }
-
-            locks.add(lock);
+            pageLocks.put(pid, pl);
+            if(mine == null) {
+                mine = new HashMap<>();
+                held.put(tid, mine);
+            }
+            mine.put(pid, type);
             return true;
         }
 
-        public synchronized void releaseLock(TransactionId tid, PageId pid) {
-            Vector<Lock> locks = locksMap.get(pid);
-            for(int i = 0;i < locks.size();i ++) {
-                Lock lock = locks.get(i);
-                if(lock.tid.equals(tid)) {
-                    locks.remove(lock);
-                    if(locks.isEmpty()) {
-                        locksMap.remove(pid);
-                    }
+        /** Releases tid's lock on pid, given its mode. Requires the latch. */
+        private void unlock(TransactionId tid, PageId pid, Permissions type) {
+            PageLock pl = pageLocks.get(pid);
+            if(type == Permissions.READ_WRITE) {
+                pl.owner = null;
+            } else {
+                pl.shared --;
+            }
+            if(pl.isFree()) {
+                pageLocks.remove(pid);
+            }
+            signal(pid);
+        }
+
+        public void releaseLock(TransactionId tid, PageId pid) {
+            latch.lock();
+            try {
+                HashMap<PageId, Permissions> mine = held.get(tid);
+                Permissions type = mine == null ? null : mine.remove(pid);
+                if(type == null) {
                     return ;
                 }
+                if(mine.isEmpty()) {
+                    held.remove(tid);
+                }
+                unlock(tid, pid, type);
+            } finally {
+                latch.unlock();
             }
         }
 
-        public synchronized void releaseAllLocks(TransactionId tid) {
-            for(PageId pageId : locksMap.keySet()) {
-                Vector<Lock> locks = locksMap.get(pageId);
-                for(int i = 0;i < locks.size();i ++) {
-                    Lock lock = locks.get(i);
-                    if(lock.tid.equals(tid)) {
-                        locks.remove(lock);
-                        if(locks.isEmpty()) {
-                            locksMap.remove(pageId);
-                        }
+        public void releaseAllLocks(TransactionId tid) {
+            latch.lock();
+            try {
+                HashMap<PageId, Permissions> mine = held.remove(tid);
+                if(mine != null) {
+                    for(Map.Entry<PageId, Permissions> e : mine.entrySet()) {
+                        unlock(tid, e.getKey(), e.getValue());
                     }
                 }
+            } finally {
+                latch.unlock();
             }
         }
 
-        public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-            Vector<Lock> locks = locksMap.get(pid);
-            for(Lock lock : locks) {
-                if(lock.tid.equals(tid)) {
-                    return true;
-                }
+        public boolean holdsLock(TransactionId tid, PageId pid) {
+            latch.lock();
+            try {
+                HashMap<PageId, Permissions> mine = held.get(tid);
+                return mine != null && mine.containsKey(pid);
+            } finally {
+                latch.unlock();
             }
-            return false;
+        }
+    }
+
+    /** Waiters for the locks of one page. */
+    static class PageQueue {
+        final Condition cond;
+        int waiters;
+
+        PageQueue(Condition cond) {
+            this.cond = cond;
         }
     }
 
@@ -223,7 +608,8 @@ public class BufferPool {
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
-     * transaction.
+     * transaction. If blocking would deadlock, the youngest transaction of
+     * the deadlock is aborted with a DeadlockException.
      * <p>
      * The retrieved page should be looked up in the buffer pool.  If it
      * is present, it should be returned.  If it is not present, it should
@@ -235,36 +621,272 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        boolean hasLock = false;
-        long st = System.currentTimeMillis();
-        long timeout = new Random().nextInt(2000);
-        while(!hasLock) {
-            long ed = System.currentTimeMillis();
-            if(ed - st > timeout) {
-                throw new TransactionAbortedException();
+        // wait for the page lock without holding any buffer pool monitor, so a
+        // blocked transaction does not stall fetches of unrelated pages
+        lockManager.acquire(tid, pid, perm);
+        if(perm == Permissions.READ_WRITE) {
+            writeSet(tid).add(pid);
+        }
+
+        Segment seg = segmentFor(pid);
+        LongAdder[] counters = countersFor(pid.getTableId());
+        while(true) {
+            Page page = lookup(seg, pid);
+            if(page != null) {
+                hits.increment();
+                counters[0].increment();
+                return page;
+            }
+
+            // miss: read the page without holding the segment monitor, unless
+            // a prefetch or another fetch is already reading it
+            PendingRead mine = new PendingRead(false);
+            PendingRead other = pendingReads.putIfAbsent(pid, mine);
+            if(other != null) {
+                if(other.prefetch) {
+                    prefetchWaits.increment();
+                }
+                other.done.join();
+                continue;
+            }
+            try {
+                // the page may have been cached since the lookup above
+                page = lookup(seg, pid);
+                if(page != null) {
+                    hits.increment();
+                    counters[0].increment();
+                    return page;
+                }
+                misses.increment();
+                counters[1].increment();
+                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                return cachePage(pid, page, false);
+            } finally {
+                pendingReads.remove(pid, mine);
+                mine.done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * @return the cached copy of pid, or null if it is not cached
+     */
+    private Page lookup(Segment seg, PageId pid) {
+        synchronized (seg) {
+            Page page = seg.pageCache.get(pid);
+            if(page != null) {
+                seg.policy.pageHit(pid);
+                if(!prefetched.isEmpty() && prefetched.remove(pid)) {
+                    prefetchHits.increment();
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Asks for a page to be read into the pool in the background, ahead of
+     * a getPage call for it. No lock is taken on the page: the cached copy
+     * is whatever is on disk, which is current for any page that is not
+     * cached, and the usual locks are taken when the page is fetched.
+     * <p>
+     * The page gets a frame of the regular pool budget; when the pool is
+     * full, a clean page is evicted for it. At most a quarter of the pool
+     * holds prefetched pages that have not been used yet.
+     *
+     * @param pid the page to read ahead
+     * @return true if the page is cached, being read or now scheduled to be
+     *         read; false if it was not prefetched because read-ahead is
+     *         off or the prefetch budget is used up
+     */
+    public boolean prefetchPage(PageId pid) {
+        if(!prefetchEnabled) {
+            return false;
+        }
+        Segment seg = segmentFor(pid);
+        if(cachedPage(pid) != null || pendingReads.containsKey(pid)) {
+            return true;
+        }
+        if(prefetched.size() + prefetchesPending.get() >= maxPrefetched) {
+            return false;
+        }
+        PendingRead mine = new PendingRead(true);
+        if(pendingReads.putIfAbsent(pid, mine) != null) {
+            return true;
+        }
+        boolean scheduled = false;
+        try {
+            if(cachedPage(pid) != null) {
+                return true;
+            }
+            if(!reserveFrameForPrefetch(seg)) {
+                return false;
+            }
+            prefetchesPending.incrementAndGet();
+            try {
+                prefetcher.execute(() -> readAhead(pid, mine));
+            } catch (RejectedExecutionException e) {
+                prefetchesPending.decrementAndGet();
+                numCached.decrementAndGet();
+                return false;
             }
-            hasLock = lockManager.lock(tid, pid, perm);
+            scheduled = true;
+            prefetches.increment();
+            return true;
+        } finally {
+            if(!scheduled) {
+                pendingReads.remove(pid, mine);
+                mine.done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Claims a frame for a prefetched page, evicting a clean page if the
+     * pool is full.
+     *
+     * @return false if every cached page is dirty
+     */
+    private boolean reserveFrameForPrefetch(Segment preferred) {
+        try {
+            reserveFrame(preferred);
+            return true;
+        } catch (DbException e) {
+            return false;
         }
+    }
 
-        if(!pageCache.containsKey(pid)) {
+    /**
+     * Runs on a prefetch thread: reads a page into the frame prefetchPage
+     * reserved for it.
+     */
+    private void readAhead(PageId pid, PendingRead mine) {
+        boolean installed = false;
+        try {
             Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            Node node = new Node(pid, page);
-            if(pageCache.size() == this.numPages) {
-                // evict
-                evictPage();
+            Segment seg = segmentFor(pid);
+            synchronized (seg) {
+                if(!seg.pageCache.containsKey(pid)) {
+                    seg.pageCache.put(pid, page);
+                    seg.policy.pageAdded(pid);
+                    prefetched.add(pid);
+                    installed = true;
+                }
             }
-            insert(node);
-            pageCache.put(pid, node);
-        } else {
-            Node node = pageCache.get(pid);
-//            System.out.println(node.page.toString());
-            remove(node);
-            insert(node);
+        } catch (RuntimeException e) {
+            // the table is gone or the page does not exist; a getPage call
+            // for it reads the page itself and reports the error
+        } finally {
+            if(!installed) {
+                numCached.decrementAndGet();
+            }
+            prefetchesPending.decrementAndGet();
+            pendingReads.remove(pid, mine);
+            mine.done.complete(null);
+        }
+    }
+
+    /**
+     * @return true if a prefetch is reading pid right now
+     */
+    boolean isPrefetching(PageId pid) {
+        PendingRead r = pendingReads.get(pid);
+        return r != null && r.prefetch;
+    }
+
+    /**
+     * @return true if pid is cached
+     */
+    boolean isCached(PageId pid) {
+        return cachedPage(pid) != null;
+    }
+
+    /**
+     * Installs a page in the cache, evicting another page first if the pool
+     * is full.
+     *
+     * @param pid the id of the page
+     * @param page the page to cache
+     * @param replace whether page should replace a cached copy of the same
+     *                page; if false, an already cached copy wins
+     * @return the page now cached under pid
+     */
+    private Page cachePage(PageId pid, Page page, boolean replace) throws DbException {
+        Segment seg = segmentFor(pid);
+        synchronized (seg) {
+            Page cached = seg.pageCache.get(pid);
+            if(cached != null) {
+                return replaceCached(seg, pid, cached, page, replace);
+            }
+        }
+
+        // reserve a frame before taking the segment monitor again; eviction
+        // locks one segment at a time, so segment monitors never nest
+        reserveFrame(seg);
+        synchronized (seg) {
+            Page cached = seg.pageCache.get(pid);
+            if(cached != null) {
+                // somebody else cached the page while we were evicting
+                numCached.decrementAndGet();
+                return replaceCached(seg, pid, cached, page, replace);
+            }
+            seg.pageCache.put(pid, page);
+            seg.policy.pageAdded(pid);
+            return page;
+        }
+    }
+
+    /** Called with the segment monitor held when pid is already cached. */
+    private Page replaceCached(Segment seg, PageId pid, Page cached, Page page, boolean replace) {
+        seg.policy.pageHit(pid);
+        if(replace) {
+            seg.pageCache.put(pid, page);
+            return page;
+        }
+        return cached;
+    }
+
+    /**
+     * Claims one frame of the pool budget, evicting pages while the pool is
+     * full.
+     */
+    private void reserveFrame(Segment preferred) throws DbException {
+        while(true) {
+            int n = numCached.get();
+            if(n < numPages) {
+                if(numCached.compareAndSet(n, n + 1)) {
+                    return;
+                }
+                continue;
+            }
+            evictPage(preferred);
+        }
+    }
+
+    private Set<PageId> writeSet(TransactionId tid) {
+        Set<PageId> pids = writeSets.get(tid);
+        if(pids == null) {
+            pids = writeSets.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet());
+        }
+        return pids;
+    }
+
+    /** @return the cached copy of pid, or null */
+    private Page cachedPage(PageId pid) {
+        Segment seg = segmentFor(pid);
+        synchronized (seg) {
+            return seg.pageCache.get(pid);
+        }
+    }
+
+    /** Snapshot of the pages cached in a segment. */
+    private List<Page> pages(Segment seg) {
+        synchronized (seg) {
+            return new ArrayList<>(seg.pageCache.values());
         }
-        return pageCache.get(pid).page;
     }
 
     /**
@@ -310,18 +932,15 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        // only the pages in the transaction's write set can be dirty
         if(commit) {
             try {
                 // flushPages(tid);
                 // lab6 Getting started
-                for(Node node : pageCache.values()) {
-                    if(tid.equals(node.page.isDirty())) {
-                        flushPage(node.pageId);
-
-                        // use current page contents as the before-image
-                        // for the next transaction that modifies this page.
-                        node.page.setBeforeImage();
-                    }
+                for(Page page : writePages(tid)) {
+                    // use current page contents as the before-image
+                    // for the next transaction that modifies this page.
+                    page.setBeforeImage();
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -329,17 +948,25 @@ public class BufferPool {
         } else {
             restorePages(tid);
         }
+        writeSets.remove(tid);
         lockManager.releaseAllLocks(tid);
     }
 
-    public synchronized void restorePages(TransactionId tid) {
-        for(Node node : pageCache.values()) {
-            if(tid.equals(node.page.isDirty())) {
-                Page oriPage = Database.getCatalog().getDatabaseFile(node.pageId.getTableId()).readPage(node.pageId);
-                remove(node);
-                node.page = oriPage;
-                insert(node);
-                pageCache.put(node.pageId, node);
+    public void restorePages(TransactionId tid) {
+        Set<PageId> pids = writeSets.get(tid);
+        if(pids == null) {
+            return ;
+        }
+        for(PageId pid : pids) {
+            Page page = cachedPage(pid);
+            if(page != null && tid.equals(page.isDirty())) {
+                Page oriPage = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                Segment seg = segmentFor(pid);
+                synchronized (seg) {
+                    if(seg.pageCache.get(pid) == page) {
+                        seg.pageCache.put(pid, oriPage);
+                    }
+                }
             }
         }
     }
@@ -367,9 +994,8 @@ public class BufferPool {
         List<Page> pages = dbFile.insertTuple(tid, t);
         for(Page page:pages) {
             page.markDirty(true, tid);
-            Node node = new Node(page.getId(), page);
-            insert(node);
-            pageCache.put(page.getId(), node);
+            writeSet(tid).add(page.getId());
+            cachePage(page.getId(), page, true);
         }
     }
 
@@ -391,18 +1017,11 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-//        System.out.println("1& " + t);
-//        System.out.println("1& " + t.getRecordId());
         List<Page> pages = dbFile.deleteTuple(tid, t);
-//        System.out.println("2& " + t);
-//        System.out.println("2& " + t.getRecordId());
         for(Page page:pages) {
             page.markDirty(true, tid);
-//            System.out.println("loop & " + t);
-//            System.out.println("loop & " + t.getRecordId());
-            Node node = new Node(page.getId(), page);
-            insert(node);
-            pageCache.put(page.getId(), node);
+            writeSet(tid).add(page.getId());
+            cachePage(page.getId(), page, true);
         }
     }
 
@@ -411,11 +1030,13 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for(Node node : pageCache.values()) {
-            flushPage(node.page.getId());
+        for(Segment seg : segments) {
+            for(Page page : pages(seg)) {
+                flushPage(page.getId());
+            }
         }
     }
 
@@ -427,21 +1048,40 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageCache.remove(pid);
+        Segment seg = segmentFor(pid);
+        synchronized (seg) {
+            if(seg.pageCache.remove(pid) != null) {
+                seg.policy.pageRemoved(pid);
+                numCached.decrementAndGet();
+                if(prefetched.remove(pid)) {
+                    prefetchWasted.increment();
+                }
+            }
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
 
-        Page page = pageCache.get(pid).page;
+        // only dirty pages are pinned against eviction, so the page can be
+        // written without holding the segment monitor; LogFile may call back
+        // into the pool while holding its own monitor
+        Segment seg = segmentFor(pid);
+        Page page;
+        synchronized (seg) {
+            page = seg.pageCache.get(pid);
+            if(page == null) {
+                return ;
+            }
+        }
 
         // lab 6 Getting started
         // append an update record to the log, with
@@ -460,41 +1100,71 @@ public class BufferPool {
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for(Node node : pageCache.values()) {
-            if(tid.equals(node.page.isDirty())) {
-                flushPage(node.pageId);
+        writePages(tid);
+    }
+
+    /**
+     * Writes the pages tid dirtied to disk. The update records of all of
+     * them are appended to the log first and the log is forced once before
+     * the pages are written, rather than once per page.
+     *
+     * @return the pages written
+     */
+    private List<Page> writePages(TransactionId tid) throws IOException {
+        Set<PageId> pids = writeSets.get(tid);
+        if(pids == null) {
+            return Collections.emptyList();
+        }
+        List<Page> dirty = new ArrayList<>();
+        for(PageId pid : pids) {
+            Page page = cachedPage(pid);
+            if(page != null && tid.equals(page.isDirty())) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                dirty.add(page);
             }
         }
+        if(dirty.isEmpty()) {
+            return dirty;
+        }
+        Database.getLogFile().force();
+        for(Page page : dirty) {
+            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+            page.markDirty(false, null);
+        }
+        return dirty;
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * The victim is chosen by the replacement policy of the preferred segment;
+     * other segments are only visited when every page of the preferred one
+     * is dirty.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Segment preferred) throws DbException {
         // some code goes here
         // not necessary for lab1
-
-//        // lab2 exe4
-//        Node node = R.left;
-//        remove(node);
-//        try {
-//            flushPage(node.pageId);
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-//        discardPage(node.pageId);
-
-        // lab4 exe3
-        for(Node node = R.left; node != L; node = node.left) {
-            if(node.page.isDirty() == null) {
-                // 不是脏页, evict
-                remove(node);
-                discardPage(node.pageId);
-                return ;
+        int start = 0;
+        while(segments[start] != preferred) {
+            start ++;
+        }
+        for(int i = 0;i < segments.length;i ++) {
+            Segment seg = segments[(start + i) & (segments.length - 1)];
+            synchronized (seg) {
+                // lab4 exe3: 只驱逐不是脏页的页面
+                PageId victim = seg.policy.evict(pid -> seg.pageCache.get(pid).isDirty() == null);
+                if(victim != null) {
+                    seg.pageCache.remove(victim);
+                    numCached.decrementAndGet();
+                    if(prefetched.remove(victim)) {
+                        prefetchWasted.increment();
+                    }
+                    return ;
+                }
             }
         }
         throw new DbException("all pages are dirty");
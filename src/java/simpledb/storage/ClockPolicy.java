@@ -0,0 +1,75 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Pages sit in a circular buffer of
+ * frames, each with a reference bit that is set on every hit. The clock hand
+ * sweeps the frames, clearing set bits, and evicts the first evictable page
+ * whose bit is already clear.
+ * <p>
+ * CLOCK approximates LRU with O(1) work per hit, but like LRU it is not scan
+ * resistant.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    /** Page in each frame; null for a free frame. */
+    private final ArrayList<PageId> frames = new ArrayList<>();
+    private final ArrayList<Boolean> referenced = new ArrayList<>();
+    /** Frame number of each page. */
+    private final HashMap<PageId, Integer> frameOf = new HashMap<>();
+    /** Free frames, reused before the buffer grows. */
+    private final ArrayList<Integer> free = new ArrayList<>();
+    private int hand = 0;
+
+    public void pageAdded(PageId pid) {
+        int frame;
+        if (free.isEmpty()) {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(Boolean.TRUE);
+        } else {
+            frame = free.remove(free.size() - 1);
+            frames.set(frame, pid);
+            referenced.set(frame, Boolean.TRUE);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    public void pageHit(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, Boolean.TRUE);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame, null);
+            free.add(frame);
+        }
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        int n = frames.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(frame);
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(frame)) {
+                referenced.set(frame, Boolean.FALSE);
+            } else if (evictable.test(pid)) {
+                pageRemoved(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -30,6 +30,23 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the next tuples to a batch, until it is full or there are no
+     * more tuples.
+     *
+     * @param batch a batch with the schema of the tuples of the file
+     * @return the number of tuples appended
+     */
+    default int nextBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (!batch.isFull() && hasNext()) {
+            batch.add(next());
+            n++;
+        }
+        return n;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
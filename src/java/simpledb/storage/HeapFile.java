@@ -24,6 +24,8 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc tupleDesc;
+    /** Channel for all page reads and writes of this file. */
+    private final PageChannel channel;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -36,6 +38,7 @@ public class HeapFile implements DbFile {
         // some code goes here
         file = f;
         tupleDesc = td;
+        channel = new PageChannel(f);
     }
 
     /**
@@ -48,6 +51,21 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * Turns the memory-mapped read path on or off. When it is on, readPage
+     * builds pages from a read-only mapping of the file instead of issuing
+     * a read system call per page. Meant for read-mostly tables; writes are
+     * not affected.
+     */
+    public void setMemoryMapped(boolean mapped) {
+        channel.setMapped(mapped);
+    }
+
+    /** @return true if pages are read through a memory mapping */
+    public boolean isMemoryMapped() {
+        return channel.isMapped();
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -77,17 +95,10 @@ public class HeapFile implements DbFile {
         // some code goes here
         int pageNumber = pid.getPageNumber();
         int pageSize = BufferPool.getPageSize();
-        RandomAccessFile randomAccessFile = null;
         try {
-            randomAccessFile = new RandomAccessFile(file, "r");
             byte[] data = new byte[pageSize];
-            randomAccessFile.seek(pageNumber * pageSize);
-            randomAccessFile.read(data);
-            HeapPage page = new HeapPage((HeapPageId) pid, data);
-            randomAccessFile.close();
-            return page;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            channel.read(data, (long) pageNumber * pageSize);
+            return new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -99,10 +110,7 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
 //        System.out.println(page.getId().getPageNumber() + " " + numPages());
-        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-        randomAccessFile.seek(page.getId().getPageNumber() * BufferPool.getPageSize());
-        randomAccessFile.write(page.getPageData());
-        randomAccessFile.close();
+        channel.write(page.getPageData(), (long) page.getId().getPageNumber() * BufferPool.getPageSize());
     }
 
     /**
@@ -160,35 +168,112 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, 0, -1);
     }
 
+    /**
+     * Returns an iterator over the tuples of pages [fromPage, toPage) of
+     * this file, so that a scan of the file can be split between workers
+     * that each read a range of pages. Pages past the end of the file at the
+     * time of the call are not read.
+     *
+     * @param fromPage the first page to read
+     * @param toPage one past the last page to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        return new HeapFileIterator(this, tid, fromPage, toPage);
+    }
+
+    /**
+     * Iterates over the tuples of the file page by page. Once the scan has
+     * read a few pages in a row, it asks the buffer pool to read the next
+     * pages ahead of it. The read-ahead depth adapts: it doubles when the
+     * scan catches up with a page that is still being read, and halves when
+     * a page read ahead was evicted before the scan got to it.
+     */
     private class HeapFileIterator implements DbFileIterator {
 
-        private Iterator<Tuple> it;
+        /** Consecutive pages read before read-ahead starts. */
+        private static final int SEQUENTIAL_RUN = 2;
+        private static final int MIN_DEPTH = 2;
+        private static final int MAX_DEPTH = 64;
+
+        private HeapPage.Slots it;
         private int nowPage;
 
+        /** Number of pages read in a row so far. */
+        private int run;
+        private int lastPage;
+        /** Pages to keep read ahead of the scan. */
+        private int depth;
+        /** Highest page number handed to the buffer pool for read-ahead. */
+        private int prefetchedTo;
+
         private final HeapFile heapFile;
         private final TransactionId transactionId;
+        /** The pages read are [firstPage, numPages). */
+        private final int firstPage;
         private final int numPages;
 
-        public HeapFileIterator(HeapFile heapFile, TransactionId transactionId) {
+        /**
+         * @param toPage one past the last page to read, or -1 to read up to
+         *               the end of the file
+         */
+        public HeapFileIterator(HeapFile heapFile, TransactionId transactionId, int fromPage, int toPage) {
             this.heapFile = heapFile;
             this.transactionId = transactionId;
-            this.numPages = numPages();
+            this.numPages = toPage < 0 ? numPages() : Math.min(toPage, numPages());
+            this.firstPage = Math.min(fromPage, numPages);
         }
 
-        private Iterator<Tuple> getIter(int pageNo) throws TransactionAbortedException, DbException {
+        private HeapPage.Slots getIter(int pageNo) throws TransactionAbortedException, DbException {
             HeapPageId pid = new HeapPageId(getId(), pageNo);
             BufferPool bufferPool = Database.getBufferPool();
+            readAhead(bufferPool, pid);
             HeapPage heapPage = (HeapPage) bufferPool.getPage(transactionId, pid, Permissions.READ_ONLY);
-            return heapPage.iterator();
+            return heapPage.slots();
+        }
+
+        /**
+         * Called before the scan fetches pid: adjusts the read-ahead depth
+         * and prefetches the pages up to depth pages past pid.
+         */
+        private void readAhead(BufferPool bufferPool, HeapPageId pid) {
+            int pageNo = pid.getPageNumber();
+            run = pageNo == lastPage + 1 ? run + 1 : 1;
+            lastPage = pageNo;
+            if(run < SEQUENTIAL_RUN || !bufferPool.isPrefetchEnabled()) {
+                return;
+            }
+            if(depth == 0) {
+                depth = MIN_DEPTH;
+                prefetchedTo = pageNo;
+            } else if(pageNo <= prefetchedTo) {
+                if(bufferPool.isPrefetching(pid)) {
+                    // the scan caught up with the read-ahead
+                    depth = Math.min(depth * 2, MAX_DEPTH);
+                } else if(!bufferPool.isCached(pid)) {
+                    // read too far ahead: the page was evicted before use
+                    depth = Math.max(depth / 2, MIN_DEPTH);
+                }
+            }
+            int last = Math.min(pageNo + depth, numPages - 1);
+            for(int next = Math.max(prefetchedTo, pageNo) + 1; next <= last; next++) {
+                if(!bufferPool.prefetchPage(new HeapPageId(getId(), next))) {
+                    break;
+                }
+                prefetchedTo = next;
+            }
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            nowPage = 0;
-            it = getIter(nowPage);
+            nowPage = firstPage;
+            run = 0;
+            lastPage = -1;
+            depth = 0;
+            prefetchedTo = -1;
+            it = nowPage < numPages ? getIter(nowPage) : null;
         }
 
         @Override
@@ -217,6 +302,16 @@ public class HeapFile implements DbFile {
             return it.next();
         }
 
+        /** Copies tuples into the batch page by page, see HeapPage.Slots#fill. */
+        @Override
+        public int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            int n = 0;
+            while(!batch.isFull() && hasNext()) {
+                n += it.fill(batch);
+            }
+            return n;
+        }
+
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             close();
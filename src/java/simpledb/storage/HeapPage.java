@@ -12,6 +12,12 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and creates a tuple only when it
+ * is first iterated over: every slot has the fixed size TupleDesc.getSize(),
+ * so a tuple is found by its offset, and its fields are decoded on first
+ * access. Tuples created this way and tuples inserted since the page was
+ * read are kept for later iterations.
  *
  * @see HeapFile
  * @see BufferPool
@@ -22,8 +28,13 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    /** The bytes the page was read from. Never modified. */
+    final byte[] data;
+    /** Tuples created or inserted so far, by slot; null until the first
+    one. Used slots without an entry are read from data when needed. */
+    Tuple[] tuples;
     final int numSlots;
+    private final int tupleSize;
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
@@ -45,30 +56,25 @@ public class HeapPage implements Page {
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
+     * <p>
+     * The page keeps a reference to data instead of copying it, so data
+     * must not be modified afterwards.
+     *
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.data = data;
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        // copy the header, which inserts and deletes change; tuples are
+        // read from data when they are asked for
+        header = Arrays.copyOf(data, getHeaderSize());
 
-        setBeforeImage();
+        // data is never modified, so it is the before-image as it is
+        oldData = data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -76,7 +82,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int)Math.floor(BufferPool.getPageSize()*8.0 / (Database.getCatalog().getTupleDesc(pid.getTableId()).getSize()*8 + 1));
+        return (int)Math.floor(BufferPool.getPageSize()*8.0 / (td.getSize()*8 + 1));
 
     }
 
@@ -87,7 +93,7 @@ public class HeapPage implements Page {
     private int getHeaderSize() {        
         
         // some code goes here
-        return (int)Math.ceil(getNumTuples() / 8.0);
+        return (int)Math.ceil(numSlots / 8.0);
                  
     }
     
@@ -125,37 +131,10 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data of the tuple in slot i
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
+    private int tupleOffset(int i) {
+        return header.length + i * tupleSize;
     }
 
     /**
@@ -185,7 +164,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -200,7 +179,17 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot, unchanged since the page was read
+            if (tuples == null || tuples[i] == null || tuples[i].isEncodedAt(data, tupleOffset(i))) {
+                try {
+                    dos.write(data, tupleOffset(i), tupleSize);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
+            // non-empty slot, inserted or changed since
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
@@ -213,7 +202,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + tupleSize * numSlots);
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -255,21 +244,17 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         int tupleNo = t.getRecordId().getTupleNumber();
-        if(tupleNo >= numSlots || tuples[tupleNo] == null) {
+        if(tupleNo >= numSlots || !isSlotUsed(tupleNo)) {
             throw new DbException("this tuple is not on this page");
         }
-        if(isSlotUsed(tupleNo)) {
-//            System.out.println(tuples[tupleNo].hashCode() + " & " + t.hashCode());
-//            System.out.println(tuples[tupleNo].equals(t));
-            if(t.getRecordId().getPageId().equals(pid)) {
+        if(t.getRecordId().getPageId().equals(pid)) {
+            if(tuples != null) {
                 tuples[tupleNo] = null;
-                markSlotUsed(tupleNo, false);
-                return ;
             }
-            throw new DbException("this tuple is not on this page");
-        } else {
-            throw new DbException("tuple slot is already empty");
+            markSlotUsed(tupleNo, false);
+            return ;
         }
+        throw new DbException("this tuple is not on this page");
     }
 
     /**
@@ -291,6 +276,9 @@ public class HeapPage implements Page {
         for(int i = 0;i < numSlots;i ++) {
             if(!isSlotUsed(i)) {
                 t.setRecordId(new RecordId(pid, i));
+                if(tuples == null) {
+                    tuples = new Tuple[numSlots];
+                }
                 tuples[i] = t;
                 markSlotUsed(i, true);
                 break ;
@@ -362,13 +350,98 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> tupleArrayList = new ArrayList<>();
-        for(int i = 0;i < numSlots;i ++) {
-            if(isSlotUsed(i)) {
-                tupleArrayList.add(tuples[i]);
+        return slots();
+    }
+
+    /**
+     * @return an iterator over all tuples on this page that can also copy
+     *         them into a batch
+     */
+    Slots slots() {
+        return new Slots();
+    }
+
+    /**
+     * Iterates over the used slots of the page. Tuples inserted during the
+     * iteration are not returned, tuples deleted before the iteration
+     * reaches them are skipped.
+     */
+    class Slots implements Iterator<Tuple> {
+        private final byte[] used = header.clone();
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            while(next < numSlots) {
+                if(used[next >> 3] == 0) {
+                    // skip the rest of an empty header byte
+                    next = (next | 7) + 1;
+                } else if(((used[next >> 3] >> (next & 7)) & 1) == 1 && isSlotUsed(next)) {
+                    return true;
+                } else {
+                    next ++;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Tuple next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
             }
+            return tupleAt(next ++);
         }
-        return tupleArrayList.iterator();
+
+        /**
+         * Appends the next tuples of the page to batch until it is full.
+         * Tuples unchanged since the page was read are added in their
+         * encoded form, without creating Tuple objects.
+         *
+         * @return the number of tuples appended
+         */
+        int fill(TupleBatch batch) {
+            int room = batch.capacity() - batch.size();
+            int n = 0;
+            Tuple[] ts = tuples;
+            while(n < room && next < numSlots) {
+                int bits = used[next >> 3];
+                if(bits == 0) {
+                    // skip the rest of an empty header byte
+                    next = (next | 7) + 1;
+                    continue;
+                }
+                if(((bits >> (next & 7)) & 1) == 1 && isSlotUsed(next)) {
+                    int off = tupleOffset(next);
+                    Tuple t = ts == null ? null : ts[next];
+                    if(t == null || t.isEncodedAt(data, off)) {
+                        batch.addEncoded(data, off);
+                    } else {
+                        batch.add(t);
+                    }
+                    n ++;
+                }
+                next ++;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * @return the tuple in used slot i, created from the page data if it has
+     *         not been asked for before
+     */
+    private Tuple tupleAt(int i) {
+        Tuple[] ts = tuples;
+        if(ts == null) {
+            ts = tuples = new Tuple[numSlots];
+        }
+        Tuple t = ts[i];
+        if(t == null) {
+            t = new Tuple(td, new RecordId(pid, i), data, tupleOffset(i));
+            ts[i] = t;
+        }
+        return t;
     }
 
 }
@@ -0,0 +1,105 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum, SIGMOD 1993).
+ * <p>
+ * For every page the policy keeps the logical times of its last K
+ * references. The victim is the page whose K-th most recent reference is
+ * oldest; pages referenced fewer than K times have an infinite backward
+ * K-distance and go first, least recently used among them first. The
+ * reference history of evicted pages is retained for a while, so a page that
+ * comes back soon after eviction keeps its history. Pages read once by a
+ * sequential scan never reach K references and are evicted ahead of pages
+ * that are used repeatedly.
+ * <p>
+ * Choosing a victim scans the pages of the segment, which is cheap because
+ * segments are small.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int retained;
+    /** Logical clock, advanced on every reference. */
+    private long now = 0;
+
+    /**
+     * Reference times of cached pages; history[0] is the most recent, unset
+     * entries are 0.
+     */
+    private final HashMap<PageId, long[]> history = new HashMap<>();
+    /** Reference times of recently evicted pages, oldest eviction first. */
+    private final LinkedHashMap<PageId, long[]> evicted = new LinkedHashMap<>();
+
+    /**
+     * @param k the number of references to track per page
+     * @param capacity the number of pages the segment is expected to hold;
+     *                 the history of as many evicted pages is retained
+     */
+    public LRUKPolicy(int k, int capacity) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.retained = Math.max(1, capacity);
+    }
+
+    public void pageAdded(PageId pid) {
+        long[] h = evicted.remove(pid);
+        if (h == null) {
+            h = new long[k];
+        }
+        reference(h);
+        history.put(pid, h);
+    }
+
+    public void pageHit(PageId pid) {
+        long[] h = history.get(pid);
+        if (h != null) {
+            reference(h);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        history.remove(pid);
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : history.entrySet()) {
+            long[] h = e.getValue();
+            long kth = h[k - 1];
+            // compare by K-th reference (0 = infinite distance), then by last reference
+            if (kth < victimKth || (kth == victimKth && h[0] < victimLast)) {
+                if (evictable.test(e.getKey())) {
+                    victim = e.getKey();
+                    victimKth = kth;
+                    victimLast = h[0];
+                }
+            }
+        }
+        if (victim != null) {
+            evicted.put(victim, history.remove(victim));
+            if (evicted.size() > retained) {
+                Iterator<PageId> it = evicted.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return victim;
+    }
+
+    private void reference(long[] h) {
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++now;
+    }
+}
@@ -0,0 +1,42 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Least recently used replacement. Victims are taken from the least recently
+ * used end, skipping pages that may not be evicted.
+ * <p>
+ * LRU is not scan resistant: a sequential scan larger than the pool pushes
+ * every other page out, however hot.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    /** Pages in access order, least recently used first. */
+    private final LinkedHashMap<PageId, Boolean> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+    public void pageAdded(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public void pageHit(PageId pid) {
+        pages.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
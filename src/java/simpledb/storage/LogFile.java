@@ -72,6 +72,21 @@ as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
 </ul>
+
+<p> Log records are appended to an in-memory log buffer, which is
+written to the file when it fills up, before the file is read and when
+the log is forced.  Positions in the log are also identified by a log
+sequence number (LSN), the number of bytes appended since the log was
+opened; unlike file offsets, LSNs do not change when the log is
+truncated.
+
+<p> With group commit (the default, see {@link #setGroupCommit}) a
+transaction that forces the log, on commit or when the buffer pool
+writes its pages, does not force the file itself but waits for a
+flusher thread, which forces the file once for every transaction
+waiting at the time.  The flusher may wait up to a batch window for
+more transactions to join a force (see {@link #setGroupCommitWindow}),
+which trades commit latency for fewer forces.
 */
 public class LogFile {
 
@@ -89,7 +104,47 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /** System property that turns group commit off, e.g.
+     * -Dsimpledb.storage.LogFile.groupCommit=false. */
+    public static final String GROUP_COMMIT_PROPERTY = "simpledb.storage.LogFile.groupCommit";
+    /** System property with the microseconds the flusher waits for more
+     * transactions before forcing the log, e.g.
+     * -Dsimpledb.storage.LogFile.groupCommitWindow=1000. */
+    public static final String WINDOW_PROPERTY = "simpledb.storage.LogFile.groupCommitWindow";
+    /** System property with the number of waiting transactions that ends
+     * the batch window early. */
+    public static final String BATCH_PROPERTY = "simpledb.storage.LogFile.groupCommitBatch";
+
+    private static volatile boolean groupCommit =
+            !"false".equalsIgnoreCase(System.getProperty(GROUP_COMMIT_PROPERTY));
+    private static volatile long windowMicros = Math.max(0, Long.getLong(WINDOW_PROPERTY, 0));
+    private static volatile int batchSize = Math.max(1, Integer.getInteger(BATCH_PROPERTY, Integer.MAX_VALUE));
+
+    /** The log buffer is written to the file once it holds this many bytes. */
+    static final int LOG_BUFFER_SIZE = 256 * 1024;
+    /** The flusher thread exits after this many milliseconds without requests. */
+    static final long FLUSHER_IDLE_MS = 1000;
+
     long currentOffset = -1;//protected by this
+    /** Records not yet written to the file, which start at file offset
+     * bufferStart. */
+    private final LogBuffer buffer = new LogBuffer(); //protected by this
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private long bufferStart = 0; //protected by this
+    /** LSN of file offset 0; grows when the log is truncated. */
+    private long lsnBase = 0; //protected by this
+
+    /** Guards the fields below; taken after this, never before. */
+    private final Object flushLock = new Object();
+    private long forcedLsn = 0;
+    private long forces = 0;
+    private long requestedLsn = 0;
+    private int waiting = 0;
+    private Thread flusher;
+    /** The error of the last failed force, and the number of failures; a
+     * failure is reported to the transactions waiting at the time only. */
+    private IOException flushError;
+    private long failures = 0;
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
@@ -123,6 +178,54 @@ public class LogFile {
         // may not match tableids in the current catalog.
     }
 
+    /**
+     * Turns group commit on or off. When it is off, every thread that forces
+     * the log forces the file itself, as long as the log is not already
+     * forced up to its records.
+     */
+    public static void setGroupCommit(boolean on) {
+        groupCommit = on;
+    }
+
+    public static boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Sets how long the flusher waits for more transactions before forcing
+     * the log, which bounds the latency group commit adds to a commit, and
+     * the number of waiting transactions after which it forces at once.
+     * With a window of 0 the flusher forces as soon as a transaction waits,
+     * and batches the transactions that arrive while it forces.
+     *
+     * @param micros the batch window in microseconds
+     * @param batch the number of waiting transactions that ends the window
+     */
+    public static void setGroupCommitWindow(long micros, int batch) {
+        windowMicros = Math.max(0, micros);
+        batchSize = Math.max(1, batch);
+    }
+
+    public static long getGroupCommitWindow() {
+        return windowMicros;
+    }
+
+    public static int getGroupCommitBatch() {
+        return batchSize;
+    }
+
+    /** A ByteArrayOutputStream that can be written to the log file without
+     * copying it. */
+    private static class LogBuffer extends ByteArrayOutputStream {
+        LogBuffer() {
+            super(LOG_BUFFER_SIZE);
+        }
+
+        void writeTo(RandomAccessFile f) throws IOException {
+            f.write(buf, 0, count);
+        }
+    }
+
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
@@ -134,10 +237,41 @@ public class LogFile {
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
             raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            currentOffset = bufferStart = raf.getFilePointer();
         }
     }
 
+    // ends the record in the log buffer with its start offset, and writes
+    // the buffer to the file if it is full
+    private void finishRecord() throws IOException {
+        out.writeLong(currentOffset);
+        currentOffset = bufferStart + buffer.size();
+        if (buffer.size() >= LOG_BUFFER_SIZE) {
+            writeBuffer();
+        }
+    }
+
+    /** Writes the log buffer to the file, without forcing it, and leaves
+        the file pointer at the end of the log. */
+    private void writeBuffer() throws IOException {
+        raf.seek(bufferStart);
+        buffer.writeTo(raf);
+        bufferStart += buffer.size();
+        buffer.reset();
+    }
+
+    /** @return the number of times the log file was forced to disk */
+    public long getForceCount() {
+        synchronized (flushLock) {
+            return forces;
+        }
+    }
+
+    /** @return the LSN of the end of the log */
+    public synchronized long getLsn() {
+        return lsnBase + currentOffset;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -161,32 +295,36 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                finishRecord();
+                forceNow();
                 tidToFirstLogRecord.remove(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  With group commit the force is
+        shared with other committing transactions, and other records can
+        be appended while this one waits for it.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            finishRecord();
+            tidToFirstLogRecord.remove(tid.getId());
+            lsn = getLsn();
+        }
+        force(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -200,7 +338,7 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
         /* update record conists of
 
@@ -210,18 +348,17 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(out,before);
+        writePageData(out,after);
+        finishRecord();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -301,11 +438,10 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        finishRecord();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -315,35 +451,34 @@ public class LogFile {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+                //Debug.log("CHECKPOINT, offset = " + currentOffset);
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
-                force();
+                forceNow();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = currentOffset;
+                out.writeInt(CHECKPOINT_RECORD);
+                out.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                out.writeInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    out.writeLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    out.writeLong(tidToFirstLogRecord.get(key));
                 }
+                finishRecord();
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                writeBuffer();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                raf.seek(bufferStart);
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -355,6 +490,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        writeBuffer();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -436,14 +572,21 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
+        // everything forced so far is forced in the new file too
+        logNew.getChannel().force(true);
+        logNew.close();
+        synchronized (flushLock) {
+            raf.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+        }
         raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        long end = raf.getFilePointer();
+        lsnBase += currentOffset - end;
+        currentOffset = bufferStart = end;
         //print();
     }
 
@@ -460,6 +603,7 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
+                writeBuffer();
                 // some code goes here
 
                 Long begin = tidToFirstLogRecord.get(tid.getId());
@@ -526,6 +670,9 @@ public class LogFile {
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        synchronized (this) {
+            writeBuffer();
+        }
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -600,8 +747,129 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force every record appended so far to disk. */
+    public void force() throws IOException {
+        force(getLsn());
+    }
+
+    /**
+     * Force the log to disk at least up to the specified LSN.  With group
+     * commit this waits for the flusher thread, unless the calling thread
+     * holds the log's lock, which the flusher needs to write the buffer.
+     *
+     * @param lsn the LSN of the end of the records that must be on disk
+     */
+    public void force(long lsn) throws IOException {
+        if (groupCommit && !Thread.holdsLock(this)) {
+            awaitForce(lsn);
+        } else {
+            synchronized (this) {
+                forceNow();
+            }
+        }
+    }
+
+    /** Writes the log buffer and forces the file in the calling thread,
+        unless the log is already forced up to its end. */
+    private void forceNow() throws IOException {
+        writeBuffer();
+        long lsn = getLsn();
+        synchronized (flushLock) {
+            if (lsn > forcedLsn) {
+                raf.getChannel().force(true);
+                forcedLsn = lsn;
+                forces++;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    /** Waits until the flusher has forced the log up to lsn. */
+    private void awaitForce(long lsn) throws IOException {
+        synchronized (flushLock) {
+            if (forcedLsn >= lsn) {
+                return;
+            }
+            long failed = failures;
+            requestedLsn = Math.max(requestedLsn, lsn);
+            waiting++;
+            if (flusher == null) {
+                flusher = new Thread(this::flushLoop, "simpledb-log-flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            flushLock.notifyAll();
+            try {
+                while (forcedLsn < lsn) {
+                    if (failures != failed) {
+                        throw new IOException("forcing the log failed", flushError);
+                    }
+                    flushLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for the log to be forced");
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    /**
+     * Body of the flusher thread. Whenever a transaction waits for the log
+     * to be forced, waits for the batch window to end or for enough
+     * transactions to wait, then writes the buffer and forces the file once
+     * for all of them. Exits after FLUSHER_IDLE_MS without requests, or
+     * when forcing fails, after failing the transactions waiting; the next
+     * transaction that waits starts a new flusher, which tries again.
+     */
+    private void flushLoop() {
+        try {
+            while (true) {
+                synchronized (flushLock) {
+                    long idleSince = System.currentTimeMillis();
+                    while (requestedLsn <= forcedLsn) {
+                        long idle = System.currentTimeMillis() - idleSince;
+                        if (idle >= FLUSHER_IDLE_MS) {
+                            flusher = null;
+                            return;
+                        }
+                        flushLock.wait(FLUSHER_IDLE_MS - idle);
+                    }
+                    long deadline = System.nanoTime() + windowMicros * 1000;
+                    long left;
+                    while (waiting < batchSize && (left = deadline - System.nanoTime()) > 0) {
+                        flushLock.wait(left / 1000000, (int) (left % 1000000));
+                    }
+                }
+
+                long lsn;
+                synchronized (this) {
+                    writeBuffer();
+                    lsn = getLsn();
+                }
+                synchronized (flushLock) {
+                    if (lsn > forcedLsn) {
+                        raf.getChannel().force(true);
+                        forcedLsn = lsn;
+                        forces++;
+                    }
+                    flushLock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (flushLock) {
+                flushError = e;
+                failures++;
+                requestedLsn = forcedLsn;
+                flusher = null;
+                flushLock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            synchronized (flushLock) {
+                flusher = null;
+            }
+        }
     }
 
 }
@@ -0,0 +1,234 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * A long-lived FileChannel over the file of a DbFile, used for its page
+ * reads and writes. Reads and writes are positional, so one channel can be
+ * shared by any number of threads without seeking.
+ * <p>
+ * The channel is opened on first use. To bound the number of open file
+ * descriptors, at most {@link #MAX_OPEN} channels are open at once across
+ * all files; opening another one closes the channel that was opened the
+ * longest time ago, which is transparently reopened on its next use.
+ * <p>
+ * In mapped mode, reads are served from a read-only memory mapping of the
+ * file instead of read system calls. Writes still go through the channel;
+ * the mapping is shared with the OS page cache, so it sees them. When a
+ * read goes past the end of the mapping because the file has grown, the
+ * file is mapped again at its new size. Only the first 2GB of a file are
+ * mapped; reads beyond that use the channel.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    /** Maximum number of channels open at the same time. */
+    public static final int MAX_OPEN = 256;
+
+    /** Open channels, oldest first. Guarded by the class monitor. */
+    private static final LinkedHashSet<PageChannel> opened = new LinkedHashSet<>();
+
+    private final File file;
+    private volatile FileChannel channel;
+    private volatile boolean mapped;
+    /** Mapping of the start of the file, created on the first mapped read. */
+    private volatile MappedByteBuffer map;
+    /** Serializes remapping; taken before the monitors used by channel(). */
+    private final Object mapLock = new Object();
+
+    public PageChannel(File file) {
+        this.file = file;
+    }
+
+    /** @return the file this channel reads and writes */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Turns mapped mode on or off for subsequent reads.
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+        if (!mapped) {
+            map = null;
+        }
+    }
+
+    /** @return true if reads are served from a memory mapping */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        PageChannel evicted = null;
+        synchronized (PageChannel.class) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    try {
+                        ch = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    } catch (AccessDeniedException e) {
+                        ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    }
+                    channel = ch;
+                    opened.remove(this);
+                    opened.add(this);
+                }
+            }
+            if (opened.size() > MAX_OPEN) {
+                Iterator<PageChannel> it = opened.iterator();
+                evicted = it.next();
+                it.remove();
+            }
+        }
+        if (evicted != null) {
+            evicted.closeChannel();
+        }
+        return ch;
+    }
+
+    /**
+     * Reads up to buf.length bytes starting at the given file offset. Bytes
+     * past the end of the file are left untouched.
+     *
+     * @return the number of bytes read, -1 if offset is past the end of file
+     */
+    public int read(byte[] buf, long offset) throws IOException {
+        if (mapped && offset + buf.length <= Integer.MAX_VALUE) {
+            return readMapped(buf, (int) offset);
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                while (bb.hasRemaining()) {
+                    int n = ch.read(bb, offset + bb.position());
+                    if (n < 0) {
+                        break;
+                    }
+                }
+                return bb.position() == 0 && buf.length > 0 ? -1 : bb.position();
+            } catch (ClosedByInterruptException e) {
+                throw new InterruptedIOException("interrupted while reading " + file);
+            } catch (ClosedChannelException e) {
+                // closed by another thread to free a descriptor; reopen and retry
+            }
+        }
+    }
+
+    private int readMapped(byte[] buf, int offset) throws IOException {
+        MappedByteBuffer m = map;
+        if (m == null || offset + buf.length > m.capacity()) {
+            m = remap(offset + buf.length);
+        }
+        if (offset >= m.capacity()) {
+            return buf.length == 0 ? 0 : -1;
+        }
+        int n = Math.min(buf.length, m.capacity() - offset);
+        ByteBuffer src = m.duplicate();
+        src.position(offset);
+        src.get(buf, 0, n);
+        return n;
+    }
+
+    /**
+     * Maps the file again if it has grown since it was mapped.
+     *
+     * @param needed the mapping size the caller would like
+     */
+    private MappedByteBuffer remap(long needed) throws IOException {
+        synchronized (mapLock) {
+            MappedByteBuffer m = map;
+            if (m != null && m.capacity() >= needed) {
+                return m;
+            }
+            while (true) {
+                FileChannel ch = channel();
+                try {
+                    long size = Math.min(ch.size(), Integer.MAX_VALUE);
+                    if (m == null || size > m.capacity()) {
+                        m = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                        map = m;
+                    }
+                    return m;
+                } catch (ClosedByInterruptException e) {
+                    throw new InterruptedIOException("interrupted while mapping " + file);
+                } catch (ClosedChannelException e) {
+                    // closed by another thread to free a descriptor; reopen and retry
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all of data at the given file offset, growing the file if
+     * needed.
+     */
+    public void write(byte[] data, long offset) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                while (bb.hasRemaining()) {
+                    ch.write(bb, offset + bb.position());
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw new InterruptedIOException("interrupted while writing " + file);
+            } catch (ClosedChannelException e) {
+                // closed by another thread to free a descriptor; reopen and retry
+            }
+        }
+    }
+
+    /**
+     * Forces written data to the storage device.
+     */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /**
+     * Closes the underlying channel. It is reopened if the file is used
+     * again.
+     */
+    public void close() {
+        synchronized (PageChannel.class) {
+            opened.remove(this);
+        }
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        FileChannel ch;
+        synchronized (this) {
+            ch = channel;
+            channel = null;
+        }
+        if (ch != null) {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                // nothing was buffered, so there is nothing to lose
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page a BufferPool segment gives up when
+ * the pool is full. Each segment owns one policy instance and calls it while
+ * holding the segment's monitor, so implementations need no synchronization
+ * of their own.
+ * <p>
+ * The pool tells the policy about every page that enters the segment, every
+ * cache hit, and every page that leaves for any reason other than eviction
+ * (e.g. discardPage). The policy only tracks page ids; the pool decides
+ * which pages may be evicted (dirty pages are pinned under NO STEAL).
+ * <p>
+ * The policy used by a pool is chosen when the pool is created, either
+ * explicitly or through the system property
+ * {@value #POLICY_PROPERTY}, e.g. -Dsimpledb.storage.BufferPool.policy=2q.
+ */
+public interface ReplacementPolicy {
+
+    /** System property that selects the policy of pools created without one. */
+    String POLICY_PROPERTY = "simpledb.storage.BufferPool.policy";
+
+    /** The available policies. */
+    enum Type {
+        /** Least recently used; the original BufferPool behavior. */
+        LRU("lru", 0) {
+            public ReplacementPolicy create(int capacity) {
+                return new LRUPolicy();
+            }
+        },
+        /** Second-chance CLOCK over a circular buffer of frames. */
+        CLOCK("clock", 0) {
+            public ReplacementPolicy create(int capacity) {
+                return new ClockPolicy();
+            }
+        },
+        /** Full 2Q (Johnson and Shasha), scan resistant. */
+        TWO_Q("2q", 64) {
+            public ReplacementPolicy create(int capacity) {
+                return new TwoQueuePolicy(capacity);
+            }
+        },
+        /** LRU-K with K = 2 (O'Neil et al.), scan resistant. */
+        LRU_K("lru-k", 64) {
+            public ReplacementPolicy create(int capacity) {
+                return new LRUKPolicy(LRUKPolicy.DEFAULT_K, capacity);
+            }
+        };
+
+        private final String name;
+        private final int minSegmentPages;
+
+        Type(String name, int minSegmentPages) {
+            this.name = name;
+            this.minSegmentPages = minSegmentPages;
+        }
+
+        /**
+         * Creates a policy for one segment.
+         *
+         * @param capacity the number of pages the segment is expected to
+         *                 hold; a sizing hint, not a limit
+         */
+        public abstract ReplacementPolicy create(int capacity);
+
+        /**
+         * @return the fewest pages a segment using this policy should be
+         *         expected to hold. The scan resistant policies size their
+         *         queues and histories from the segment capacity, and are
+         *         no better than FIFO when segments hold a handful of pages;
+         *         LRU and CLOCK work with segments of any size and return 0.
+         */
+        public int getMinSegmentPages() {
+            return minSegmentPages;
+        }
+
+        /** @return the name used to select this policy, e.g. "2q" */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Looks up a policy by name (case-insensitive).
+         *
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        public static Type fromName(String name) {
+            for (Type t : values()) {
+                if (t.name.equalsIgnoreCase(name) || t.name().equalsIgnoreCase(name)) {
+                    return t;
+                }
+            }
+            throw new IllegalArgumentException("unknown replacement policy: " + name);
+        }
+
+        /** @return the policy selected by {@link ReplacementPolicy#POLICY_PROPERTY}, LRU if unset */
+        public static Type fromSystemProperty() {
+            String name = System.getProperty(POLICY_PROPERTY);
+            return name == null || name.isEmpty() ? LRU : fromName(name);
+        }
+    }
+
+    /** Called when pid is brought into the segment. */
+    void pageAdded(PageId pid);
+
+    /** Called when a fetch of pid is served from the segment. */
+    void pageHit(PageId pid);
+
+    /** Called when pid leaves the segment without being chosen as a victim. */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Chooses a victim among the pages of the segment and forgets it.
+     *
+     * @param evictable tells whether a page may be evicted
+     * @return the victim, or null if no page is evictable
+     */
+    PageId evict(Predicate<PageId> evictable);
+}
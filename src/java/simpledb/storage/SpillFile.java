@@ -0,0 +1,160 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A temporary file of tuples that operators write when their input does not
+ * fit in memory, and read back sequentially. Tuples are stored in their
+ * page format, TupleDesc.getSize() bytes each, and read back as tuples that
+ * decode their fields on first access. Record ids are not kept.
+ * <p>
+ * The file is created on the first write and deleted by {@link #delete()}.
+ * A file can be read any number of times once writing is done; writing
+ * again after a read appends.
+ */
+public class SpillFile {
+
+    /** Bytes buffered in memory by a writer or an open reader. */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /** Memory budget of an operator that spills, when the system property
+     * with its budget is not set: 16MB. */
+    public static final long DEFAULT_MEMORY = 16L << 20;
+    /** Estimated heap bytes of an in-memory tuple beyond its field data. */
+    public static final int TUPLE_OVERHEAD = 64;
+
+    private final TupleDesc td;
+    private File file;
+    private DataOutputStream out;
+    private long size;
+
+    /**
+     * @param td the schema of the tuples in this file
+     */
+    public SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    /**
+     * Reads the memory budget of an operator that spills. Operators read
+     * their budget when they are opened, so a new budget takes effect on
+     * the next open().
+     *
+     * @param property the system property with the operator's budget
+     * @return the budget in bytes, DEFAULT_MEMORY if the property is not set
+     */
+    public static long memoryBudget(String property) {
+        return Long.getLong(property, DEFAULT_MEMORY);
+    }
+
+    /** @return the estimated heap bytes of an in-memory tuple of td */
+    public static long tupleBytes(TupleDesc td) {
+        return td.getSize() + TUPLE_OVERHEAD;
+    }
+
+    /** @return the number of tuples written */
+    public long size() {
+        return size;
+    }
+
+    /** @return the number of bytes the tuples in this file take */
+    public long bytes() {
+        return size * td.getSize();
+    }
+
+    /**
+     * Appends a tuple. Every field of t must be set.
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            if (file == null) {
+                file = File.createTempFile("simpledb-spill", ".tmp");
+                file.deleteOnExit();
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE));
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(out);
+        }
+        size++;
+    }
+
+    /**
+     * Finishes writing and returns a reader positioned at the first tuple.
+     */
+    public Reader reader() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * Deletes the file. The SpillFile is empty afterwards and can be
+     * reused.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            out = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Reads the tuples of a SpillFile in the order they were written.
+     */
+    public class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        private long left = size;
+
+        private Reader() throws IOException {
+            in = file == null ? null
+                    : new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * @return the next tuple, or null after the last one
+         */
+        public Tuple next() throws IOException {
+            if (left == 0) {
+                return null;
+            }
+            byte[] data = new byte[td.getSize()];
+            try {
+                in.readFully(data);
+            } catch (EOFException e) {
+                throw new IOException("spill file " + file + " is truncated", e);
+            }
+            left--;
+            return new Tuple(td, null, data, 0);
+        }
+
+        @Override
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to flush on an input stream
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package simpledb.storage;
 
+import simpledb.common.Type;
+
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -10,6 +13,13 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The fields are kept in an array sized from the schema. Operators that
+ * build tuples out of other tuples, like joins and projections, should use
+ * {@link #merge} and {@link #project}, which copy field references in bulk.
+ * <p>
+ * A tuple read from a page may be backed by the page's bytes; its fields
+ * are then decoded on first access.
  */
 public class Tuple implements Serializable {
 
@@ -19,7 +29,12 @@ public class Tuple implements Serializable {
 
     private RecordId recordId;
 
-    private ArrayList<Field> fields;
+    private final Field[] fields;
+
+    /** Encoded fields of a tuple read from a page, or null once the tuple
+    has been changed. Never modified. */
+    private transient byte[] source;
+    private transient int sourceOffset;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -31,7 +46,24 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.tupleDesc = td;
-        fields = new ArrayList<>(td.numFields());
+        fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are decoded on demand from their encoded
+     * form, td.getSize() bytes at offset in data.
+     *
+     * @param td the schema of this tuple
+     * @param rid the location of this tuple
+     * @param data the bytes holding this tuple; must not be modified later
+     * @param offset the index of the tuple's first byte in data
+     */
+    Tuple(TupleDesc td, RecordId rid, byte[] data, int offset) {
+        this.tupleDesc = td;
+        this.recordId = rid;
+        this.fields = new Field[td.numFields()];
+        this.source = data;
+        this.sourceOffset = offset;
     }
 
     /**
@@ -72,7 +104,8 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        this.fields.add(i, f);
+        detach();
+        this.fields[i] = f;
     }
 
     /**
@@ -83,7 +116,103 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return this.fields.get(i);
+        Field f = this.fields[i];
+        if(f == null && source != null) {
+            f = tupleDesc.getFieldType(i).parse(source, sourceOffset + tupleDesc.getOffset(i));
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an int field. A
+     *         field not decoded yet is read straight from the encoded bytes
+     *         without creating a Field.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        Field f = this.fields[i];
+        if(f == null && source != null) {
+            return Type.readInt(source, sourceOffset + tupleDesc.getOffset(i));
+        }
+        return ((IntField) f).getValue();
+    }
+
+    /** Decodes the fields not decoded yet. */
+    private void decodeAll() {
+        if(source == null) {
+            return;
+        }
+        int off = sourceOffset;
+        for (int i = 0; i < fields.length; i++) {
+            if(fields[i] == null) {
+                fields[i] = tupleDesc.getFieldType(i).parse(source, off);
+            }
+            off += tupleDesc.getFieldType(i).getLen();
+        }
+    }
+
+    /** Decodes all fields and drops the encoded form, before a change. */
+    private void detach() {
+        decodeAll();
+        source = null;
+    }
+
+    /**
+     * Creates the concatenation of two tuples, as produced by joins.
+     *
+     * @param td the schema of the result, normally
+     *           TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc())
+     * @param t1 the tuple whose fields come first
+     * @param t2 the tuple whose fields follow
+     * @return a new tuple with the fields of t1 followed by those of t2
+     * @throws IllegalArgumentException if td does not have as many fields
+     *         as t1 and t2 together
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        int n1 = t1.fields.length;
+        if (td.numFields() != n1 + t2.fields.length) {
+            throw new IllegalArgumentException("merging " + n1 + " and " + t2.fields.length
+                    + " fields into a tuple of " + td.numFields());
+        }
+        t1.decodeAll();
+        t2.decodeAll();
+        Tuple t = new Tuple(td);
+        System.arraycopy(t1.fields, 0, t.fields, 0, n1);
+        System.arraycopy(t2.fields, 0, t.fields, n1, t2.fields.length);
+        return t;
+    }
+
+    /**
+     * Creates a tuple with some of the fields of this tuple.
+     *
+     * @param td the schema of the result
+     * @param fieldIds for each field of the result, the index of the field
+     *                 of this tuple it takes its value from
+     * @return a new tuple with the same record id as this one
+     */
+    public Tuple project(TupleDesc td, int[] fieldIds) {
+        Tuple t = new Tuple(td);
+        t.recordId = recordId;
+        for (int i = 0; i < fieldIds.length; i++) {
+            t.fields[i] = getField(fieldIds[i]);
+        }
+        return t;
+    }
+
+    /**
+     * @return true if this tuple is unchanged since it was created from
+     *         the bytes at offset in data
+     */
+    boolean isEncodedAt(byte[] data, int offset) {
+        return source == data && sourceOffset == offset;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -96,9 +225,10 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
+        decodeAll();
         StringBuilder sb = new StringBuilder();
-        for(int i = 0;i < fields.size();i ++) {
-            sb.append(fields.get(i).toString() + "\t");
+        for(int i = 0;i < fields.length;i ++) {
+            sb.append(fields[i]).append('\t');
         }
         return sb.toString();
 //        throw new UnsupportedOperationException("Implement this");
@@ -111,7 +241,8 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return this.fields.iterator();
+        decodeAll();
+        return Arrays.asList(this.fields).iterator();
     }
 
     /**
@@ -120,6 +251,7 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        detach();
         this.tupleDesc = td;
     }
 }
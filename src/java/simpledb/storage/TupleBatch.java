@@ -0,0 +1,330 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.Arrays;
+
+/**
+ * A batch of up to {@link #capacity()} tuples stored by column, which
+ * operators pass to each other in batch-at-a-time execution (see
+ * {@link simpledb.execution.OpIterator#nextBatch}). Int columns are kept in
+ * int arrays, so that operators can work on them without creating a Tuple
+ * or an IntField per row; other columns are kept as Field arrays.
+ * <p>
+ * Rows read from pages keep a reference to their encoded form, and a
+ * column is only decoded when it is first asked for, so that columns no
+ * operator looks at are never decoded.
+ * <p>
+ * Rows are numbered from 0 to size() - 1. The batches an operator returns
+ * are normally reused by its next call, and columns may be shared with the
+ * batch of its child (see {@link #project}).
+ */
+public class TupleBatch {
+
+    /** The number of rows operators put in a batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    /** Per column, its values if it is an int column, else null. */
+    private final int[][] ints;
+    /** Per column, its values if it is not an int column, else null. */
+    private final Field[][] fields;
+    private int size;
+
+    /** Per row, the bytes holding its encoded form and where it starts;
+     * null if the rows were not all added from their encoded form. */
+    private byte[][] sources;
+    private int[] sourceOffsets;
+    /** Per column, whether its values are set for all rows. */
+    private final boolean[] decoded;
+    /** The number of columns not decoded. */
+    private int undecoded;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows of the batch
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+        this.decoded = new boolean[td.numFields()];
+        Arrays.fill(decoded, true);
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int size, int[][] ints, Field[][] fields) {
+        this.td = td;
+        this.capacity = capacity;
+        this.size = size;
+        this.ints = ints;
+        this.fields = fields;
+        this.decoded = new boolean[ints.length];
+        Arrays.fill(decoded, true);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in this batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return the maximum number of rows in this batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        for (Field[] column : fields) {
+            if (column != null) {
+                Arrays.fill(column, 0, size, null);
+            }
+        }
+        if (sources != null) {
+            Arrays.fill(sources, 0, size, null);
+        }
+        Arrays.fill(decoded, true);
+        undecoded = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the values of int column i, valid from 0 to size() - 1
+     */
+    public int[] getInts(int i) {
+        if (!decoded[i]) {
+            decode(i);
+        }
+        return ints[i];
+    }
+
+    /**
+     * @return the value of int column i in a row
+     */
+    public int getInt(int row, int i) {
+        return getInts(i)[row];
+    }
+
+    /**
+     * @return the value of column i in a row; values of int columns are
+     *         boxed into a new IntField
+     */
+    public Field getField(int row, int i) {
+        if (!decoded[i]) {
+            decode(i);
+        }
+        return ints[i] != null ? new IntField(ints[i][row]) : fields[i][row];
+    }
+
+    /**
+     * @return a new tuple with the values of a row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(row, i));
+        }
+        return t;
+    }
+
+    /** Sets column i for all rows from their encoded form. */
+    private void decode(int i) {
+        int fieldOffset = td.getOffset(i);
+        if (ints[i] != null) {
+            int[] column = ints[i];
+            for (int k = 0; k < size; k++) {
+                column[k] = Type.readInt(sources[k], sourceOffsets[k] + fieldOffset);
+            }
+        } else {
+            Field[] column = fields[i];
+            Type type = td.getFieldType(i);
+            for (int k = 0; k < size; k++) {
+                column[k] = type.parse(sources[k], sourceOffsets[k] + fieldOffset);
+            }
+        }
+        decoded[i] = true;
+        undecoded--;
+    }
+
+    /** Decodes all columns, before rows are added that have no encoded form. */
+    private void decodeAll() {
+        for (int i = 0; i < ints.length; i++) {
+            if (!decoded[i]) {
+                decode(i);
+            }
+        }
+    }
+
+    /**
+     * Appends the fields of t as a row. The batch must not be full.
+     */
+    public void add(Tuple t) {
+        decodeAll();
+        for (int i = 0; i < ints.length; i++) {
+            put(i, t, i);
+        }
+        size++;
+    }
+
+    /**
+     * Appends the concatenation of t1 and t2 as a row, as a join would.
+     */
+    public void addJoined(Tuple t1, Tuple t2) {
+        decodeAll();
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            put(i, t1, i);
+        }
+        for (int i = n1; i < ints.length; i++) {
+            put(i, t2, i - n1);
+        }
+        size++;
+    }
+
+    /**
+     * Appends the concatenation of t1 and a row of b2 as a row, as a join
+     * would.
+     */
+    public void addJoined(Tuple t1, TupleBatch b2, int row2) {
+        decodeAll();
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            put(i, t1, i);
+        }
+        for (int i = n1; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = b2.getInt(row2, i - n1);
+            } else {
+                fields[i][size] = b2.getField(row2, i - n1);
+            }
+        }
+        size++;
+    }
+
+    private void put(int i, Tuple t, int field) {
+        if (ints[i] != null) {
+            ints[i][size] = t.getInt(field);
+        } else {
+            fields[i][size] = t.getField(field);
+        }
+    }
+
+    /**
+     * Appends a row from its encoded form, td.getSize() bytes at offset in
+     * data, without creating a Tuple. Its fields are decoded when their
+     * column is first asked for, so data must not be modified.
+     */
+    void addEncoded(byte[] data, int offset) {
+        if (size == 0) {
+            if (sources == null) {
+                sources = new byte[capacity][];
+                sourceOffsets = new int[capacity];
+            }
+            Arrays.fill(decoded, false);
+            undecoded = decoded.length;
+        }
+        if (undecoded > 0) {
+            sources[size] = data;
+            sourceOffsets[size] = offset;
+        }
+        if (undecoded < decoded.length) {
+            // columns already decoded get this row's value now
+            for (int i = 0; i < ints.length; i++) {
+                if (!decoded[i]) {
+                    continue;
+                }
+                if (ints[i] != null) {
+                    ints[i][size] = Type.readInt(data, offset + td.getOffset(i));
+                } else {
+                    fields[i][size] = td.getFieldType(i).parse(data, offset + td.getOffset(i));
+                }
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Keeps only the given rows, in the given order.
+     *
+     * @param rows the rows to keep, ascending
+     * @param n the number of entries of rows to use
+     */
+    public void retain(int[] rows, int n) {
+        for (int i = 0; i < ints.length; i++) {
+            if (!decoded[i] || isSharedBefore(i)) {
+                // compacted through the encoded rows below, or through an
+                // earlier column
+                continue;
+            }
+            if (ints[i] != null) {
+                int[] column = ints[i];
+                for (int k = 0; k < n; k++) {
+                    column[k] = column[rows[k]];
+                }
+            } else {
+                Field[] column = fields[i];
+                for (int k = 0; k < n; k++) {
+                    column[k] = column[rows[k]];
+                }
+                Arrays.fill(column, n, size, null);
+            }
+        }
+        if (undecoded > 0) {
+            for (int k = 0; k < n; k++) {
+                sources[k] = sources[rows[k]];
+                sourceOffsets[k] = sourceOffsets[rows[k]];
+            }
+            Arrays.fill(sources, n, size, null);
+        }
+        size = n;
+    }
+
+    private boolean isSharedBefore(int i) {
+        for (int j = 0; j < i; j++) {
+            if ((ints[i] != null && ints[j] == ints[i]) || (fields[i] != null && fields[j] == fields[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a batch with some of the columns of this batch. The columns
+     * are decoded and shared, not copied, so the result is only valid as
+     * long as this batch is not changed.
+     *
+     * @param td the schema of the result
+     * @param columns for each column of the result, the index of the column
+     *                of this batch it takes its values from
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        int[][] pInts = new int[columns.length][];
+        Field[][] pFields = new Field[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            if (!decoded[columns[i]]) {
+                decode(columns[i]);
+            }
+            pInts[i] = ints[columns[i]];
+            pFields[i] = fields[columns[i]];
+        }
+        return new TupleBatch(td, capacity, size, pInts, pFields);
+    }
+}
@@ -3,10 +3,14 @@ package simpledb.storage;
 import simpledb.common.Type;
 
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 /**
  * TupleDesc describes the schema of a tuple.
+ * <p>
+ * TupleDescs are immutable, so everything derived from the fields is
+ * computed once, and equal descriptors can be shared; see {@link #intern()}.
  */
 public class TupleDesc implements Serializable {
 
@@ -37,7 +41,55 @@ public class TupleDesc implements Serializable {
         }
     }
 
-    ArrayList<TDItem> tdItems;
+    private final TDItem[] tdItems;
+
+    /** Byte offset of each field within a serialized tuple. */
+    private final int[] offsets;
+    private final int size;
+    /** Index of the first field with each (non-null) name, built on the
+    first lookup. */
+    private transient volatile HashMap<String, Integer> nameToIndex;
+    private final int hash;
+
+    /** Canonical instances handed out by {@link #intern()}. An entry goes
+    away once its TupleDesc is no longer referenced. */
+    private static final Map<InternKey, WeakReference<TupleDesc>> interned =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    /** This descriptor's key in the intern table, if it is the canonical
+    instance; keeps the weak entry alive as long as the descriptor is. */
+    private transient InternKey internKey;
+
+    /** Types and names of a TupleDesc, compared by value. */
+    private static final class InternKey {
+        private final Type[] types;
+        private final String[] names;
+        private final int hash;
+
+        InternKey(TupleDesc td) {
+            int n = td.numFields();
+            types = new Type[n];
+            names = new String[n];
+            for (int i = 0; i < n; i++) {
+                types[i] = td.tdItems[i].fieldType;
+                names[i] = td.tdItems[i].fieldName;
+            }
+            hash = 31 * td.hash + Arrays.hashCode(names);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof InternKey)) {
+                return false;
+            }
+            InternKey k = (InternKey) o;
+            return Arrays.equals(types, k.types) && Arrays.equals(names, k.names);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 
     /**
      * @return
@@ -46,7 +98,7 @@ public class TupleDesc implements Serializable {
      * */
     public Iterator<TDItem> iterator() {
         // some code goes here
-        return tdItems.iterator();
+        return Collections.unmodifiableList(Arrays.asList(tdItems)).iterator();
     }
 
     private static final long serialVersionUID = 1L;
@@ -54,6 +106,9 @@ public class TupleDesc implements Serializable {
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
+     * <p>
+     * TupleDescs are immutable. Their size, field offsets and hash code are
+     * computed here, once; the name lookup table on the first lookup.
      * 
      * @param typeAr
      *            array specifying the number of and types of fields in this
@@ -64,10 +119,19 @@ public class TupleDesc implements Serializable {
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
         // some code goes here
-        tdItems = new ArrayList<>(typeAr.length);
-        for(int i = 0;i < typeAr.length;i ++) {
-            tdItems.add(i, new TDItem(typeAr[i], fieldAr[i]));
+        int n = typeAr.length;
+        tdItems = new TDItem[n];
+        offsets = new int[n];
+        int off = 0;
+        int h = 1;
+        for(int i = 0;i < n;i ++) {
+            tdItems[i] = new TDItem(typeAr[i], fieldAr[i]);
+            offsets[i] = off;
+            off += typeAr[i].getLen();
+            h = 31 * h + typeAr[i].ordinal();
         }
+        size = off;
+        hash = h;
     }
 
     /**
@@ -80,9 +144,37 @@ public class TupleDesc implements Serializable {
      */
     public TupleDesc(Type[] typeAr) {
         // some code goes here
-        tdItems = new ArrayList<>(typeAr.length);
-        for(int i = 0;i < typeAr.length;i ++) {
-            tdItems.add(i, new TDItem(typeAr[i], ""));
+        this(typeAr, anonymous(typeAr.length));
+    }
+
+    private static String[] anonymous(int n) {
+        String[] names = new String[n];
+        Arrays.fill(names, "");
+        return names;
+    }
+
+    /**
+     * Returns the canonical TupleDesc with the same field types and names
+     * as this one. Interned descriptors can be compared with ==, and code
+     * that keeps descriptors for a long time, like the catalog, shares one
+     * instance per schema.
+     *
+     * @return the canonical instance, which may be this TupleDesc
+     */
+    public TupleDesc intern() {
+        if(internKey != null) {
+            return this;
+        }
+        InternKey key = new InternKey(this);
+        synchronized (interned) {
+            WeakReference<TupleDesc> ref = interned.get(key);
+            TupleDesc td = ref == null ? null : ref.get();
+            if(td == null) {
+                td = this;
+                internKey = key;
+                interned.put(key, new WeakReference<>(this));
+            }
+            return td;
         }
     }
 
@@ -91,7 +183,7 @@ public class TupleDesc implements Serializable {
      */
     public int numFields() {
         // some code goes here
-        return tdItems.size();
+        return tdItems.length;
     }
 
     /**
@@ -106,7 +198,7 @@ public class TupleDesc implements Serializable {
     public String getFieldName(int i) throws NoSuchElementException {
         // some code goes here
         if(i >= this.numFields() || i < 0) throw new NoSuchElementException();
-        return tdItems.get(i).fieldName;
+        return tdItems[i].fieldName;
     }
 
     /**
@@ -122,7 +214,21 @@ public class TupleDesc implements Serializable {
     public Type getFieldType(int i) throws NoSuchElementException {
         // some code goes here
         if(i >= this.numFields() || i < 0) throw new NoSuchElementException();
-        return tdItems.get(i).fieldType;
+        return tdItems[i].fieldType;
+    }
+
+    /**
+     * Gets the byte offset of the ith field in a serialized tuple.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the sum of the lengths of the fields before field i
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+        if(i >= this.numFields() || i < 0) throw new NoSuchElementException();
+        return offsets[i];
     }
 
     /**
@@ -136,12 +242,20 @@ public class TupleDesc implements Serializable {
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
         // some code goes here
-        int i = 0;
-        while(i < tdItems.size()) {
-            if(tdItems.get(i).fieldName.equals(name)) return i;
-            i ++;
+        if(name == null) throw new NoSuchElementException();
+        HashMap<String, Integer> names = nameToIndex;
+        if(names == null) {
+            names = new HashMap<>(tdItems.length * 2);
+            for(int i = tdItems.length - 1;i >= 0;i --) {
+                if(tdItems[i].fieldName != null) {
+                    names.put(tdItems[i].fieldName, i);
+                }
+            }
+            nameToIndex = names;
         }
-        throw new NoSuchElementException();
+        Integer i = names.get(name);
+        if(i == null) throw new NoSuchElementException();
+        return i;
     }
 
     /**
@@ -150,10 +264,6 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        int size = 0;
-        for(TDItem tdItem : tdItems) {
-            size += tdItem.fieldType.getLen();
-        }
         return size;
     }
 
@@ -197,10 +307,13 @@ public class TupleDesc implements Serializable {
 
     public boolean equals(Object o) {
         // some code goes here
+        if(this == o) {
+            return true;
+        }
         boolean flag = false;
         if(o instanceof TupleDesc) {
             TupleDesc td = (TupleDesc) o;
-            if(this.numFields() == td.numFields()) {
+            if(this.hash == td.hash && this.numFields() == td.numFields()) {
                 flag = true;
                 for(int i = 0;i < this.numFields();i ++) {
                     if(!this.getFieldType(i).equals(td.getFieldType(i))) {
@@ -216,7 +329,8 @@ public class TupleDesc implements Serializable {
     public int hashCode() {
         // If you want to use TupleDesc as keys for HashMap, implement this so
         // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        // equality only looks at the field types, and so does the hash
+        return hash;
     }
 
     /**
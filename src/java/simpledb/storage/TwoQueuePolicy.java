@@ -0,0 +1,104 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha, VLDB 1994).
+ * <p>
+ * A page seen for the first time enters A1in, a FIFO queue. Hits on A1in
+ * pages are treated as correlated references and do not promote them. When
+ * a page is evicted from A1in its id is remembered in A1out, a bounded FIFO
+ * of page ids without data; a page that is fetched again while it is still
+ * remembered there has proven itself and goes to Am, an LRU queue. Pages
+ * touched once, such as the pages of a sequential scan, therefore only ever
+ * compete for the A1in share of the segment and never displace the Am
+ * working set.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    /** Share of the segment reserved for A1in. */
+    private static final double KIN = 0.25;
+    /** Number of remembered A1out ids, relative to the segment size. */
+    private static final double KOUT = 0.5;
+
+    private final int kin;
+    private final int kout;
+
+    /** Pages seen once, oldest first. */
+    private final LinkedHashMap<PageId, Boolean> a1in = new LinkedHashMap<>();
+    /** Pages recently evicted from A1in, oldest first. Ids only. */
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    /** Pages seen again after leaving A1in, least recently used first. */
+    private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param capacity the number of pages the segment is expected to hold
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.kin = Math.max(1, (int) (capacity * KIN));
+        this.kout = Math.max(1, (int) (capacity * KOUT));
+    }
+
+    public void pageAdded(PageId pid) {
+        if (a1out.remove(pid)) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public void pageHit(PageId pid) {
+        // hits on A1in pages are correlated references and do not count
+        am.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (a1in.remove(pid) == null) {
+            am.remove(pid);
+        }
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        PageId victim;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = evictFrom(a1in, evictable);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+            return evictFrom(am, evictable);
+        }
+        victim = evictFrom(am, evictable);
+        if (victim == null) {
+            victim = evictFrom(a1in, evictable);
+            if (victim != null) {
+                remember(victim);
+            }
+        }
+        return victim;
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static PageId evictFrom(LinkedHashMap<PageId, Boolean> queue, Predicate<PageId> evictable) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,256 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        // 504 two-column tuples fill one page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The page budget is shared by all segments of the page table.
+     */
+    @Test
+    public void capacityAcrossSegments() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        assertEquals(BufferPool.DEFAULT_SEGMENTS, bp.getNumSegments());
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(bp.getNumCachedPages() <= 10);
+        }
+        assertEquals(10, bp.getNumCachedPages());
+    }
+
+    /**
+     * Segment counts are rounded up to a power of two, and pools using a
+     * scan resistant policy have fewer segments rather than small ones.
+     */
+    @Test
+    public void segmentCount() {
+        assertEquals(1, new BufferPool(10, 1).getNumSegments());
+        assertEquals(8, new BufferPool(10, 5).getNumSegments());
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES, BufferPool.DEFAULT_SEGMENTS,
+                ReplacementPolicy.Type.TWO_Q).getNumSegments());
+        assertEquals(4, new BufferPool(300, BufferPool.DEFAULT_SEGMENTS,
+                ReplacementPolicy.Type.LRU_K).getNumSegments());
+        assertEquals(BufferPool.DEFAULT_SEGMENTS, new BufferPool(1024, BufferPool.DEFAULT_SEGMENTS,
+                ReplacementPolicy.Type.TWO_Q).getNumSegments());
+    }
+
+    /**
+     * Repeated fetches of a cached page are hits; the first fetch is a miss.
+     */
+    @Test
+    public void hitAndMissCounters() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 3);
+        Page first = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, bp.getMissCount());
+        assertEquals(0, bp.getHitCount());
+        for (int i = 0; i < 5; i++) {
+            assertSame(first, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+        assertEquals(1, bp.getMissCount());
+        assertEquals(5, bp.getHitCount());
+    }
+
+    /**
+     * Hits and misses are also counted per table.
+     */
+    @Test
+    public void tableCounters() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount(hf.getId()));
+        assertEquals(1, bp.getMissCount(hf.getId()));
+        assertEquals(0, bp.getMissCount(hf.getId() + 1));
+    }
+
+    /**
+     * The replacement policy is taken from the system property unless one
+     * is given explicitly, and every policy respects the page budget.
+     */
+    @Test
+    public void replacementPolicy() throws Exception {
+        assertEquals(ReplacementPolicy.Type.LRU, new BufferPool(10).getReplacementPolicy());
+        System.setProperty(ReplacementPolicy.POLICY_PROPERTY, "2q");
+        try {
+            assertEquals(ReplacementPolicy.Type.TWO_Q, new BufferPool(10).getReplacementPolicy());
+        } finally {
+            System.clearProperty(ReplacementPolicy.POLICY_PROPERTY);
+        }
+        for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+            BufferPool bp = new BufferPool(10, 4, type);
+            for (int i = 0; i < hf.numPages(); i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                assertTrue(bp.getNumCachedPages() <= 10);
+            }
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Under 2Q, pages fetched again and again by point lookups stay cached
+     * while a scan of a table many times the size of the default pool goes
+     * by; under LRU the scan evicts them.
+     */
+    @Test
+    public void lookupsSurviveScan() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 400, null, null);
+        assertEquals(HOT_PAGES, hotHitsAfterScan(ReplacementPolicy.Type.TWO_Q, big));
+        assertEquals(0, hotHitsAfterScan(ReplacementPolicy.Type.LRU, big));
+    }
+
+    private static final int HOT_PAGES = 24;
+
+    /** @return the hits of lookups of the hot pages right after a scan of big */
+    private int hotHitsAfterScan(ReplacementPolicy.Type type, HeapFile big) throws Exception {
+        BufferPool bp = new BufferPool(BufferPool.DEFAULT_PAGES, BufferPool.DEFAULT_SEGMENTS, type);
+        // the lookups come back a few times, with other pages read in between
+        int cold = 0;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < HOT_PAGES; i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            }
+            for (int i = 0; i < BufferPool.DEFAULT_PAGES; i++) {
+                bp.getPage(tid, new HeapPageId(big.getId(), cold++), Permissions.READ_ONLY);
+            }
+        }
+        for (int i = 0; i < big.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        }
+        long before = bp.getHitCount(hf.getId());
+        for (int i = 0; i < HOT_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        return (int) (bp.getHitCount(hf.getId()) - before);
+    }
+
+    /**
+     * Commit flushes the pages the transaction dirtied and releases only
+     * its own locks.
+     */
+    @Test
+    public void commitReleasesOwnPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId other = new TransactionId();
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId p1 = new HeapPageId(hf.getId(), 1);
+        Page page = bp.getPage(tid, p0, Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        bp.getPage(other, p1, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+
+        bp.transactionComplete(tid);
+        assertNull(page.isDirty());
+        assertFalse(bp.holdsLock(tid, p0));
+        assertFalse(bp.holdsLock(tid, p1));
+        assertTrue(bp.holdsLock(other, p1));
+
+        // p0 is free again, p1 once the other reader is done
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, p0, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(writer, p0));
+        bp.transactionComplete(other);
+        bp.getPage(writer, p1, Permissions.READ_WRITE);
+        bp.transactionComplete(writer);
+    }
+
+    /**
+     * Dirty pages stay pinned: once every cached page is dirty, fetching
+     * another page fails instead of evicting uncommitted data.
+     */
+    @Test(expected = simpledb.common.DbException.class)
+    public void allPagesDirty() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        for (int i = 0; i < 3; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_WRITE);
+    }
+
+    /**
+     * Prefetching takes no lock; the getPage call that follows waits for
+     * the prefetch read instead of reading the page again.
+     */
+    @Test
+    public void prefetchTakesNoLock() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 5);
+        assertTrue(bp.prefetchPage(pid));
+        assertFalse(bp.holdsLock(tid, pid));
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPrefetchCount());
+        assertEquals(1, bp.getPrefetchHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * At most a quarter of the pool holds pages read ahead but not used.
+     */
+    @Test
+    public void prefetchBudget() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        assertTrue(bp.prefetchPage(new HeapPageId(hf.getId(), 0)));
+        assertTrue(bp.prefetchPage(new HeapPageId(hf.getId(), 1)));
+        assertFalse(bp.prefetchPage(new HeapPageId(hf.getId(), 2)));
+        assertFalse(Database.resetBufferPool(3).prefetchPage(new HeapPageId(hf.getId(), 0)));
+    }
+
+    /**
+     * A sequential scan reads ahead, and every page is still read once.
+     */
+    @Test
+    public void scanReadsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertEquals(hf.numPages(), bp.getMissCount() + bp.getPrefetchCount());
+        assertEquals(bp.getPrefetchCount(), bp.getPrefetchHitCount());
+        assertEquals(0, bp.getPrefetchWastedCount());
+
+        bp.setPrefetchEnabled(false);
+        assertFalse(bp.prefetchPage(new HeapPageId(hf.getId(), 0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -15,6 +17,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -65,6 +68,27 @@ public class CatalogTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for the mmap table option of Catalog.loadSchema()
+     */
+    @Test public void loadSchemaMmap() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String plain = SystemTestUtil.getUUID();
+        String mapped = SystemTestUtil.getUUID();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write(plain + " (a int, b int)\n");
+            w.write(mapped + " (a int pk, b string) mmap\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        HeapFile f1 = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(plain));
+        HeapFile f2 = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(mapped));
+        Assert.assertFalse(f1.isMemoryMapped());
+        Assert.assertTrue(f2.isMemoryMapped());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(f2.getId()));
+    }
+
     /**
      * Unit test for Catalog.getDatabaseFile()
      */
@@ -7,8 +7,11 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.DeadlockException;
 import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
@@ -219,6 +222,32 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * A deadlock is detected as soon as it forms, and only the youngest
+   * transaction of the cycle is aborted: t1 acquires p0.write; t2 acquires
+   * p1.write; t2 attempts p0.write; t1 attempts p1.write.
+   */
+  @Test public void testYoungestVictim() throws Exception {
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    // tid2 is younger, but it is tid1 that closes the cycle
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg2Write0.acquired());
+    assertNull(lg2Write0.getError());
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+
+    // the victim's grabber aborts tid2, which lets tid1 through
+    lg1Write1.join(WAIT_INTERVAL * 10);
+    lg2Write0.join(WAIT_INTERVAL * 10);
+    assertTrue(lg2Write0.getError() instanceof DeadlockException);
+    assertTrue(lg1Write1.acquired());
+    assertNull(lg1Write1.getError());
+    bp.transactionComplete(tid1);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,314 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class GatherTest extends SimpleDbTestBase {
+
+  private HeapFile f;
+  private TransactionId tid;
+
+  /**
+   * Creates a table of 20000 rows, about 60 pages, registered as "gtable"
+   * with fields c0, c1 and c2.
+   */
+  @Before public void createTable() throws Exception {
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 20000, 100, null, null);
+    f = new HeapFile(hf.getFile(), Utility.getTupleDesc(3, "c"));
+    Database.getCatalog().addTable(f, "gtable");
+    TableStats.setTableStats("gtable", new TableStats(f.getId(), 1));
+    tid = new TransactionId();
+  }
+
+  @After public void serial() {
+    Gather.setWorkers(1);
+  }
+
+  private OpIterator filtered(OpIterator scan) {
+    return new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+        new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(10)), scan));
+  }
+
+  /**
+   * The scans of the partitions of a table together return each of its
+   * tuples once, however many partitions there are.
+   */
+  @Test public void partitionsCoverTable() throws Exception {
+    List<String> expected = TestUtil.sortedContents(new SeqScan(tid, f.getId()));
+    assertEquals(20000, expected.size());
+    for (int n : new int[]{1, 2, 3, 7, f.numPages(), f.numPages() + 3}) {
+      List<String> all = new ArrayList<>();
+      for (int p = 0; p < n; p++) {
+        all.addAll(TestUtil.sortedContents(new SeqScan(tid, f.getId(), "gtable", p, n)));
+      }
+      Collections.sort(all);
+      assertEquals(expected, all);
+    }
+  }
+
+  /**
+   * Filters are evaluated by the workers, and the result is that of the
+   * serial plan, in both execution modes.
+   */
+  @Test public void filters() throws Exception {
+    OpIterator plan = filtered(new SeqScan(tid, f.getId()));
+    List<String> expected = TestUtil.sortedContents(plan);
+    OpIterator parallel = Gather.parallelize(plan, 4);
+    assertTrue(parallel instanceof Gather);
+    OpIterator[] children = ((Gather) parallel).getChildren();
+    assertEquals(4, children.length);
+    assertTrue(children[0] instanceof Filter);
+    assertEquals(expected, TestUtil.sortedContents(parallel));
+    ((Gather) parallel).setBatchMode(true);
+    assertEquals(expected, TestUtil.sortedContents(parallel));
+  }
+
+  /**
+   * An aggregate computed from partial aggregates of the partitions equals
+   * the one computed serially, and its result is named the same. An
+   * average is combined from a partial sum and count.
+   */
+  @Test public void twoPhaseAggregate() throws Exception {
+    for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT,
+        Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG}) {
+      for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+        Aggregate serial = new Aggregate(filtered(new SeqScan(tid, f.getId())), 2, gfield, op);
+        OpIterator parallel = Gather.parallelize(serial, 3);
+        assertTrue(parallel instanceof Aggregate);
+        OpIterator gather = ((Aggregate) parallel).getChildren()[0];
+        assertTrue(gather instanceof Gather);
+        assertTrue(((Gather) gather).getChildren()[0] instanceof Aggregate);
+        assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+        assertEquals(op + " grouped by " + gfield, TestUtil.sortedContents(serial), TestUtil.sortedContents(parallel));
+      }
+    }
+  }
+
+  /**
+   * An Aggregate over a Gather gets partial aggregates in the workers of
+   * that Gather, in both execution modes.
+   */
+  @Test public void aggregateOverGather() throws Exception {
+    Aggregator.Op[] ops = {Aggregator.Op.AVG, Aggregator.Op.MAX, Aggregator.Op.COUNT, Aggregator.Op.AVG};
+    Aggregate serial = new Aggregate(new SeqScan(tid, f.getId()), new int[]{1, 1, 2, 2}, ops, new int[]{0});
+    List<String> expected = TestUtil.sortedContents(serial);
+    Aggregate overGather = new Aggregate(Gather.parallelize(new SeqScan(tid, f.getId()), 4),
+        new int[]{1, 1, 2, 2}, ops, new int[]{0});
+    OpIterator parallel = Gather.parallelize(overGather, 4);
+    OpIterator[] partials = ((Operator) ((Operator) parallel).getChildren()[0]).getChildren();
+    assertEquals(4, partials.length);
+    // each AVG is computed as a SUM and a COUNT
+    assertEquals(7, partials[0].getTupleDesc().numFields());
+    assertEquals(expected, TestUtil.sortedContents(parallel));
+    ((Operator) parallel).setBatchMode(true);
+    assertEquals(expected, TestUtil.sortedContents(parallel));
+  }
+
+  /**
+   * Small tables and plans that are not a filtered scan are not split.
+   */
+  @Test public void unchanged() throws Exception {
+    HeapFile small = SystemTestUtil.createRandomHeapFile(3, 100, null, null);
+    OpIterator scan = new SeqScan(tid, small.getId());
+    assertTrue(Gather.parallelize(scan, 4) == scan);
+    OpIterator agg = new Aggregate(new Aggregate(new SeqScan(tid, f.getId()), 1, 0, Aggregator.Op.SUM),
+        1, Aggregator.NO_GROUPING, Aggregator.Op.MAX);
+    assertTrue(Gather.parallelize(agg, 4) == agg);
+  }
+
+  /**
+   * A Gather can be rewound or closed before all workers are done.
+   */
+  @Test public void rewindAndClose() throws Exception {
+    OpIterator plan = Gather.parallelize(new SeqScan(tid, f.getId()), 4);
+    List<String> expected = TestUtil.sortedContents(new SeqScan(tid, f.getId()));
+    plan.open();
+    for (int i = 0; i < 10; i++) {
+      plan.next();
+    }
+    plan.rewind();
+    List<String> rows = new ArrayList<>();
+    while (plan.hasNext()) {
+      rows.add(plan.next().toString());
+    }
+    Collections.sort(rows);
+    assertEquals(expected, rows);
+    plan.rewind();
+    plan.next();
+    plan.close();
+    assertEquals(expected, TestUtil.sortedContents(plan));
+  }
+
+  /**
+   * The workers take page locks for the transaction of the scan, so they
+   * wait for another transaction writing a page of the table.
+   */
+  @Test public void waitsForWriter() throws Exception {
+    // a table without statistics, whose scan left no locks behind
+    HeapFile w = SystemTestUtil.createRandomHeapFile(3, 20000, null, null);
+    List<String> expected = TestUtil.sortedContents(new SeqScan(tid, w.getId()));
+    Database.getBufferPool().transactionComplete(tid);
+    TransactionId writer = new TransactionId();
+    Database.getBufferPool().getPage(writer, new HeapPageId(w.getId(), w.numPages() - 1),
+        Permissions.READ_WRITE);
+
+    TransactionId reader = new TransactionId();
+    OpIterator plan = Gather.parallelize(new SeqScan(reader, w.getId()), 4);
+    List<String> rows = Collections.synchronizedList(new ArrayList<>());
+    Thread t = new Thread(() -> {
+      try {
+        rows.addAll(TestUtil.sortedContents(plan));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    t.start();
+    t.join(500);
+    assertTrue(t.isAlive());
+    assertTrue(rows.isEmpty());
+
+    Database.getBufferPool().transactionComplete(writer);
+    t.join(10000);
+    assertFalse(t.isAlive());
+    assertEquals(expected, new ArrayList<>(rows));
+    Database.getBufferPool().transactionComplete(reader);
+  }
+
+  /**
+   * Two workers of one transaction can wait for different pages at the
+   * same time, and a deadlock through either of them is detected: the
+   * reader waits for the first page of its first partition, held by a
+   * younger writer, and for the last page of its second partition, held
+   * by another one. When the first writer asks for a page the reader has
+   * read, it is chosen as the victim; once it aborts, the scan finishes.
+   */
+  @Test public void deadlockWithTwoWaitingWorkers() throws Exception {
+    HeapFile w = SystemTestUtil.createRandomHeapFile(3, 20000, null, null);
+    List<String> expected = TestUtil.sortedContents(new SeqScan(tid, w.getId()));
+    Database.getBufferPool().transactionComplete(tid);
+    int half = w.numPages() / 2;
+
+    TransactionId reader = new TransactionId();
+    TransactionId first = new TransactionId();
+    TransactionId second = new TransactionId();
+    Database.getBufferPool().getPage(first, new HeapPageId(w.getId(), 0), Permissions.READ_WRITE);
+    Database.getBufferPool().getPage(second, new HeapPageId(w.getId(), w.numPages() - 1),
+        Permissions.READ_WRITE);
+
+    OpIterator plan = new Gather(new OpIterator[]{
+        new SeqScan(reader, w.getId(), "w", 0, 2), new SeqScan(reader, w.getId(), "w", 1, 2)});
+    List<String> rows = Collections.synchronizedList(new ArrayList<>());
+    Thread scan = new Thread(() -> {
+      try {
+        rows.addAll(TestUtil.sortedContents(plan));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    scan.start();
+    // the second worker reads its partition up to the last page
+    scan.join(1000);
+    assertTrue(scan.isAlive());
+
+    final Exception[] thrown = new Exception[1];
+    Thread writer = new Thread(() -> {
+      try {
+        Database.getBufferPool().getPage(first, new HeapPageId(w.getId(), half), Permissions.READ_WRITE);
+      } catch (Exception e) {
+        thrown[0] = e;
+      }
+    });
+    writer.start();
+    writer.join(10000);
+    assertFalse(writer.isAlive());
+    assertTrue(thrown[0] instanceof DeadlockException);
+
+    Database.getBufferPool().transactionComplete(first, false);
+    Database.getBufferPool().transactionComplete(second);
+    scan.join(10000);
+    assertFalse(scan.isAlive());
+    assertEquals(expected, new ArrayList<>(rows));
+    Database.getBufferPool().transactionComplete(reader);
+  }
+
+  /**
+   * With more than one worker the planner splits the scans of large
+   * tables.
+   */
+  @Test public void planned() throws Exception {
+    String sql = "SELECT * FROM gtable t WHERE t.c1 < 30 AND t.c2 > 10;";
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    List<String> expected = TestUtil.sortedContents(lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+
+    Gather.setWorkers(4);
+    lp = new Parser().generateLogicalPlan(tid, sql);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    OperatorCardinality.updateOperatorCardinality((Operator) plan,
+        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+    new QueryPlanVisualizer().printQueryPlanTree(plan, System.out);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Gather);
+    assertEquals(expected, TestUtil.sortedContents(plan));
+  }
+
+  /**
+   * With more than one worker the planner aggregates in the workers.
+   */
+  @Test public void plannedAggregate() throws Exception {
+    String sql = "SELECT t.c0, AVG(t.c1), SUM(t.c2), MIN(t.c2) FROM gtable t WHERE t.c1 < 60 GROUP BY t.c0;";
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    List<String> expected = TestUtil.sortedContents(lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+
+    Gather.setWorkers(4);
+    lp = new Parser().generateLogicalPlan(tid, sql);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    OperatorCardinality.updateOperatorCardinality((Operator) plan,
+        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+    new QueryPlanVisualizer().printQueryPlanTree(plan, System.out);
+    OpIterator agg = ((Operator) plan).getChildren()[0];
+    assertTrue(agg instanceof Aggregate);
+    OpIterator gather = ((Aggregate) agg).getChildren()[0];
+    assertTrue(gather instanceof Gather);
+    assertTrue(((Gather) gather).getChildren()[0] instanceof Aggregate);
+    assertEquals(expected, TestUtil.sortedContents(plan));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GatherTest.class);
+  }
+}
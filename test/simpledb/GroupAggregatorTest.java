@@ -0,0 +1,269 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.IntArrayHashTable;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Gather;
+import simpledb.execution.GroupAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class GroupAggregatorTest extends SimpleDbTestBase {
+
+  private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+      Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG};
+
+  private HeapFile f;
+  private TransactionId tid;
+
+  /**
+   * Creates a table of 20000 rows with values below 10, registered as
+   * "agtable" with fields c0 to c3.
+   */
+  @Before public void createTable() throws Exception {
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(4, 20000, 10, null, null);
+    f = new HeapFile(hf.getFile(), Utility.getTupleDesc(4, "c"));
+    Database.getCatalog().addTable(f, "agtable");
+    TableStats.setTableStats("agtable", new TableStats(f.getId(), 1));
+    tid = new TransactionId();
+  }
+
+  @After public void serial() {
+    Gather.setWorkers(1);
+  }
+
+  /**
+   * Returns the result of it as a map from the string of the first width
+   * fields of each tuple to the rest of its fields.
+   */
+  private static Map<String, List<Integer>> byGroup(OpIterator it, int width) throws Exception {
+    Map<String, List<Integer>> m = new HashMap<>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      StringBuilder key = new StringBuilder();
+      for (int i = 0; i < width; i++) {
+        key.append(t.getField(i)).append('\t');
+      }
+      List<Integer> values = new ArrayList<>();
+      for (int i = width; i < t.getTupleDesc().numFields(); i++) {
+        values.add(t.getInt(i));
+      }
+      m.put(key.toString(), values);
+    }
+    it.close();
+    return m;
+  }
+
+  /**
+   * Several aggregates grouped by two columns in one Aggregate equal the
+   * aggregates computed one at a time, in tuple and batch mode.
+   */
+  @Test public void multipleAggregates() throws Exception {
+    int[] afields = new int[OPS.length];
+    Arrays.fill(afields, 2);
+    afields[1] = 3;
+    Aggregate all = new Aggregate(new SeqScan(tid, f.getId()), afields, OPS, new int[]{0, 1});
+    assertEquals(2 + OPS.length, all.getTupleDesc().numFields());
+    assertEquals("sum(agtable.c2)", all.getTupleDesc().getFieldName(2));
+    Map<String, List<Integer>> result = byGroup(all, 2);
+    assertEquals(100, result.size());
+
+    for (int j = 0; j < OPS.length; j++) {
+      Aggregate one = new Aggregate(new SeqScan(tid, f.getId()), new int[]{afields[j]},
+          new Aggregator.Op[]{OPS[j]}, new int[]{0, 1});
+      Map<String, List<Integer>> single = byGroup(one, 2);
+      assertEquals(result.keySet(), single.keySet());
+      for (Map.Entry<String, List<Integer>> e : single.entrySet()) {
+        assertEquals(OPS[j] + " of " + e.getKey(), e.getValue().get(0), result.get(e.getKey()).get(j));
+      }
+    }
+
+    List<String> expected = TestUtil.sortedContents(all);
+    all.setBatchMode(true);
+    assertEquals(expected, TestUtil.sortedContents(all));
+  }
+
+  /**
+   * Groups with a string column are numbered like groups of ints, and
+   * without grouping there is one row.
+   */
+  @Test public void stringAndNoGroups() throws Exception {
+    OpIterator strings = TestUtil.createTupleList(3,
+        new Object[]{"a", 1, 2,
+                     "b", 1, 4,
+                     "a", 1, 6,
+                     "a", 2, 2});
+    Aggregate a = new Aggregate(strings, new int[]{2, 2, 0},
+        new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}, new int[]{0, 1});
+    OpIterator expected = TestUtil.createTupleList(5,
+        new Object[]{"a", 1, 8, 4, 2,
+                     "b", 1, 4, 4, 1,
+                     "a", 2, 2, 2, 1});
+    a.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, a);
+    assertEquals(3, TestUtil.sortedContents(a).size());
+
+    Aggregate none = new Aggregate(new SeqScan(tid, f.getId()), new int[]{3, 3},
+        new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.MAX}, new int[0]);
+    assertEquals(Arrays.asList("20000\t9\t"), TestUtil.sortedContents(none));
+  }
+
+  /**
+   * Groups beyond the memory budget are spilled and merged partition by
+   * partition, with the same result as in memory, in both execution modes
+   * and after a rewind.
+   */
+  @Test public void spilled() throws Exception {
+    HeapFile wide = SystemTestUtil.createRandomHeapFile(3, 20000, null, null);
+    int[] afields = {1, 1, 2, 2, 1};
+    Aggregate inMemory = new Aggregate(new SeqScan(tid, wide.getId()), afields, OPS, new int[]{0});
+    List<String> expected = TestUtil.sortedContents(inMemory);
+    assertEquals(0, inMemory.getSpilledPartitions());
+    assertTrue(expected.size() > 10000);
+
+    for (boolean batch : new boolean[]{false, true}) {
+      Aggregate spilled = new Aggregate(new SeqScan(tid, wide.getId()), afields, OPS, new int[]{0});
+      spilled.setBatchMode(batch);
+      spilled.setMemoryBudget(16 * 1024);
+      assertEquals(expected, TestUtil.sortedContents(spilled));
+      assertEquals(GroupAggregator.PARTITIONS, spilled.getSpilledPartitions());
+
+      spilled.open();
+      for (int i = 0; i < 100; i++) {
+        spilled.next();
+      }
+      spilled.rewind();
+      List<String> rows = new ArrayList<>();
+      while (spilled.hasNext()) {
+        rows.add(spilled.next().toString());
+      }
+      spilled.close();
+      Collections.sort(rows);
+      assertEquals(expected, rows);
+    }
+  }
+
+  /**
+   * With a budget of one group every partition is split again, as often as
+   * the hash allows, and negative values survive the spill files.
+   */
+  @Test public void spilledRepeatedly() throws Exception {
+    Object[] data = new Object[3 * 300];
+    for (int i = 0; i < 300; i++) {
+      data[3 * i] = "k" + (i % 40);
+      data[3 * i + 1] = i % 3;
+      data[3 * i + 2] = (i * 7919) % 1000 - 500;
+    }
+    int[] afields = {2, 0, 2, 2, 2};
+    List<String> expected = TestUtil.sortedContents(new Aggregate(TestUtil.createTupleList(3, data), afields, OPS,
+        new int[]{0, 1}));
+    Aggregate spilled = new Aggregate(TestUtil.createTupleList(3, data), afields, OPS, new int[]{0, 1});
+    spilled.setMemoryBudget(1);
+    assertEquals(expected, TestUtil.sortedContents(spilled));
+    assertEquals(120, expected.size());
+  }
+
+  /**
+   * Composite keys get dense ids that stay the same while the table grows.
+   */
+  @Test public void intArrayHashTable() {
+    IntArrayHashTable t = new IntArrayHashTable(3);
+    Map<List<Integer>, Integer> expected = new HashMap<>();
+    Random r = new Random(3);
+    int[] key = new int[3];
+    for (int i = 0; i < 50000; i++) {
+      for (int k = 0; k < 3; k++) {
+        key[k] = r.nextInt(30) - 15;
+      }
+      List<Integer> k = Arrays.asList(key[0], key[1], key[2]);
+      Integer id = expected.get(k);
+      if (id == null) {
+        id = expected.size();
+        expected.put(k, id);
+      }
+      assertEquals((int) id, t.add(key));
+    }
+    assertEquals(expected.size(), t.size());
+    for (Map.Entry<List<Integer>, Integer> e : expected.entrySet()) {
+      int id = e.getValue();
+      for (int k = 0; k < 3; k++) {
+        key[k] = e.getKey().get(k);
+        assertEquals(key[k], t.key(id, k));
+      }
+      assertEquals(id, t.get(key));
+    }
+    assertEquals(-1, t.get(new int[]{100, 0, 0}));
+  }
+
+  /**
+   * A query with several aggregates and GROUP BY columns is planned as a
+   * single Aggregate, and select items can name the groups in any order.
+   */
+  @Test public void planned() throws Exception {
+    String sql = "SELECT t.c1, SUM(t.c2), t.c0, MAX(t.c3), COUNT(t.c2) FROM agtable t "
+        + "GROUP BY t.c0, t.c1;";
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertEquals(5, plan.getTupleDesc().numFields());
+
+    Aggregate agg = new Aggregate(new SeqScan(tid, f.getId()), new int[]{2, 3, 2},
+        new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MAX, Aggregator.Op.COUNT}, new int[]{0, 1});
+    List<String> expected = new ArrayList<>();
+    agg.open();
+    while (agg.hasNext()) {
+      Tuple t = agg.next();
+      expected.add(t.getField(1) + "\t" + t.getField(2) + "\t" + t.getField(0) + "\t"
+          + t.getField(3) + "\t" + t.getField(4) + "\t");
+    }
+    agg.close();
+    Collections.sort(expected);
+    assertEquals(expected, TestUtil.sortedContents(plan));
+  }
+
+  /**
+   * Several aggregates are split into partial aggregates like one.
+   */
+  @Test public void parallel() throws Exception {
+    Aggregate serial = new Aggregate(new SeqScan(tid, f.getId()), new int[]{2, 2, 3, 3},
+        new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT},
+        new int[]{1, 0});
+    OpIterator parallel = Gather.parallelize(serial, 3);
+    assertTrue(((Aggregate) parallel).getChildren()[0] instanceof Gather);
+    assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+    assertEquals(TestUtil.sortedContents(serial), TestUtil.sortedContents(parallel));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GroupAggregatorTest.class);
+  }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+  private static final int THREADS = 4;
+  private static final int TXNS = 10;
+
+  @After public void defaults() {
+    LogFile.setGroupCommit(true);
+    LogFile.setGroupCommitWindow(0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Commits a transaction that inserts row v into f.
+   */
+  private static void insert(HeapFile f, int v) throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(v, 2));
+    t.commit();
+  }
+
+  private static int count(HeapFile f) throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    SeqScan scan = new SeqScan(t.getId(), f.getId());
+    int n = 0;
+    scan.open();
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.close();
+    t.commit();
+    return n;
+  }
+
+  /**
+   * Without group commit a transaction forces the log twice, once before
+   * its pages are written and once for its commit record, however many
+   * pages it wrote.
+   */
+  @Test public void forcedPerTransaction() throws Exception {
+    LogFile.setGroupCommit(false);
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+    LogFile log = Database.getLogFile();
+    insert(f, 0);
+    long forces = log.getForceCount();
+    for (int i = 1; i <= TXNS; i++) {
+      insert(f, i);
+    }
+    assertEquals(2 * TXNS, log.getForceCount() - forces);
+    assertEquals(TXNS + 1, count(f));
+  }
+
+  /**
+   * Transactions committing at the same time share forces of the log, and
+   * all of their rows are there afterwards.
+   */
+  @Test(timeout = 20000) public void batched() throws Exception {
+    LogFile.setGroupCommitWindow(100000, THREADS);
+    final List<HeapFile> tables = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      tables.add(SystemTestUtil.createRandomHeapFile(2, 0, null, null));
+    }
+    LogFile log = Database.getLogFile();
+    long forces = log.getForceCount();
+    final Exception[] failed = new Exception[1];
+    Thread[] workers = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final HeapFile f = tables.get(i);
+      workers[i] = new Thread(() -> {
+        try {
+          for (int j = 0; j < TXNS; j++) {
+            insert(f, j);
+          }
+        } catch (Exception e) {
+          failed[0] = e;
+        }
+      });
+      workers[i].start();
+    }
+    for (Thread w : workers) {
+      w.join();
+    }
+    if (failed[0] != null) {
+      throw failed[0];
+    }
+    long batched = log.getForceCount() - forces;
+    assertTrue("forced " + batched + " times", batched < 2 * THREADS * TXNS);
+    for (HeapFile f : tables) {
+      assertEquals(TXNS, count(f));
+    }
+  }
+
+  /**
+   * Forces from inside the log's lock, as during a checkpoint, are done by
+   * the calling thread, and commits wait for the right records after the
+   * checkpoint truncated the log.
+   */
+  @Test(timeout = 20000) public void checkpoint() throws Exception {
+    LogFile.setGroupCommitWindow(1000, Integer.MAX_VALUE);
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+    LogFile log = Database.getLogFile();
+    insert(f, 1);
+    long lsn = log.getLsn();
+    log.logCheckpoint();
+    assertTrue(log.getLsn() >= lsn);
+    insert(f, 2);
+    assertTrue(log.getLsn() > lsn);
+    assertEquals(2, count(f));
+  }
+
+  /**
+   * A failed force fails the transactions waiting for it, and the next
+   * one forces the log again. The failure is made by swapping the file of
+   * the log for a closed one.
+   */
+  @Test(timeout = 20000) public void failedForce() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+    LogFile log = Database.getLogFile();
+    insert(f, 1);
+    Field rafField = LogFile.class.getDeclaredField("raf");
+    rafField.setAccessible(true);
+    RandomAccessFile raf = (RandomAccessFile) rafField.get(log);
+    File closedFile = File.createTempFile("closed", ".log");
+    closedFile.deleteOnExit();
+    RandomAccessFile closed = new RandomAccessFile(closedFile, "rw");
+    closed.close();
+
+    Transaction t = new Transaction();
+    t.start();
+    rafField.set(log, closed);
+    try {
+      log.force();
+      fail("force of a closed log succeeded");
+    } catch (IOException expected) {
+    }
+    rafField.set(log, raf);
+    log.force();
+    t.commit();
+    insert(f, 2);
+    assertEquals(2, count(f));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GroupCommitTest.class);
+  }
+}
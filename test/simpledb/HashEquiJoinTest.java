@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.List;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext()
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(0, op.getSpilledPartitions());
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * A budget far below the build side spills partitions to disk; the
+   * result must match a nested-loop join, also after a rewind. Half of
+   * the rows share key 0.
+   */
+  @Test public void spill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OpIterator left = TestUtil.createKeyedTupleList(2000, 1, r -> r.nextBoolean() ? 0 : r.nextInt(300));
+    OpIterator right = TestUtil.createKeyedTupleList(1000, 2, r -> r.nextBoolean() ? 0 : r.nextInt(300));
+    Join nl = new Join(pred, left, right);
+    nl.open();
+    List<String> expected = TestUtil.sortedTuples(nl);
+    nl.close();
+
+    HashEquiJoin op = new HashEquiJoin(pred, left, right);
+    op.setMemoryBudget(100 * (width1 * 4 + SpillFile.TUPLE_OVERHEAD));
+    op.open();
+    assertEquals(expected, TestUtil.sortedTuples(op));
+    assertTrue(op.getSpilledPartitions() > 0);
+    // key 0 alone exceeds the budget, so its partition is joined in chunks
+    assertTrue(op.getExtraProbePasses() > 0);
+    op.rewind();
+    assertEquals(expected, TestUtil.sortedTuples(op));
+    op.close();
+  }
+
+  /**
+   * A build side of uniform keys many times larger than PARTITIONS times
+   * the budget is split again by more bits of the hash, not joined chunk
+   * by chunk, so the spilled probe tuples are not read once per chunk.
+   */
+  @Test public void splitLargePartitions() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OpIterator left = TestUtil.createKeyedTupleList(5000, 3, r -> r.nextInt(100000));
+    OpIterator right = TestUtil.createKeyedTupleList(2000, 4, r -> r.nextInt(100000));
+    Join nl = new Join(pred, left, right);
+    nl.open();
+    List<String> expected = TestUtil.sortedTuples(nl);
+    nl.close();
+
+    HashEquiJoin op = new HashEquiJoin(pred, left, right);
+    op.setMemoryBudget(10 * (width1 * 4 + SpillFile.TUPLE_OVERHEAD));
+    op.open();
+    assertEquals(expected, TestUtil.sortedTuples(op));
+    assertEquals(HashEquiJoin.PARTITIONS, op.getSpilledPartitions());
+    assertEquals(0, op.getExtraProbePasses());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
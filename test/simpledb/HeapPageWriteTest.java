@@ -131,6 +131,50 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * An unchanged page serializes to the bytes it was read from; after
+     * changes, the serialized page reads back with the same tuples.
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(12345, 2);
+        page.insertTuple(addition);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copyIt = copy.iterator();
+        while (it.hasNext()) {
+            assertTrue(TestUtil.compareTuples(it.next(), copyIt.next()));
+        }
+        assertFalse(copyIt.hasNext());
+    }
+
+    /**
+     * An iterator returns the tuples on the page when it was created.
+     */
+    @Test public void iteratorSnapshot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int used = 0;
+        for (Iterator<Tuple> all = page.iterator(); all.hasNext(); all.next()) {
+            used++;
+        }
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.deleteTuple(first);
+        int seen = 1;
+        while (it.hasNext()) {
+            it.next();
+            seen++;
+        }
+        assertEquals(used, seen);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private BTreeFile tree;
+  private TransactionId tid;
+
+  /**
+   * Creates a B+ tree keyed on its first column, registered as "inltree"
+   * with fields c0 and c1.
+   */
+  @Before public void createTree() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, 2000, null, null, 0);
+    tree = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(tree, "inltree");
+    tid = new TransactionId();
+  }
+
+  /**
+   * Probing the tree finds the same tuples as a nested-loop join over a
+   * scan of it, also through a filter and after a rewind.
+   */
+  @Test public void matchesNestedLoop() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OpIterator left = TestUtil.createKeyedTupleList(200, 1, r -> r.nextInt(2500));
+    OpIterator inner = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500)),
+        new SeqScan(tid, tree.getId()));
+    Join nl = new Join(pred, left, inner);
+    nl.open();
+    List<String> expected = TestUtil.sortedTuples(nl);
+    nl.close();
+    assertFalse(expected.isEmpty());
+
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, left, inner);
+    op.open();
+    assertEquals(expected, TestUtil.sortedTuples(op));
+    assertEquals(200, op.getProbeCount());
+    op.rewind();
+    assertEquals(expected, TestUtil.sortedTuples(op));
+    op.close();
+  }
+
+  @Test public void canProbe() throws Exception {
+    SeqScan scan = new SeqScan(tid, tree.getId());
+    assertTrue(IndexNestedLoopJoin.canProbe(scan, 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(scan, 1));
+    assertTrue(IndexNestedLoopJoin.canProbe(
+        new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(1)), scan), 0));
+    HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, heap.getId()), 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void heapInner() throws Exception {
+    HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createKeyedTupleList(10, 2, r -> r.nextInt(2500)), new SeqScan(tid, heap.getId()));
+  }
+
+  private static boolean contains(OpIterator plan, Class<?> c) {
+    if (c.isInstance(plan)) {
+      return true;
+    }
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        if (contains(child, c)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The optimizer probes the tree for a selective outer input, and hashes
+   * when the outer input is large.
+   */
+  @Test public void plan() throws Exception {
+    HeapFile heap = new HeapFile(SystemTestUtil.createRandomHeapFileUnopened(2, 20000, 2500, null, null),
+        Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(heap, "inlouter");
+    TableStats.setTableStats("inlouter", new TableStats(heap.getId(), 1));
+    TableStats.setTableStats("inltree", new TableStats(tree.getId(), 1));
+    Parser p = new Parser();
+
+    LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT o.c1, t.c1 FROM inlouter o, inltree t "
+        + "WHERE o.c0 = t.c0 AND o.c1 < 10;");
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(contains(plan, IndexNestedLoopJoin.class));
+    // estimates and the plan printer know the operator
+    OperatorCardinality.updateOperatorCardinality((Operator) plan,
+        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+    new QueryPlanVisualizer().printQueryPlanTree(plan, System.out);
+
+    lp = p.generateLogicalPlan(tid, "SELECT o.c1, t.c1 FROM inlouter o, inltree t "
+        + "WHERE o.c0 = t.c0;");
+    plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertFalse(contains(plan, IndexNestedLoopJoin.class));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+
+public class IndexScanPlanTest extends SimpleDbTestBase {
+
+  private BTreeFile tree;
+  private TransactionId tid;
+
+  /**
+   * Creates a B+ tree keyed on its first column, registered as "istree"
+   * with fields c0 and c1.
+   */
+  @Before public void createTree() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, 10000, null, null, 0);
+    tree = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(tree, "istree");
+    TableStats.setTableStats("istree", new TableStats(tree.getId(), 1));
+    tid = new TransactionId();
+  }
+
+  private OpIterator plan(String sql) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    OperatorCardinality.updateOperatorCardinality((Operator) plan,
+        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+    new QueryPlanVisualizer().printQueryPlanTree(plan, System.out);
+    return plan;
+  }
+
+  private static OpIterator find(OpIterator plan, Class<?> c) {
+    if (c.isInstance(plan)) {
+      return plan;
+    }
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        OpIterator found = find(child, c);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the tuples of the tree that pass all predicates, as strings,
+   * sorted.
+   */
+  private List<String> expected(Predicate... preds) throws Exception {
+    OpIterator it = new SeqScan(tid, tree.getId(), "t");
+    for (Predicate p : preds) {
+      it = new Filter(p, it);
+    }
+    return TestUtil.sortedContents(it);
+  }
+
+  /**
+   * A range on the key is read through the tree; the other filters stay on
+   * top of the index scan.
+   */
+  @Test public void range() throws Exception {
+    OpIterator plan = plan("SELECT * FROM istree t WHERE t.c0 < 50 AND t.c1 > 5000;");
+    BTreeScan scan = (BTreeScan) find(plan, BTreeScan.class);
+    assertTrue(scan != null);
+    assertEquals(Predicate.Op.LESS_THAN, scan.getIndexPredicate().getOp());
+    assertTrue(find(plan, SeqScan.class) == null);
+    List<String> rows = expected(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+        new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(5000)));
+    assertEquals(rows, TestUtil.sortedContents(plan));
+  }
+
+  /**
+   * Of two filters on the key, the more selective one drives the scan.
+   */
+  @Test public void point() throws Exception {
+    OpIterator plan = plan("SELECT * FROM istree t WHERE t.c0 > 100 AND t.c0 = 1234;");
+    BTreeScan scan = (BTreeScan) find(plan, BTreeScan.class);
+    assertEquals(Predicate.Op.EQUALS, scan.getIndexPredicate().getOp());
+    List<String> rows = expected(new Predicate(0, Predicate.Op.EQUALS, new IntField(1234)));
+    assertEquals(rows, TestUtil.sortedContents(plan));
+    for (String r : rows) {
+      assertTrue(r.startsWith("1234"));
+    }
+  }
+
+  /**
+   * A filter that keeps most of the table, or one that is not on the key,
+   * is cheaper to evaluate over a sequential scan.
+   */
+  @Test public void seqScan() throws Exception {
+    OpIterator plan = plan("SELECT * FROM istree t WHERE t.c0 > 100;");
+    assertTrue(find(plan, BTreeScan.class) == null);
+    assertFalse(find(plan, SeqScan.class) == null);
+
+    plan = plan("SELECT * FROM istree t WHERE t.c1 = 1234;");
+    assertTrue(find(plan, BTreeScan.class) == null);
+
+    plan = plan("SELECT * FROM istree t WHERE t.c0 <> 1234;");
+    assertTrue(find(plan, BTreeScan.class) == null);
+  }
+
+  @Test public void cost() {
+    TableStats stats = TableStats.getTableStats("istree");
+    assertTrue(stats.estimateIndexScanCost(0.001) < stats.estimateScanCost());
+    assertTrue(stats.estimateIndexScanCost(1.0) > stats.estimateScanCost());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanPlanTest.class);
+  }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.IntHashTable;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+    /**
+     * Ids are dense and stable while the table grows, and agree with a
+     * HashMap that numbers keys the same way.
+     */
+    @Test public void addAndGet() {
+        IntHashTable t = new IntHashTable();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random r = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            int key = r.nextInt(20000) - 10000;
+            Integer id = expected.get(key);
+            if (id == null) {
+                id = expected.size();
+                expected.put(key, id);
+            }
+            assertEquals((int) id, t.add(key));
+        }
+        assertEquals(expected.size(), t.size());
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), t.get(e.getKey()));
+            assertEquals((int) e.getKey(), t.key(e.getValue()));
+        }
+        assertEquals(-1, t.get(10000));
+        assertEquals(-1, t.get(Integer.MIN_VALUE));
+    }
+
+    /**
+     * clear() forgets all keys and numbers new ones from 0.
+     */
+    @Test public void clear() {
+        IntHashTable t = new IntHashTable(4);
+        for (int i = 0; i < 100; i++) {
+            t.add(i * 31);
+        }
+        t.clear();
+        assertEquals(0, t.size());
+        assertEquals(-1, t.get(31));
+        assertEquals(0, t.add(5));
+        assertEquals(1, t.add(31));
+        assertEquals(0, t.get(5));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
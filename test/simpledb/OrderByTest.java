@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /**
+   * Checks that op returns all rows of its input, sorted on field 0.
+   */
+  private static void checkSorted(OrderBy op, int rows, boolean asc) throws Exception {
+    List<Integer> keys = new ArrayList<>();
+    boolean[] seen = new boolean[rows];
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      keys.add(t.getInt(0));
+      seen[t.getInt(1)] = true;
+    }
+    assertEquals(rows, keys.size());
+    for (int i = 1; i < keys.size(); i++) {
+      int c = Integer.compare(keys.get(i - 1), keys.get(i));
+      assertTrue("out of order at " + i, asc ? c <= 0 : c >= 0);
+    }
+    for (boolean s : seen) {
+      assertTrue(s);
+    }
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on an input that fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    OpIterator child = TestUtil.createTupleList(2, new int[] { 3, 0, 1, 1, 2, 2, 1, 3 });
+    OrderBy op = new OrderBy(0, true, child);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 1, 1, 1, 3, 2, 2, 3, 0 }), op);
+    assertEquals(0, op.getRunCount());
+  }
+
+  /**
+   * An input larger than the memory budget is sorted in runs; replacement
+   * selection makes them longer than the budget.
+   */
+  @Test public void external() throws Exception {
+    for (boolean asc : Arrays.asList(true, false)) {
+      OrderBy op = new OrderBy(0, asc, TestUtil.createKeyedTupleList(5000, 1, r -> r.nextInt(2500)));
+      op.setMemoryBudget(200 * (8 + SpillFile.TUPLE_OVERHEAD));
+      op.open();
+      checkSorted(op, 5000, asc);
+      assertTrue(op.getRunCount() > 1);
+      assertTrue(op.getRunCount() < 5000 / 200);
+      op.close();
+    }
+  }
+
+  /**
+   * A budget that allows only two runs per merge forces several passes.
+   */
+  @Test public void multiPassMerge() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createKeyedTupleList(5000, 2, r -> r.nextInt(2500)));
+    op.setMemoryBudget(1);
+    op.open();
+    checkSorted(op, 5000, true);
+    assertTrue(op.getRunCount() <= 2);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.rewind(), in memory and external
+   */
+  @Test public void rewind() throws Exception {
+    for (long budget : new long[] { SpillFile.DEFAULT_MEMORY, 100 * (8 + SpillFile.TUPLE_OVERHEAD) }) {
+      OrderBy op = new OrderBy(0, true, TestUtil.createKeyedTupleList(1000, 3, r -> r.nextInt(500)));
+      op.setMemoryBudget(budget);
+      op.open();
+      checkSorted(op, 1000, true);
+      op.rewind();
+      checkSorted(op, 1000, true);
+      op.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
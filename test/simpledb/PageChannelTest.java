@@ -0,0 +1,94 @@
+package simpledb;
+
+import simpledb.storage.PageChannel;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageChannelTest {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Writes grow the file; reads past the end leave the buffer alone.
+     */
+    @Test
+    public void readWrite() throws Exception {
+        PageChannel ch = new PageChannel(tempFile());
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 7);
+        ch.write(data, 200);
+        assertEquals(300, ch.getFile().length());
+
+        byte[] buf = new byte[100];
+        assertEquals(100, ch.read(buf, 200));
+        assertArrayEquals(data, buf);
+        assertEquals(50, ch.read(buf, 250));
+        assertEquals(-1, ch.read(new byte[10], 300));
+        ch.close();
+    }
+
+    /**
+     * A closed channel is reopened on its next use, so more files than
+     * MAX_OPEN can be used at once.
+     */
+    @Test
+    public void reopen() throws Exception {
+        PageChannel[] chs = new PageChannel[PageChannel.MAX_OPEN + 10];
+        for (int i = 0; i < chs.length; i++) {
+            chs[i] = new PageChannel(tempFile());
+            chs[i].write(new byte[]{(byte) i}, 0);
+        }
+        for (int i = 0; i < chs.length; i++) {
+            byte[] buf = new byte[1];
+            assertEquals(1, chs[i].read(buf, 0));
+            assertEquals((byte) i, buf[0]);
+            chs[i].close();
+        }
+    }
+
+    /**
+     * Mapped reads return the same bytes as channel reads, and see pages
+     * appended after the file was mapped.
+     */
+    @Test
+    public void mappedGrowth() throws Exception {
+        PageChannel ch = new PageChannel(tempFile());
+        ch.setMapped(true);
+        byte[] a = new byte[64];
+        Arrays.fill(a, (byte) 1);
+        ch.write(a, 0);
+        byte[] buf = new byte[64];
+        assertEquals(64, ch.read(buf, 0));
+        assertArrayEquals(a, buf);
+        assertEquals(-1, ch.read(buf, 64));
+
+        byte[] b = new byte[64];
+        Arrays.fill(b, (byte) 2);
+        ch.write(b, 64);
+        assertEquals(64, ch.read(buf, 64));
+        assertArrayEquals(b, buf);
+
+        // rewrites of mapped bytes are visible too
+        ch.write(b, 0);
+        assertEquals(64, ch.read(buf, 0));
+        assertArrayEquals(b, buf);
+        ch.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
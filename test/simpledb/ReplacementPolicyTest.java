@@ -0,0 +1,150 @@
+package simpledb;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest {
+
+    private static final int CAPACITY = 8;
+    private static final int SCAN_CAPACITY = 64;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Simulates a segment of the given capacity: fetches pid, evicting a
+     * page chosen by the policy on a miss when full.
+     */
+    private static void fetch(ReplacementPolicy p, Set<PageId> cached, PageId pid, int capacity) {
+        if (cached.contains(pid)) {
+            p.pageHit(pid);
+            return;
+        }
+        if (cached.size() == capacity) {
+            PageId victim = p.evict(id -> true);
+            assertNotNull(victim);
+            assertTrue(cached.remove(victim));
+        }
+        cached.add(pid);
+        p.pageAdded(pid);
+    }
+
+    /**
+     * Every policy evicts each cached page exactly once and nothing else.
+     */
+    @Test
+    public void evictsEveryPageOnce() {
+        for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+            ReplacementPolicy p = type.create(CAPACITY);
+            for (int i = 0; i < CAPACITY; i++) {
+                p.pageAdded(pid(i));
+            }
+            p.pageHit(pid(2));
+            Set<PageId> victims = new HashSet<>();
+            for (int i = 0; i < CAPACITY; i++) {
+                PageId victim = p.evict(id -> true);
+                assertNotNull(type.getName(), victim);
+                assertTrue(type.getName(), victims.add(victim));
+            }
+            assertNull(type.getName(), p.evict(id -> true));
+        }
+    }
+
+    /**
+     * Pages that may not be evicted are skipped, and removed pages are
+     * never returned as victims.
+     */
+    @Test
+    public void skipsPinnedAndRemovedPages() {
+        for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+            ReplacementPolicy p = type.create(CAPACITY);
+            for (int i = 0; i < 4; i++) {
+                p.pageAdded(pid(i));
+            }
+            p.pageRemoved(pid(0));
+            assertEquals(type.getName(), pid(3), p.evict(id -> id.equals(pid(3))));
+            assertNull(type.getName(), p.evict(id -> id.equals(pid(0))));
+            assertNull(type.getName(), p.evict(id -> false));
+        }
+    }
+
+    /**
+     * LRU evicts the least recently used page.
+     */
+    @Test
+    public void lruOrder() {
+        ReplacementPolicy p = ReplacementPolicy.Type.LRU.create(CAPACITY);
+        for (int i = 0; i < 3; i++) {
+            p.pageAdded(pid(i));
+        }
+        p.pageHit(pid(0));
+        assertEquals(pid(1), p.evict(id -> true));
+        assertEquals(pid(2), p.evict(id -> true));
+        assertEquals(pid(0), p.evict(id -> true));
+    }
+
+    /**
+     * A small hot set, referenced between the pages of a long sequential
+     * scan, survives the scan under the scan resistant policies. Each hot
+     * page is reused only after more distinct pages than fit in the segment,
+     * so under LRU every hot reference misses.
+     */
+    @Test
+    public void scanResistance() {
+        assertEquals(0, hotHitsDuringScan(ReplacementPolicy.Type.LRU));
+        assertEquals(HOT_REFS, hotHitsDuringScan(ReplacementPolicy.Type.TWO_Q));
+        assertEquals(HOT_REFS, hotHitsDuringScan(ReplacementPolicy.Type.LRU_K));
+    }
+
+    private static final int HOT = 8;
+    private static final int HOT_REFS = 100;
+
+    /** @return hits among the last HOT_REFS references to the hot set */
+    private static int hotHitsDuringScan(ReplacementPolicy.Type type) {
+        ReplacementPolicy p = type.create(SCAN_CAPACITY);
+        Set<PageId> cached = new HashSet<>();
+        int refs = 20 * HOT + HOT_REFS;
+        int hits = 0;
+        // one hot page between every 8 scan pages
+        for (int i = 0; i < 8 * refs; i++) {
+            fetch(p, cached, pid(10000 + i), SCAN_CAPACITY);
+            if (i % 8 == 7) {
+                PageId hot = pid((i / 8) % HOT);
+                if (i / 8 >= refs - HOT_REFS && cached.contains(hot)) {
+                    hits++;
+                }
+                fetch(p, cached, hot, SCAN_CAPACITY);
+            }
+        }
+        return hits;
+    }
+
+    @Test
+    public void fromName() {
+        assertEquals(ReplacementPolicy.Type.TWO_Q, ReplacementPolicy.Type.fromName("2q"));
+        assertEquals(ReplacementPolicy.Type.LRU_K, ReplacementPolicy.Type.fromName("LRU-K"));
+        assertEquals(ReplacementPolicy.Type.CLOCK, ReplacementPolicy.Type.fromName("clock"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownName() {
+        ReplacementPolicy.Type.fromName("mru");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortAggregate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SortAggregateTest extends SimpleDbTestBase {
+
+  private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+      Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG};
+  private static final int[] AFIELDS = {1, 1, 2, 2, 1};
+
+  private BTreeFile tree;
+  private TransactionId tid;
+
+  /**
+   * Creates a B+ tree keyed on its first column, which has about 500
+   * values, registered as "satree" with fields c0 to c2.
+   */
+  @Before public void createTree() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(3, 20000, 500, null, null, 0);
+    tree = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(3, "c"));
+    Database.getCatalog().addTable(tree, "satree");
+    TableStats.setTableStats("satree", new TableStats(tree.getId(), 1));
+    tid = new TransactionId();
+  }
+
+  /**
+   * Over a scan of the tree on its key, the result equals that of the hash
+   * aggregate, with or without grouping, in both execution modes.
+   */
+  @Test public void matchesAggregate() throws Exception {
+    for (int[] gfields : new int[][]{{0}, {}}) {
+      List<String> expected = TestUtil.sortedContents(new Aggregate(new SeqScan(tid, tree.getId()), AFIELDS, OPS, gfields));
+      SortAggregate sorted = new SortAggregate(new SeqScan(tid, tree.getId()), AFIELDS, OPS, gfields);
+      assertEquals(new Aggregate(new SeqScan(tid, tree.getId()), AFIELDS, OPS, gfields).getTupleDesc(),
+          sorted.getTupleDesc());
+      assertEquals(expected, TestUtil.sortedContents(sorted));
+      sorted.setBatchMode(true);
+      assertEquals(expected, TestUtil.sortedContents(sorted));
+    }
+  }
+
+  /**
+   * The first group is returned after reading one row past it, and
+   * rewind() starts over.
+   */
+  @Test public void streams() throws Exception {
+    final int[] read = {0};
+    TupleIterator sorted = (TupleIterator) TestUtil.createTupleList(2,
+        new int[]{1, 10,
+                  1, 20,
+                  2, 5,
+                  3, 7,
+                  3, 9});
+    TupleDesc td = sorted.getTupleDesc();
+    List<Tuple> rows = new ArrayList<>();
+    sorted.open();
+    while (sorted.hasNext()) {
+      rows.add(sorted.next());
+    }
+    OpIterator counted = new TupleIterator(td, rows) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public Tuple next() {
+        read[0]++;
+        return super.next();
+      }
+    };
+    SortAggregate a = new SortAggregate(counted, 1, 0, Aggregator.Op.SUM);
+    a.open();
+    Tuple first = a.next();
+    assertEquals(3, read[0]);
+    assertEquals(1, first.getInt(0));
+    assertEquals(30, first.getInt(1));
+    assertEquals(5, a.next().getInt(1));
+    assertEquals(16, a.next().getInt(1));
+    assertFalse(a.hasNext());
+    a.rewind();
+    assertEquals(30, a.next().getInt(1));
+    a.close();
+
+    SortAggregate empty = new SortAggregate(new TupleIterator(td, new ArrayList<>()), 1,
+        Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+    assertEquals(0, TestUtil.sortedContents(empty).size());
+  }
+
+  private OpIterator plan(String sql) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    OperatorCardinality.updateOperatorCardinality((Operator) plan,
+        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+    new QueryPlanVisualizer().printQueryPlanTree(plan, System.out);
+    return plan;
+  }
+
+  /**
+   * The planner aggregates groups one at a time when the table is read in
+   * order of the group-by field, and hashes them otherwise.
+   */
+  @Test public void planned() throws Exception {
+    OpIterator byKey = plan("SELECT t.c0, SUM(t.c1), MAX(t.c2) FROM satree t WHERE t.c2 > 100 GROUP BY t.c0;");
+    assertTrue(((Operator) byKey).getChildren()[0] instanceof SortAggregate);
+    OpIterator filtered = new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100)),
+        new SeqScan(tid, tree.getId()));
+    assertEquals(TestUtil.sortedContents(new Aggregate(filtered, new int[]{1, 2},
+        new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MAX}, new int[]{0})), TestUtil.sortedContents(byKey));
+
+    OpIterator byOther = plan("SELECT t.c1, COUNT(t.c0) FROM satree t GROUP BY t.c1;");
+    assertTrue(((Operator) byOther).getChildren()[0] instanceof Aggregate);
+    assertEquals(TestUtil.sortedContents(new Aggregate(new SeqScan(tid, tree.getId()), 0, 1, Aggregator.Op.COUNT)),
+        TestUtil.sortedContents(byOther));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortAggregateTest.class);
+  }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  /**
+   * Checks that a merge join with operator op over unsorted inputs returns
+   * the same tuples as a nested-loop join, also after a rewind.
+   */
+  private void matchesNestedLoop(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    OpIterator left = TestUtil.createKeyedTupleList(300, 1, r -> r.nextInt(50));
+    OpIterator right = TestUtil.createKeyedTupleList(200, 2, r -> r.nextInt(50));
+    Join nl = new Join(pred, left, right);
+    nl.open();
+    List<String> expected = TestUtil.sortedTuples(nl);
+    nl.close();
+
+    SortMergeJoin smj = new SortMergeJoin(pred, left, right);
+    smj.open();
+    assertEquals(expected, TestUtil.sortedTuples(smj));
+    smj.rewind();
+    assertEquals(expected, TestUtil.sortedTuples(smj));
+    smj.close();
+  }
+
+  @Test public void equals() throws Exception {
+    matchesNestedLoop(Predicate.Op.EQUALS);
+  }
+
+  @Test public void lessThan() throws Exception {
+    matchesNestedLoop(Predicate.Op.LESS_THAN);
+    matchesNestedLoop(Predicate.Op.LESS_THAN_OR_EQ);
+  }
+
+  @Test public void greaterThan() throws Exception {
+    matchesNestedLoop(Predicate.Op.GREATER_THAN);
+    matchesNestedLoop(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * Output comes in ascending order of the outer join field, so a merge
+   * join can feed another one without a sort.
+   */
+  @Test public void outputOrder() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, TestUtil.createKeyedTupleList(100, 3, r -> r.nextInt(20)),
+        TestUtil.createKeyedTupleList(100, 4, r -> r.nextInt(20)));
+    assertTrue(SortMergeJoin.isOrderedOn(smj, 0));
+    smj.open();
+    int last = Integer.MIN_VALUE;
+    while (smj.hasNext()) {
+      Tuple t = smj.next();
+      int key = t.getInt(0);
+      assertTrue(key >= last);
+      last = key;
+    }
+    smj.close();
+  }
+
+  @Test public void isOrderedOn() {
+    OpIterator scan = TestUtil.createKeyedTupleList(10, 5, r -> r.nextInt(5));
+    assertFalse(SortMergeJoin.isOrderedOn(scan, 0));
+    assertTrue(SortMergeJoin.isOrderedOn(new OrderBy(1, true, scan), 1));
+    assertFalse(SortMergeJoin.isOrderedOn(new OrderBy(1, true, scan), 0));
+    assertFalse(SortMergeJoin.isOrderedOn(new OrderBy(1, false, scan), 1));
+  }
+
+  /**
+   * The optimizer prices an equality join over sorted inputs as a merge,
+   * below the cost of a join that has to build or loop, and a range join
+   * below a nested-loop join even when it has to sort.
+   */
+  @Test public void cost() {
+    JoinOptimizer jo = new JoinOptimizer(null, new ArrayList<>());
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.EQUALS);
+    double unsorted = jo.estimateJoinCost(eq, 10000, 10000, 100, 100);
+    assertEquals(unsorted, jo.estimateJoinCost(eq, 10000, 10000, 100, 100, true, false), 0);
+    assertTrue(jo.estimateJoinCost(eq, 10000, 10000, 100, 100, true, true) < unsorted);
+
+    LogicalJoinNode lt = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.LESS_THAN);
+    double sorted = jo.estimateJoinCost(lt, 10000, 10000, 100, 100, true, true);
+    double oneSorted = jo.estimateJoinCost(lt, 10000, 10000, 100, 100, true, false);
+    assertTrue(sorted < oneSorted);
+    assertTrue(oneSorted < 100 + 10000 * 100 + 10000 * 10000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        TestUtil.createKeyedTupleList(10, 6, r -> r.nextInt(5)),
+        TestUtil.createKeyedTupleList(10, 7, r -> r.nextInt(5)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -10,14 +10,17 @@ import org.junit.Assert;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.execution.Predicate;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -160,4 +163,15 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Computing the statistics of a table leaves no locks behind, so a
+	 * transaction can write to the table afterwards.
+	 */
+	@Test(timeout = 20000) public void releasesLocks() throws Exception {
+		new TableStats(this.tableId, IO_COST);
+		TransactionId tid = new TransactionId();
+		Database.getBufferPool().getPage(tid, new HeapPageId(this.tableId, 0), Permissions.READ_WRITE);
+		Database.getBufferPool().transactionComplete(tid);
+	}
 }
@@ -8,6 +8,7 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.ToIntFunction;
 
 import static org.junit.Assert.*;
 
@@ -151,6 +152,50 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return an open OpIterator over two-column tuples with a key in the
+     *   first column and the row number in the second
+     * @param rows the number of tuples
+     * @param seed the seed of the Random that keys draws from
+     * @param keys draws the key of each row
+     */
+    public static TupleIterator createKeyedTupleList(int rows, long seed, ToIntFunction<Random> keys) {
+        Random r = new Random(seed);
+        int[] data = new int[rows * 2];
+        for (int i = 0; i < rows; i++) {
+            data[2 * i] = keys.applyAsInt(r);
+            data[2 * i + 1] = i;
+        }
+        return createTupleList(2, data);
+    }
+
+    /**
+     * @return the remaining tuples of an open OpIterator as strings, sorted,
+     *   so that results can be compared whatever order they come in
+     */
+    public static List<String> sortedTuples(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<String> l = new ArrayList<>();
+        while (it.hasNext()) {
+            l.add(it.next().toString());
+        }
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * Opens the OpIterator, reads all of its tuples and closes it.
+     * @return the tuples as strings, sorted
+     * @see #sortedTuples(OpIterator)
+     */
+    public static List<String> sortedContents(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        List<String> l = sortedTuples(it);
+        it.close();
+        return l;
+    }
+
     /**
      * Verifies that the OpIterator has been exhausted of all elements.
      */
@@ -0,0 +1,186 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  private static OpIterator input() {
+    return TestUtil.createTupleList(2,
+        new int[] { 5, 0,
+                    3, 1,
+                    9, 2,
+                    1, 3,
+                    7, 4,
+                    3, 5 });
+  }
+
+  /**
+   * Unit test for TopN.getNext() in ascending order
+   */
+  @Test public void ascending() throws Exception {
+    TopN op = new TopN(0, true, 3, input());
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(1, new int[] { 1, 3, 3 });
+    expected.open();
+    while (expected.hasNext()) {
+      assertEquals(expected.next().getField(0), op.next().getField(0));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for TopN.getNext() in descending order
+   */
+  @Test public void descending() throws Exception {
+    TopN op = new TopN(0, false, 2, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 9, 2, 7, 4 }), op);
+  }
+
+  /**
+   * A limit of 0 returns nothing; one beyond the input returns all of it,
+   * without allocating room for the whole limit
+   */
+  @Test public void limits() throws Exception {
+    TopN none = new TopN(0, true, 0, input());
+    none.open();
+    assertTrue(TestUtil.checkExhausted(none));
+
+    for (int limit : new int[] { 100, Integer.MAX_VALUE }) {
+      TopN all = new TopN(0, true, limit, input());
+      all.open();
+      int n = 0;
+      while (all.hasNext()) {
+        all.next();
+        n++;
+      }
+      assertEquals(6, n);
+    }
+  }
+
+  /**
+   * Unit test for TopN.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopN op = new TopN(0, true, 2, input());
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 1, 3, 3, 1 }), op);
+  }
+
+  /**
+   * Unit test for Limit.getNext() and Limit.rewind()
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(2, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 5, 0, 3, 1 }), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 5, 0, 3, 1 }), op);
+  }
+
+  /**
+   * LIMIT is parsed, and fused with ORDER BY into a TopN
+   */
+  @Test public void plan() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile table = new HeapFile(SystemTestUtil.createRandomHeapFileUnopened(2, 500, 1000, null, tuples),
+        Utility.getTupleDesc(2, "c"));
+    String name = "topn";
+    Database.getCatalog().addTable(table, name);
+    TableStats.setTableStats(name, new TableStats(table.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+
+    LogicalPlan lp = p.generateLogicalPlan(tid,
+        "SELECT t.c0 FROM " + name + " t ORDER BY t.c0 DESC LIMIT 5;");
+    assertEquals(5, lp.getLimit());
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+    tuples.sort(Comparator.comparing((List<Integer> t) -> t.get(0)).reversed());
+    plan.open();
+    for (int i = 0; i < 5; i++) {
+      assertEquals((int) tuples.get(i).get(0), plan.next().getInt(0));
+    }
+    assertTrue(TestUtil.checkExhausted(plan));
+    plan.close();
+
+    lp = p.generateLogicalPlan(tid, "SELECT t.c1 FROM " + name + " t limit 7;");
+    plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+    plan.open();
+    for (int i = 0; i < 7; i++) {
+      plan.next();
+    }
+    assertTrue(TestUtil.checkExhausted(plan));
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * LIMIT on a statement other than SELECT is rejected rather than
+   * ignored, and so is a LIMIT too large for an int
+   */
+  @Test(timeout = 20000) public void limitOnlyInSelect() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile table = new HeapFile(SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1000, null, tuples),
+        Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(table, "limited");
+    TableStats.setTableStats("limited", new TableStats(table.getId(), 1));
+    HeapFile copy = new HeapFile(SystemTestUtil.createRandomHeapFileUnopened(2, 0, 1000, null, null),
+        Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(copy, "limitedcopy");
+    TableStats.setTableStats("limitedcopy", new TableStats(copy.getId(), 1));
+    Parser p = new Parser();
+
+    p.processNextStatement("DELETE FROM limited LIMIT 1;");
+    p.processNextStatement("INSERT INTO limitedcopy SELECT * FROM limited LIMIT 1;");
+    SystemTestUtil.matchTuples(table, tuples);
+    SystemTestUtil.matchTuples(copy, new ArrayList<>());
+
+    TransactionId tid = new TransactionId();
+    try {
+      p.generateLogicalPlan(tid, "SELECT t.c0 FROM limited t LIMIT 99999999999;");
+      fail("LIMIT beyond an int was parsed");
+    } catch (ParsingException expected) {
+    }
+    p.processNextStatement("SELECT t.c0 FROM limited t LIMIT 99999999999;");
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
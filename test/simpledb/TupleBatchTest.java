@@ -0,0 +1,189 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.Query;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  /**
+   * Returns the rows of it, read in batches, as sorted strings.
+   */
+  private static List<String> batches(OpIterator it) throws Exception {
+    List<String> l = new ArrayList<>();
+    it.open();
+    TupleBatch b;
+    while ((b = it.nextBatch()) != null) {
+      assertTrue(b.size() > 0);
+      for (int r = 0; r < b.size(); r++) {
+        l.add(b.getTuple(r).toString());
+      }
+    }
+    assertNull(it.nextBatch());
+    it.close();
+    Collections.sort(l);
+    return l;
+  }
+
+  @Test public void retainAndProject() {
+    TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+    TupleBatch b = new TupleBatch(td, 4);
+    for (int i = 0; i < 4; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+      b.add(t);
+    }
+    assertTrue(b.isFull());
+    // the same column twice must only be compacted once
+    TupleBatch p = b.project(new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE}),
+        new int[]{0, 0, 1});
+    p.retain(new int[]{1, 3}, 2);
+    assertEquals(2, p.size());
+    assertEquals(Arrays.asList(1, 1, 3, 3), Arrays.asList(p.getInt(0, 0), p.getInt(0, 1),
+        p.getInt(1, 0), p.getInt(1, 1)));
+    assertEquals(new StringField("s3", Type.STRING_LEN), p.getField(1, 2));
+  }
+
+  /**
+   * A batched scan returns what a tuple scan does, also for tuples
+   * inserted into cached pages.
+   */
+  @Test public void seqScan() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, null);
+    TransactionId tid = new TransactionId();
+    Tuple t = new Tuple(f.getTupleDesc());
+    for (int i = 0; i < 3; i++) {
+      t.setField(i, new IntField(-1));
+    }
+    Database.getBufferPool().insertTuple(tid, f.getId(), t);
+    List<String> expected = TestUtil.sortedContents(new SeqScan(tid, f.getId()));
+    assertEquals(5001, expected.size());
+    assertEquals(expected, batches(new SeqScan(tid, f.getId())));
+  }
+
+  /**
+   * Filter, Project and Aggregate give the same results in both modes; in
+   * batch mode the aggregate reads its input in batches.
+   */
+  @Test public void filterProjectAggregate() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, null);
+    TransactionId tid = new TransactionId();
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+        new SeqScan(tid, f.getId()));
+    List<String> expected = TestUtil.sortedContents(filter);
+    assertEquals(expected, batches(filter));
+
+    Project project = new Project(Arrays.asList(2, 0), Arrays.asList(Type.INT_TYPE, Type.INT_TYPE), filter);
+    expected = TestUtil.sortedContents(project);
+    assertEquals(expected, batches(project));
+
+    for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MAX}) {
+      Aggregate agg = new Aggregate(project, 1, 0, op);
+      Aggregate total = new Aggregate(project, 1, Aggregator.NO_GROUPING, op);
+      List<String> groups = TestUtil.sortedContents(agg), all = TestUtil.sortedContents(total);
+      agg.setBatchMode(true);
+      total.setBatchMode(true);
+      assertEquals(groups, TestUtil.sortedContents(agg));
+      assertEquals(all, batches(total));
+    }
+  }
+
+  /**
+   * A batched hash join returns what it returns tuple by tuple, also when
+   * its build side spills to disk.
+   */
+  @Test public void hashJoin() throws Exception {
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, null);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 3000, 500, null, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    HashEquiJoin join = new HashEquiJoin(pred, new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId()));
+    List<String> expected = TestUtil.sortedContents(join);
+    assertTrue(expected.size() > TupleBatch.DEFAULT_SIZE);
+    assertEquals(expected, batches(join));
+
+    join.setMemoryBudget(200 * 72);
+    join.open();
+    List<String> rows = new ArrayList<>();
+    TupleBatch b;
+    while ((b = join.nextBatch()) != null) {
+      for (int r = 0; r < b.size(); r++) {
+        rows.add(b.getTuple(r).toString());
+      }
+    }
+    assertTrue(join.getSpilledPartitions() > 0);
+    join.close();
+    Collections.sort(rows);
+    assertEquals(expected, rows);
+  }
+
+  /**
+   * Operators without a batched implementation are read through the
+   * default adapter, and a query in batch mode hands out the rows of the
+   * batches as tuples.
+   */
+  @Test public void fallbackAndQuery() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+    TransactionId tid = new TransactionId();
+    OrderBy order = new OrderBy(1, true, new SeqScan(tid, f.getId()));
+    List<String> expected = TestUtil.sortedContents(order);
+    assertEquals(expected, batches(order));
+
+    Query q = new Query(new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(100)),
+        new SeqScan(tid, f.getId())), tid);
+    q.setBatchMode(true);
+    List<String> rows = new ArrayList<>();
+    q.start();
+    // the query passes its mode to its plan
+    assertTrue(((Operator) q.getPhysicalPlan()).isBatchMode());
+    assertFalse(new Query(tid).isBatchMode());
+    while (q.hasNext()) {
+      rows.add(q.next().toString());
+    }
+    q.close();
+    Collections.sort(rows);
+    assertEquals(TestUtil.sortedContents(new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(100)),
+        new SeqScan(tid, f.getId()))), rows);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
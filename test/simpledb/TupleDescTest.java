@@ -173,6 +173,37 @@ public class TupleDescTest extends SimpleDbTestBase {
         assertEquals(intString2, intString);
     }
 
+    /**
+     * Unit test for TupleDesc.hashCode(): equal descriptors hash alike
+     */
+    @Test public void testHashCode() {
+        TupleDesc named = Utility.getTupleDesc(3, "a");
+        TupleDesc unnamed = Utility.getTupleDesc(3);
+        assertEquals(named, unnamed);
+        assertEquals(named.hashCode(), unnamed.hashCode());
+    }
+
+    /**
+     * Unit test for TupleDesc.getOffset()
+     */
+    @Test public void getOffset() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        assertEquals(0, td.getOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getOffset(2));
+    }
+
+    /**
+     * Unit test for TupleDesc.intern(): equal types and names give one instance
+     */
+    @Test public void intern() {
+        TupleDesc td1 = Utility.getTupleDesc(3, "intern");
+        TupleDesc td2 = Utility.getTupleDesc(3, "intern");
+        assertNotSame(td1, td2);
+        assertSame(td1.intern(), td2.intern());
+        assertNotSame(td1.intern(), Utility.getTupleDesc(3, "other").intern());
+    }
+
     /**
      * JUnit suite target
      */
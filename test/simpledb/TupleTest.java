@@ -31,6 +31,51 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.merge()
+     */
+    @Test public void merge() {
+        Tuple t1 = Utility.getHeapTuple(new int[]{1, 2});
+        Tuple t2 = Utility.getHeapTuple(new int[]{3, 4, 5});
+        TupleDesc td = TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc());
+        Tuple t = Tuple.merge(td, t1, t2);
+        assertEquals(td, t.getTupleDesc());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(new IntField(i + 1), t.getField(i));
+        }
+    }
+
+    /**
+     * Tuple.merge() rejects a schema without room for exactly the fields
+     * of both tuples.
+     */
+    @Test(expected = IllegalArgumentException.class) public void mergeWrongWidth() {
+        Tuple t1 = Utility.getHeapTuple(new int[]{1, 2});
+        Tuple t2 = Utility.getHeapTuple(new int[]{3, 4, 5});
+        Tuple.merge(Utility.getTupleDesc(4), t1, t2);
+    }
+
+    /**
+     * Unit test for Tuple.project()
+     */
+    @Test public void project() {
+        Tuple t = Utility.getHeapTuple(new int[]{1, 2, 3});
+        t.setRecordId(new RecordId(new HeapPageId(0, 0), 7));
+        Tuple p = t.project(Utility.getTupleDesc(2), new int[]{2, 0});
+        assertEquals(new IntField(3), p.getField(0));
+        assertEquals(new IntField(1), p.getField(1));
+        assertEquals(t.getRecordId(), p.getRecordId());
+    }
+
+    /**
+     * Unit test for Tuple.getInt()
+     */
+    @Test public void getInt() {
+        Tuple t = Utility.getHeapTuple(new int[]{-5, 7});
+        assertEquals(-5, t.getInt(0));
+        assertEquals(7, t.getInt(1));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,169 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortAggregate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * SELECT c0, c1, SUM(c2), COUNT(c2), MAX(c3), MIN(c3), AVG(c2) GROUP BY c0,
+ * c1, computed by one Aggregate in one pass over the table, against one
+ * query per aggregate as was needed when Aggregate computed a single
+ * aggregate grouped by a single column. Both are run in tuple and batch
+ * mode over a cached table.
+ * <p>
+ * Then SUM, COUNT and MAX grouped by a column that is nearly unique, in
+ * memory and with a memory budget of -Dbench.budget KB (default 1024) that
+ * makes the aggregate spill partial groups to disk.
+ * <p>
+ * Last, SUM and COUNT grouped by the key of a B+ tree with -Dbench.rows/4
+ * rows and a value per 4 rows, scanned in key order, by the hash aggregate
+ * and by {@link SortAggregate}: the time of the whole query and the time
+ * to its first row.
+ * <p>
+ * Settings: -Dbench.rows (default 1000000), -Dbench.groups (distinct
+ * values of each group-by column, default 100), -Dbench.runs (default 5).
+ */
+public class AggregateBenchmark {
+
+    private static final int WARMUP_RUNS = 3;
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MAX, Aggregator.Op.MIN, Aggregator.Op.AVG};
+    private static final int[] FIELDS = {2, 2, 3, 3, 2};
+    private static final int[] GROUPS = {0, 1};
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 1000000);
+        int groups = BenchmarkUtil.intProperty("bench.groups", 100);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 5);
+
+        HeapFile f = BenchmarkUtil.createTable(4, rows, groups, null);
+        Database.resetBufferPool(f.numPages() + 10);
+
+        for (boolean batch : new boolean[]{false, true}) {
+            String mode = batch ? "batch mode" : "tuple mode";
+            double separate = measure(f, false, batch, runs);
+            double single = measure(f, true, batch, runs);
+            BenchmarkUtil.report("AggregateBenchmark", OPS.length + " queries, " + mode, "ms", separate);
+            BenchmarkUtil.report("AggregateBenchmark", "1 query, " + mode, "ms", single);
+            BenchmarkUtil.report("AggregateBenchmark", mode, "speedup", separate / single);
+        }
+
+        HeapFile unique = BenchmarkUtil.createTable(3, rows, Integer.MAX_VALUE, null);
+        Database.resetBufferPool(unique.numPages() + 10);
+        long budget = BenchmarkUtil.intProperty("bench.budget", 1024) * 1024L;
+        for (long bytes : new long[]{Long.MAX_VALUE, budget}) {
+            String variant = bytes == Long.MAX_VALUE ? "unique keys, in memory"
+                    : "unique keys, " + budget / 1024 + "KB budget";
+            int spilled = 0;
+            for (int r = 0; r < WARMUP_RUNS; r++) {
+                spilled = runUnique(unique, bytes);
+            }
+            long st = System.nanoTime();
+            for (int r = 0; r < runs; r++) {
+                runUnique(unique, bytes);
+            }
+            BenchmarkUtil.report("AggregateBenchmark", variant, "ms", BenchmarkUtil.secondsSince(st) * 1000 / runs);
+            BenchmarkUtil.report("AggregateBenchmark", variant, "spilled partitions", spilled);
+        }
+
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, rows / 4, rows / 16, null, null, 0);
+        Database.resetBufferPool(tree.numPages() + 10);
+        for (boolean sorted : new boolean[]{false, true}) {
+            String variant = sorted ? "sorted input, sort aggregate" : "sorted input, hash aggregate";
+            for (int r = 0; r < WARMUP_RUNS; r++) {
+                runSorted(tree, sorted, null);
+            }
+            double[] firstRow = new double[1];
+            double total = 0, first = 0;
+            for (int r = 0; r < runs; r++) {
+                long st = System.nanoTime();
+                runSorted(tree, sorted, firstRow);
+                total += BenchmarkUtil.secondsSince(st);
+                first += firstRow[0];
+            }
+            BenchmarkUtil.report("AggregateBenchmark", variant, "ms", total * 1000 / runs);
+            BenchmarkUtil.report("AggregateBenchmark", variant, "ms to first row", first * 1000 / runs);
+        }
+    }
+
+    /**
+     * Aggregates the tree by its key; if firstRow is not null, sets its
+     * first entry to the seconds until the first row was returned.
+     */
+    private static void runSorted(BTreeFile tree, boolean sorted, double[] firstRow) throws Exception {
+        TransactionId tid = new TransactionId();
+        int[] afields = {1, 1};
+        Aggregator.Op[] ops = {Aggregator.Op.SUM, Aggregator.Op.COUNT};
+        OpIterator scan = new SeqScan(tid, tree.getId());
+        OpIterator it = sorted ? new SortAggregate(scan, afields, ops, new int[]{0})
+                : new Aggregate(scan, afields, ops, new int[]{0});
+        long st = System.nanoTime();
+        it.open();
+        it.next();
+        if (firstRow != null) {
+            firstRow[0] = BenchmarkUtil.secondsSince(st);
+        }
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of partitions the aggregate spilled to */
+    private static int runUnique(HeapFile f, long budget) throws Exception {
+        TransactionId tid = new TransactionId();
+        Aggregate a = new Aggregate(new SeqScan(tid, f.getId()), new int[]{1, 1, 2},
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MAX}, new int[]{0});
+        a.setMemoryBudget(budget);
+        drain(a, false);
+        Database.getBufferPool().transactionComplete(tid);
+        return a.getSpilledPartitions();
+    }
+
+    private static double measure(HeapFile f, boolean together, boolean batch, int runs) throws Exception {
+        for (int r = 0; r < WARMUP_RUNS; r++) {
+            run(f, together, batch);
+        }
+        long st = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            run(f, together, batch);
+        }
+        return BenchmarkUtil.secondsSince(st) * 1000 / runs;
+    }
+
+    private static long run(HeapFile f, boolean together, boolean batch) throws Exception {
+        TransactionId tid = new TransactionId();
+        long n = 0;
+        if (together) {
+            n += drain(new Aggregate(new SeqScan(tid, f.getId()), FIELDS, OPS, GROUPS), batch);
+        } else {
+            for (int j = 0; j < OPS.length; j++) {
+                n += drain(new Aggregate(new SeqScan(tid, f.getId()), new int[]{FIELDS[j]},
+                        new Aggregator.Op[]{OPS[j]}, GROUPS), batch);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static long drain(Aggregate a, boolean batch) throws Exception {
+        long n = 0;
+        a.setBatchMode(batch);
+        a.open();
+        while (a.hasNext()) {
+            a.next();
+            n++;
+        }
+        a.close();
+        return n;
+    }
+}
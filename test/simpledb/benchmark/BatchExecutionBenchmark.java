@@ -0,0 +1,160 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Queries shaped after TPC-H, run tuple at a time and batch at a time (see
+ * {@link Operator#setBatchMode}). In tuple mode the plan is read with
+ * next(), in batch mode with nextBatch().
+ * <p>
+ * lineitem(orderkey, quantity, price, discount, shipdate, returnflag,
+ * linestatus) has 4 rows per order; orders(orderkey, custkey, orderdate,
+ * priority). Dates are days in [0, 2556). The queries:
+ * <ul>
+ * <li>Q1: sum(quantity) of lineitem with shipdate &lt;= 2400, grouped by
+ * returnflag
+ * <li>Q6: sum(price) of lineitem with shipdate in [365, 730), discount in
+ * [5, 7] and quantity &lt; 24
+ * <li>Q3: count of lineitem with shipdate &gt; 1200 joined with orders with
+ * orderdate &lt; 1200 on orderkey
+ * <li>scan: orderkey and price of lineitem with quantity &lt; 10
+ * </ul>
+ * Tables are cached and each mode is warmed up before measuring.
+ * <p>
+ * Settings: -Dbench.rows (lineitem rows, default 1000000), -Dbench.runs
+ * (default 10).
+ */
+public class BatchExecutionBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    private static final int WARMUP_RUNS = 5;
+
+    private static final int L_ORDERKEY = 0, L_QUANTITY = 1, L_PRICE = 2, L_DISCOUNT = 3,
+            L_SHIPDATE = 4, L_RETURNFLAG = 5;
+    private static final int O_ORDERKEY = 0, O_ORDERDATE = 2;
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 1000000);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 10);
+
+        Random r = new Random(1);
+        List<List<Integer>> l = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            l.add(Arrays.asList(i / 4, 1 + r.nextInt(50), 900 + r.nextInt(100000), r.nextInt(11),
+                    r.nextInt(2556), r.nextInt(3), r.nextInt(2)));
+        }
+        final HeapFile lineitem = table(l, 7);
+        List<List<Integer>> o = new ArrayList<>(rows / 4);
+        for (int i = 0; i < rows / 4; i++) {
+            o.add(Arrays.asList(i, r.nextInt(150000), r.nextInt(2556), r.nextInt(5)));
+        }
+        final HeapFile orders = table(o, 4);
+        Database.resetBufferPool(lineitem.numPages() + orders.numPages() + 10);
+
+        compare("Q1", runs, tid -> new Aggregate(
+                filter(L_SHIPDATE, Predicate.Op.LESS_THAN_OR_EQ, 2400, new SeqScan(tid, lineitem.getId())),
+                L_QUANTITY, L_RETURNFLAG, Aggregator.Op.SUM));
+        compare("Q6", runs, tid -> new Aggregate(
+                filter(L_QUANTITY, Predicate.Op.LESS_THAN, 24,
+                filter(L_DISCOUNT, Predicate.Op.LESS_THAN_OR_EQ, 7,
+                filter(L_DISCOUNT, Predicate.Op.GREATER_THAN_OR_EQ, 5,
+                filter(L_SHIPDATE, Predicate.Op.LESS_THAN, 730,
+                filter(L_SHIPDATE, Predicate.Op.GREATER_THAN_OR_EQ, 365,
+                        new SeqScan(tid, lineitem.getId())))))),
+                L_PRICE, Aggregator.NO_GROUPING, Aggregator.Op.SUM));
+        compare("Q3", runs, tid -> new Aggregate(new HashEquiJoin(
+                new JoinPredicate(O_ORDERKEY, Predicate.Op.EQUALS, L_ORDERKEY),
+                filter(O_ORDERDATE, Predicate.Op.LESS_THAN, 1200, new SeqScan(tid, orders.getId())),
+                filter(L_SHIPDATE, Predicate.Op.GREATER_THAN, 1200, new SeqScan(tid, lineitem.getId()))),
+                O_ORDERKEY, Aggregator.NO_GROUPING, Aggregator.Op.COUNT));
+        compare("scan", runs, tid -> new Project(Arrays.asList(L_ORDERKEY, L_PRICE),
+                Arrays.asList(Type.INT_TYPE, Type.INT_TYPE),
+                filter(L_QUANTITY, Predicate.Op.LESS_THAN, 10, new SeqScan(tid, lineitem.getId()))));
+    }
+
+    private static OpIterator filter(int field, Predicate.Op op, int value, OpIterator child) {
+        return new Filter(new Predicate(field, op, new IntField(value)), child);
+    }
+
+    private static HeapFile table(List<List<Integer>> tuples, int columns) throws Exception {
+        File f = File.createTempFile("batch", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns);
+        return Utility.openHeapFile(columns, f);
+    }
+
+    private static void compare(String query, int runs, Plan plan) throws Exception {
+        double tuples = measure(false, runs, plan);
+        double batches = measure(true, runs, plan);
+        BenchmarkUtil.report("BatchExecutionBenchmark", query + ", tuple mode", "ms/query", tuples);
+        BenchmarkUtil.report("BatchExecutionBenchmark", query + ", batch mode", "ms/query", batches);
+        BenchmarkUtil.report("BatchExecutionBenchmark", query, "speedup", tuples / batches);
+    }
+
+    private static double measure(boolean batch, int runs, Plan plan) throws Exception {
+        // warm up (also caches the tables and lets the JIT compile the
+        // loops of the mode), then measure
+        long rows = run(batch, plan);
+        for (int r = 0; r < WARMUP_RUNS; r++) {
+            run(batch, plan);
+        }
+        long st = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            if (run(batch, plan) != rows) {
+                throw new IllegalStateException("result size changed between runs");
+            }
+        }
+        return BenchmarkUtil.secondsSince(st) * 1000 / runs;
+    }
+
+    private static long run(boolean batch, Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = plan.build(tid);
+        if (it instanceof Operator) {
+            ((Operator) it).setBatchMode(batch);
+        }
+        long n = 0;
+        it.open();
+        if (batch) {
+            TupleBatch b;
+            while ((b = it.nextBatch()) != null) {
+                n += b.size();
+            }
+        } else {
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb.benchmark;
+
+import java.io.IOException;
+import java.util.Map;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Helpers shared by the benchmark drivers in this package. Benchmarks are
+ * plain main() programs rather than JUnit tests; run one with
+ * <pre>ant runbench -Dbench=BufferPoolBenchmark</pre>
+ */
+public class BenchmarkUtil {
+
+    /** Creates a random heap file with the given shape and registers it in the catalog. */
+    public static HeapFile createTable(int columns, int rows, int maxValue,
+                                       Map<Integer, Integer> columnSpecification) throws IOException {
+        return SystemTestUtil.createRandomHeapFile(columns, rows, maxValue, columnSpecification, null);
+    }
+
+    /** Reads an integer setting from a system property, e.g. -Dbench.threads=8. */
+    public static int intProperty(String name, int def) {
+        String v = System.getProperty(name);
+        return v == null ? def : Integer.parseInt(v);
+    }
+
+    /** Runs a full garbage collection and returns the used heap in bytes. */
+    public static long usedHeap() {
+        return SystemTestUtil.getMemoryFootprint();
+    }
+
+    /** Clears all cached pages so that the next run starts cold. */
+    public static void coldCache() {
+        Database.resetBufferPool(Database.getBufferPool().getNumPages());
+    }
+
+    /** Prints one result row in a fixed, grep-friendly format. */
+    public static void report(String benchmark, String variant, String metric, double value) {
+        System.out.printf("%-28s %-34s %-18s %14.2f%n", benchmark, variant, metric, value);
+    }
+
+    /** Elapsed seconds since a System.nanoTime() start mark. */
+    public static double secondsSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A nested-loop join whose inner table does not fit in the buffer pool, so
+ * every scan of it reads its pages from disk. The join scans the inner
+ * table once per block of outer tuples; the benchmark varies the block
+ * size from one outer page to the whole outer table.
+ * <p>
+ * The join predicate is a.c0 &lt; b.c0 with b.c0 always 0, so the join
+ * returns nothing and the time goes to scanning, not to output.
+ * <p>
+ * Settings: -Dbench.outer (outer rows, default 5000), -Dbench.inner (inner
+ * rows, default 20000), -Dbench.pool (buffer pool pages, default 50).
+ */
+public class BlockJoinBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int outerRows = BenchmarkUtil.intProperty("bench.outer", 5000);
+        int innerRows = BenchmarkUtil.intProperty("bench.inner", 20000);
+        int pool = BenchmarkUtil.intProperty("bench.pool", 50);
+
+        HeapFile outer = BenchmarkUtil.createTable(2, outerRows, 1000, null);
+        // the inner join column is always 0, and outer values are below 1000
+        Map<Integer, Integer> zero = new HashMap<>();
+        zero.put(0, 0);
+        HeapFile inner = BenchmarkUtil.createTable(10, innerRows, 1000, zero);
+        Database.resetBufferPool(pool);
+
+        for (int pages : new int[]{1, 10, 100}) {
+            measure(pages + " outer page(s) per block", outer, inner, pages);
+        }
+        measure("whole outer table per block", outer, inner, 0);
+    }
+
+    /**
+     * @param pages outer pages per block, or 0 for the default budget
+     */
+    private static void measure(String variant, HeapFile outer, HeapFile inner, int pages) throws Exception {
+        BenchmarkUtil.coldCache();
+        TransactionId tid = new TransactionId();
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId()));
+        if (pages > 0) {
+            join.setBlockPages(pages);
+        }
+        long st = System.nanoTime();
+        long n = 0;
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+        BenchmarkUtil.report("BlockJoinBenchmark", variant, "ms", secs * 1000);
+        BenchmarkUtil.report("BlockJoinBenchmark", variant, "inner scans", join.getBlockCount());
+        BenchmarkUtil.report("BlockJoinBenchmark", variant, "out tuples", n);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
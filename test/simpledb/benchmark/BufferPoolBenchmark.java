@@ -0,0 +1,104 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Multi-threaded read benchmark for the buffer pool page table. Each thread
+ * runs short read-only transactions that fetch random pages of one table;
+ * the working set is skewed so that most fetches are cache hits.
+ * <p>
+ * A pool with a single segment has one LRU list behind one monitor, which is
+ * how the pool was organized before it was striped, and serves as the
+ * baseline for the striped configuration.
+ * <p>
+ * Settings: -Dbench.threads (default: available processors),
+ * -Dbench.pages (table size, default 400), -Dbench.pool (pool size,
+ * default 256), -Dbench.ops (fetches per thread, default 200000).
+ */
+public class BufferPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = BenchmarkUtil.intProperty("bench.threads", Runtime.getRuntime().availableProcessors());
+        int tablePages = BenchmarkUtil.intProperty("bench.pages", 400);
+        int poolPages = BenchmarkUtil.intProperty("bench.pool", 256);
+        int ops = BenchmarkUtil.intProperty("bench.ops", 200000);
+
+        // 504 two-column tuples fill one page
+        HeapFile table = BenchmarkUtil.createTable(2, tablePages * 504, 1000, null);
+
+        for (int segments : new int[]{1, BufferPool.DEFAULT_SEGMENTS}) {
+            // warm up the JIT, then measure
+            run(table, threads, poolPages, segments, ops / 10, false);
+            run(table, threads, poolPages, segments, ops, true);
+        }
+    }
+
+    private static void run(final HeapFile table, int threads, int poolPages, int segments,
+                            final int ops, boolean print) throws Exception {
+        Database.resetBufferPool(poolPages);
+        final BufferPool bp = new BufferPool(poolPages, segments);
+        final int numPages = table.numPages();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong aborts = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                TransactionId tid = new TransactionId();
+                for (int op = 0; op < ops; op++) {
+                    // 90% of the fetches go to the hottest 10% of the pages
+                    int pageNo = r.nextInt(10) < 9
+                            ? r.nextInt(Math.max(1, numPages / 10))
+                            : r.nextInt(numPages);
+                    try {
+                        bp.getPage(tid, new HeapPageId(table.getId(), pageNo), Permissions.READ_ONLY);
+                    } catch (TransactionAbortedException e) {
+                        aborts.incrementAndGet();
+                        bp.transactionComplete(tid, false);
+                        tid = new TransactionId();
+                    } catch (DbException e) {
+                        throw new RuntimeException(e);
+                    }
+                    if (op % 64 == 63) {
+                        bp.transactionComplete(tid);
+                        tid = new TransactionId();
+                    }
+                }
+                bp.transactionComplete(tid);
+            });
+            workers[i].start();
+        }
+
+        long st = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+
+        if (print) {
+            String variant = segments + " segment(s), " + threads + " thr";
+            long total = bp.getHitCount() + bp.getMissCount();
+            BenchmarkUtil.report("BufferPoolBenchmark", variant, "fetches/sec", total / secs);
+            BenchmarkUtil.report("BufferPoolBenchmark", variant, "hit rate %", 100.0 * bp.getHitCount() / total);
+            BenchmarkUtil.report("BufferPoolBenchmark", variant, "aborted txns", aborts.get());
+        }
+    }
+}
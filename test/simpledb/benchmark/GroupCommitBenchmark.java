@@ -0,0 +1,95 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+/**
+ * Commit throughput of concurrent inserts. Every thread inserts one row per
+ * transaction into a table of its own, so that threads never wait for each
+ * other's locks, and commits, which forces the log before the pages are
+ * written and again for the commit record.
+ * <p>
+ * Each thread count is run with group commit off (every commit forces the
+ * log itself), with group commit and no batch window (the flusher forces
+ * for the commits that arrived during its previous force) and with a batch
+ * window of -Dbench.window microseconds that ends early once every thread
+ * waits. Reports commits per second and forces of the log per commit.
+ * <p>
+ * Settings: -Dbench.threads (largest thread count, default 8),
+ * -Dbench.txns (commits per thread, default 200), -Dbench.window
+ * (default 1000).
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = BenchmarkUtil.intProperty("bench.threads", 8);
+        int txns = BenchmarkUtil.intProperty("bench.txns", 200);
+        int window = BenchmarkUtil.intProperty("bench.window", 1000);
+
+        HeapFile[] tables = new HeapFile[maxThreads];
+        for (int i = 0; i < maxThreads; i++) {
+            tables[i] = BenchmarkUtil.createTable(2, 0, 1000, null);
+        }
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int mode = 0; mode < 3; mode++) {
+                String variant;
+                if (mode == 0) {
+                    LogFile.setGroupCommit(false);
+                    variant = threads + " thr, force per commit";
+                } else if (mode == 1) {
+                    LogFile.setGroupCommit(true);
+                    LogFile.setGroupCommitWindow(0, threads);
+                    variant = threads + " thr, group commit";
+                } else {
+                    LogFile.setGroupCommit(true);
+                    LogFile.setGroupCommitWindow(window, threads);
+                    variant = threads + " thr, group commit, " + window + "us window";
+                }
+                // warm up, then measure
+                run(tables, threads, txns / 10);
+                long forces = Database.getLogFile().getForceCount();
+                long st = System.nanoTime();
+                run(tables, threads, txns);
+                double secs = BenchmarkUtil.secondsSince(st);
+                long commits = (long) threads * txns;
+                BenchmarkUtil.report("GroupCommitBenchmark", variant, "commits/sec", commits / secs);
+                BenchmarkUtil.report("GroupCommitBenchmark", variant, "forces/commit",
+                        (double) (Database.getLogFile().getForceCount() - forces) / commits);
+            }
+        }
+    }
+
+    private static void run(final HeapFile[] tables, int threads, final int txns) throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final HeapFile table = tables[i];
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < txns; j++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(j, 2));
+                        t.commit();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Join time of HashEquiJoin against the chunked hash join it replaced,
+ * which hashed 20000 build tuples at a time and rescanned the probe side
+ * after every chunk.
+ * <p>
+ * The probe side has uniform keys. The build side has uniform keys, or
+ * skewed keys where low keys are far more frequent (key = keys * u^4, so
+ * about 5% of the rows share key 0). The hybrid join runs with the default
+ * memory budget, where the build side fits, and with a small budget that
+ * forces most partitions to disk.
+ * <p>
+ * Settings: -Dbench.rows (rows per table, default 200000), -Dbench.keys
+ * (distinct keys, default rows), -Dbench.budget (small memory budget in
+ * KB, default 2048), -Dbench.runs (default 3).
+ */
+public class HashJoinBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 200000);
+        int keys = BenchmarkUtil.intProperty("bench.keys", rows);
+        final long budget = BenchmarkUtil.intProperty("bench.budget", 2048) * 1024L;
+        int runs = BenchmarkUtil.intProperty("bench.runs", 3);
+
+        final HeapFile probe = table(rows, keys, false, 1);
+        final JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (boolean skewed : new boolean[]{false, true}) {
+            final HeapFile build = table(rows, keys, skewed, 2);
+            Database.resetBufferPool(build.numPages() + probe.numPages() + 10);
+            String keysName = skewed ? "skewed" : "uniform";
+            measure(keysName + ", chunked", runs, tid ->
+                    new ChunkedHashJoin(eq, new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId())));
+            measure(keysName + ", hybrid", runs, tid ->
+                    new HashEquiJoin(eq, new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId())));
+            measure(keysName + ", hybrid " + budget / 1024 + "KB", runs, tid -> {
+                HashEquiJoin j = new HashEquiJoin(eq, new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()));
+                j.setMemoryBudget(budget);
+                return j;
+            });
+        }
+    }
+
+    private static HeapFile table(int rows, int keys, boolean skewed, long seed) throws Exception {
+        Random r = new Random(seed);
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            double u = r.nextDouble();
+            int key = (int) (keys * (skewed ? u * u * u * u : u));
+            tuples.add(Arrays.asList(key, i));
+        }
+        File f = File.createTempFile("hashjoin", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, f);
+    }
+
+    private static void measure(String variant, int runs, Plan plan) throws Exception {
+        // warm up (also caches the tables), then measure
+        run(plan);
+        long st = System.nanoTime();
+        long out = 0;
+        for (int r = 0; r < runs; r++) {
+            out += run(plan);
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+        BenchmarkUtil.report("HashJoinBenchmark", variant, "ms/join", secs * 1000 / runs);
+        BenchmarkUtil.report("HashJoinBenchmark", variant, "out tuples/join", (double) out / runs);
+    }
+
+    private static long run(Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = plan.build(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * The previous HashEquiJoin: hashes MAP_SIZE tuples of child1 at a
+     * time and scans all of child2 for each chunk.
+     */
+    private static class ChunkedHashJoin extends Operator {
+        private static final long serialVersionUID = 1L;
+        private static final int MAP_SIZE = 20000;
+
+        private final JoinPredicate pred;
+        private final OpIterator child1, child2;
+        private final TupleDesc td;
+        private final Map<Object, List<Tuple>> map = new HashMap<>();
+        private Iterator<Tuple> listIt;
+        private Tuple t2;
+
+        ChunkedHashJoin(JoinPredicate pred, OpIterator child1, OpIterator child2) {
+            this.pred = pred;
+            this.child1 = child1;
+            this.child2 = child2;
+            this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        }
+
+        private boolean loadMap() throws DbException, TransactionAbortedException {
+            int cnt = 0;
+            map.clear();
+            while (child1.hasNext()) {
+                Tuple t1 = child1.next();
+                map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>()).add(t1);
+                if (cnt++ == MAP_SIZE)
+                    return true;
+            }
+            return cnt > 0;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child1.open();
+            child2.open();
+            loadMap();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child2.close();
+            child1.close();
+            map.clear();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child1.rewind();
+            child2.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (listIt != null && listIt.hasNext()) {
+                    return Tuple.merge(td, listIt.next(), t2);
+                }
+                listIt = null;
+                if (child2.hasNext()) {
+                    t2 = child2.next();
+                    List<Tuple> l = map.get(t2.getField(pred.getField2()));
+                    if (l != null) {
+                        listIt = l.iterator();
+                    }
+                    continue;
+                }
+                child2.rewind();
+                if (!loadMap()) {
+                    return null;
+                }
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[]{child1, child2};
+        }
+
+        public void setChildren(OpIterator[] children) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
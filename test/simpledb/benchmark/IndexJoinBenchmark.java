@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Equality join of outer tables of growing size with a B+ tree on the
+ * inner join column: an index nested-loop join, which probes the tree once
+ * per outer tuple, against a hash join, which reads the whole inner table.
+ * The crossover is where the optimizer should switch from one to the other.
+ * Tables are cached before measuring.
+ * <p>
+ * Settings: -Dbench.inner (rows in the B+ tree, default 200000),
+ * -Dbench.runs (default 3).
+ */
+public class IndexJoinBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int innerRows = BenchmarkUtil.intProperty("bench.inner", 200000);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 3);
+
+        final BTreeFile inner = BTreeUtility.createRandomBTreeFile(2, innerRows, innerRows, null, null, 0);
+        int[] sizes = {100, 1000, 10000, 100000};
+        HeapFile[] outers = new HeapFile[sizes.length];
+        int pages = inner.numPages();
+        for (int i = 0; i < sizes.length; i++) {
+            outers[i] = BenchmarkUtil.createTable(2, sizes[i], innerRows, null);
+            pages += outers[i].numPages();
+        }
+        Database.resetBufferPool(pages + 10);
+
+        final JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (int i = 0; i < sizes.length; i++) {
+            final HeapFile outer = outers[i];
+            measure(sizes[i] + " outer rows, index join", runs, tid ->
+                    new IndexNestedLoopJoin(eq, new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId())));
+            measure(sizes[i] + " outer rows, hash join", runs, tid ->
+                    new HashEquiJoin(eq, new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId())));
+        }
+    }
+
+    private static void measure(String variant, int runs, Plan plan) throws Exception {
+        // warm up (also caches the tables), then measure
+        run(plan);
+        long st = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            run(plan);
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+        BenchmarkUtil.report("IndexJoinBenchmark", variant, "ms/join", secs * 1000 / runs);
+    }
+
+    private static long run(Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = plan.build(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
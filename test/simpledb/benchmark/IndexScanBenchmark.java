@@ -0,0 +1,87 @@
+package simpledb.benchmark;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Point and range queries on the key of a B+ tree table, planned by the
+ * optimizer, against a sequential scan with a filter that reads the whole
+ * file. Every query starts with a cold buffer pool, so the time is mostly
+ * page reads.
+ * <p>
+ * Settings: -Dbench.rows (rows in the B+ tree, default 500000),
+ * -Dbench.runs (default 5).
+ */
+public class IndexScanBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 500000);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 5);
+
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, rows, null, null, 0);
+        final BTreeFile tree = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(tree, "bench");
+        TableStats.setTableStats("bench", new TableStats(tree.getId(), 1));
+        Database.resetBufferPool(tree.numPages() + 10);
+
+        final int key = rows / 2;
+        final int width = rows / 1000;
+        measure("point, seq scan", runs, tid -> new Filter(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(key)), new SeqScan(tid, tree.getId())));
+        measure("point, planned", runs, tid -> planned(tid,
+                "SELECT * FROM bench t WHERE t.c0 = " + key + ";"));
+        measure("0.1% range, seq scan", runs, tid -> new Filter(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(width)), new SeqScan(tid, tree.getId())));
+        measure("0.1% range, planned", runs, tid -> planned(tid,
+                "SELECT * FROM bench t WHERE t.c0 < " + width + ";"));
+        measure("0.1% range, index scan", runs, tid -> new BTreeScan(tid, tree.getId(),
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(width))));
+    }
+
+    private static OpIterator planned(TransactionId tid, String sql) throws Exception {
+        return new Parser().generateLogicalPlan(tid, sql)
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    private static void measure(String variant, int runs, Plan plan) throws Exception {
+        double secs = 0;
+        long n = 0;
+        for (int r = 0; r < runs; r++) {
+            BenchmarkUtil.coldCache();
+            long st = System.nanoTime();
+            n = run(plan);
+            secs += BenchmarkUtil.secondsSince(st);
+        }
+        BenchmarkUtil.report("IndexScanBenchmark", variant + " (" + n + " rows)", "ms/query", secs * 1000 / runs);
+    }
+
+    private static long run(Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = plan.build(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
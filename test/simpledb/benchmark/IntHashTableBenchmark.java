@@ -0,0 +1,177 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.IntHashTable;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * IntHashTable against java.util.HashMap for the key lookups of hash joins
+ * and group-by aggregation, then the operators that use it.
+ * <p>
+ * Measured in the style of JMH without depending on it: every benchmark
+ * runs warm-up iterations, then measured iterations, and reports the mean
+ * and the standard deviation over the measured iterations of the time per
+ * operation, plus the bytes allocated per operation. Keys are random ints
+ * in [0, keys); a probe looks up keys that are all present.
+ * <p>
+ * The HashMap rows use IntField keys, as the join and aggregator did, and
+ * Integer keys.
+ * <p>
+ * Settings: -Dbench.keys (distinct keys, default 100000), -Dbench.ops
+ * (operations per iteration, default 1000000), -Dbench.warmup (default 5),
+ * -Dbench.iterations (default 10), -Dbench.rows (rows per table for the
+ * operator benchmarks, default 200000).
+ */
+public class IntHashTableBenchmark {
+
+    private interface Op {
+        long run() throws Exception;
+    }
+
+    /** Keeps results alive so that the JIT cannot drop the measured work. */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        final int keys = BenchmarkUtil.intProperty("bench.keys", 100000);
+        final int ops = BenchmarkUtil.intProperty("bench.ops", 1000000);
+        int rows = BenchmarkUtil.intProperty("bench.rows", 200000);
+
+        final int[] stream = new int[ops];
+        Random r = new Random(1);
+        for (int i = 0; i < ops; i++) {
+            stream[i] = r.nextInt(keys);
+        }
+        final Field[] fields = new Field[ops];
+        for (int i = 0; i < ops; i++) {
+            fields[i] = new IntField(stream[i]);
+        }
+
+        // group-by style: find or add the key's group and update it
+        measure("group by, IntHashTable", "ns/op", ops, () -> {
+            IntHashTable t = new IntHashTable();
+            int[] counts = new int[keys];
+            for (int k : stream) {
+                counts[t.add(k)]++;
+            }
+            return t.size();
+        });
+        measure("group by, HashMap<Integer>", "ns/op", ops, () -> {
+            Map<Integer, Integer> m = new HashMap<>();
+            for (int k : stream) {
+                m.merge(k, 1, Integer::sum);
+            }
+            return m.size();
+        });
+        measure("group by, HashMap<IntField>", "ns/op", ops, () -> {
+            Map<Field, Integer> m = new HashMap<>();
+            for (Field f : fields) {
+                m.merge(f, 1, Integer::sum);
+            }
+            return m.size();
+        });
+
+        // probe style: look up keys in a built table
+        final IntHashTable table = new IntHashTable();
+        final Map<Integer, Integer> boxed = new HashMap<>();
+        final Map<Field, Integer> fieldMap = new HashMap<>();
+        for (int k : stream) {
+            int id = table.add(k);
+            boxed.put(k, id);
+            fieldMap.put(new IntField(k), id);
+        }
+        measure("probe, IntHashTable", "ns/op", ops, () -> {
+            long s = 0;
+            for (int k : stream) {
+                s += table.get(k);
+            }
+            return s;
+        });
+        measure("probe, HashMap<Integer>", "ns/op", ops, () -> {
+            long s = 0;
+            for (int k : stream) {
+                s += boxed.get(k);
+            }
+            return s;
+        });
+        measure("probe, HashMap<IntField>", "ns/op", ops, () -> {
+            long s = 0;
+            for (Field f : fields) {
+                s += fieldMap.get(f);
+            }
+            return s;
+        });
+
+        // the operators, over cached tables
+        final HeapFile left = BenchmarkUtil.createTable(2, rows, rows, null);
+        final HeapFile right = BenchmarkUtil.createTable(2, rows, rows, null);
+        final HeapFile groups = BenchmarkUtil.createTable(2, rows, keys, null);
+        Database.resetBufferPool(left.numPages() + right.numPages() + groups.numPages() + 10);
+        final JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        measure("HashEquiJoin", "ns/input row", 2 * rows, () -> {
+            TransactionId tid = new TransactionId();
+            return drain(tid, new HashEquiJoin(eq, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+        });
+        measure("Aggregate sum group by", "ns/input row", rows, () -> {
+            TransactionId tid = new TransactionId();
+            return drain(tid, new Aggregate(new SeqScan(tid, groups.getId()), 1, 0, Aggregator.Op.SUM));
+        });
+    }
+
+    private static long drain(TransactionId tid, OpIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static void measure(String variant, String metric, int n, Op op) throws Exception {
+        int warmup = BenchmarkUtil.intProperty("bench.warmup", 5);
+        int iterations = BenchmarkUtil.intProperty("bench.iterations", 10);
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < warmup; i++) {
+            sink += op.run();
+        }
+        double[] times = new double[iterations];
+        long bytes = mx.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            long st = System.nanoTime();
+            sink += op.run();
+            times[i] = (double) (System.nanoTime() - st) / n;
+        }
+        bytes = mx.getThreadAllocatedBytes(thread) - bytes;
+        double mean = 0;
+        for (double t : times) {
+            mean += t / iterations;
+        }
+        double var = 0;
+        for (double t : times) {
+            var += (t - mean) * (t - mean) / Math.max(1, iterations - 1);
+        }
+        BenchmarkUtil.report("IntHashTableBenchmark", variant, metric, mean);
+        BenchmarkUtil.report("IntHashTableBenchmark", variant, "+- " + metric, Math.sqrt(var));
+        BenchmarkUtil.report("IntHashTableBenchmark", variant, "bytes/op", (double) bytes / iterations / n);
+    }
+}
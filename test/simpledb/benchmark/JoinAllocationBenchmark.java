@@ -0,0 +1,113 @@
+package simpledb.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+
+/**
+ * Garbage produced by joins: bytes allocated per output tuple, collections
+ * and collection time, and output rate, for a hash join and a nested-loop
+ * join whose output is projected down to two columns.
+ * <p>
+ * Both tables have four int columns with values below the given number of
+ * keys, so the hash join produces about rows^2 / keys tuples.
+ * Tables are cached before measuring.
+ * <p>
+ * Settings: -Dbench.rows (rows per table, default 20000), -Dbench.keys
+ * (distinct join keys, default 2000), -Dbench.nlrows (rows per table for
+ * the nested-loop join, default 2000), -Dbench.runs (default 5).
+ */
+public class JoinAllocationBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 20000);
+        int keys = BenchmarkUtil.intProperty("bench.keys", 2000);
+        int nlRows = BenchmarkUtil.intProperty("bench.nlrows", 2000);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 5);
+
+        // values are drawn from [0, keys), so that is also the key range
+        final HeapFile left = BenchmarkUtil.createTable(4, rows, keys, null);
+        final HeapFile right = BenchmarkUtil.createTable(4, rows, keys, null);
+        final HeapFile nlLeft = BenchmarkUtil.createTable(4, nlRows, keys, null);
+        final HeapFile nlRight = BenchmarkUtil.createTable(4, nlRows, keys, null);
+        Database.resetBufferPool(left.numPages() + right.numPages() + nlLeft.numPages() + nlRight.numPages() + 10);
+
+        final JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        measure("hash join", runs, tid ->
+                new HashEquiJoin(eq, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+        measure("hash join + project", runs, tid -> new Project(Arrays.asList(1, 5),
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new HashEquiJoin(eq, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()))));
+        measure("nested-loop join", runs, tid ->
+                new Join(eq, new SeqScan(tid, nlLeft.getId()), new SeqScan(tid, nlRight.getId())));
+    }
+
+    private static void measure(String variant, int runs, Plan plan) throws Exception {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        // warm up (also caches the tables), then measure
+        run(plan);
+        System.gc();
+        long gcCount = gcCount(), gcMillis = gcMillis();
+        long bytes = mx.getThreadAllocatedBytes(thread);
+        long st = System.nanoTime();
+        long out = 0;
+        for (int r = 0; r < runs; r++) {
+            out += run(plan);
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+        bytes = mx.getThreadAllocatedBytes(thread) - bytes;
+        BenchmarkUtil.report("JoinAllocationBenchmark", variant, "bytes/out tuple", (double) bytes / out);
+        BenchmarkUtil.report("JoinAllocationBenchmark", variant, "out tuples/sec", out / secs);
+        BenchmarkUtil.report("JoinAllocationBenchmark", variant, "GCs", gcCount() - gcCount);
+        BenchmarkUtil.report("JoinAllocationBenchmark", variant, "GC ms", gcMillis() - gcMillis);
+    }
+
+    private static long run(Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = plan.build(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += gc.getCollectionCount();
+        }
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += gc.getCollectionTime();
+        }
+        return n;
+    }
+}
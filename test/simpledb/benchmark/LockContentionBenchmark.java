@@ -0,0 +1,118 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Lock manager throughput under contention. Every thread runs short
+ * transactions against a handful of pages and retries a transaction when it
+ * is aborted, until it has committed a fixed number of them.
+ * <p>
+ * Two workloads mirror the lock patterns of the tests:
+ * <ul>
+ * <li>cross: lock two random pages in random order, each shared or
+ * exclusive (DeadlockTest's read/write and write/write deadlocks);</li>
+ * <li>upgrade: read a random page and then write it
+ * (TransactionTest's read-modify-write, which deadlocks on upgrades).</li>
+ * </ul>
+ * Reports committed transactions per second, aborts per commit and the CPU
+ * time the workers spend per commit (waiting should not burn CPU).
+ * <p>
+ * Settings: -Dbench.threads (default 8), -Dbench.pages (contended pages,
+ * default 8), -Dbench.txns (commits per thread, default 500),
+ * -Dbench.hold (microseconds a transaction holds its locks, default 100).
+ */
+public class LockContentionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = BenchmarkUtil.intProperty("bench.threads", 8);
+        int pages = BenchmarkUtil.intProperty("bench.pages", 8);
+        int txns = BenchmarkUtil.intProperty("bench.txns", 500);
+        int hold = BenchmarkUtil.intProperty("bench.hold", 100);
+
+        // 504 two-column tuples fill one page
+        HeapFile table = BenchmarkUtil.createTable(2, pages * 504, 1000, null);
+
+        for (boolean upgrade : new boolean[]{false, true}) {
+            // warm up, then measure
+            run(table, upgrade, threads, txns / 10, hold, false);
+            run(table, upgrade, threads, txns, hold, true);
+        }
+    }
+
+    private static void run(final HeapFile table, final boolean upgrade, int threads,
+                            final int txns, final int holdMicros, boolean print) throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final int numPages = table.numPages();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong aborts = new AtomicLong();
+        final AtomicLong cpuNanos = new AtomicLong();
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long cpu = mx.getCurrentThreadCpuTime();
+                int committed = 0;
+                while (committed < txns) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        PageId p0 = new HeapPageId(table.getId(), r.nextInt(numPages));
+                        if (upgrade) {
+                            bp.getPage(tid, p0, Permissions.READ_ONLY);
+                            bp.getPage(tid, p0, Permissions.READ_WRITE);
+                        } else {
+                            PageId p1 = new HeapPageId(table.getId(), r.nextInt(numPages));
+                            bp.getPage(tid, p0, r.nextBoolean() ? Permissions.READ_ONLY : Permissions.READ_WRITE);
+                            bp.getPage(tid, p1, r.nextBoolean() ? Permissions.READ_ONLY : Permissions.READ_WRITE);
+                        }
+                        LockSupport.parkNanos(holdMicros * 1000L);
+                        bp.transactionComplete(tid, true);
+                        committed++;
+                    } catch (TransactionAbortedException e) {
+                        aborts.incrementAndGet();
+                        bp.transactionComplete(tid, false);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                cpuNanos.addAndGet(mx.getCurrentThreadCpuTime() - cpu);
+            });
+            workers[i].start();
+        }
+
+        long st = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+
+        if (print) {
+            long commits = (long) threads * txns;
+            String variant = (upgrade ? "upgrade" : "cross") + ", " + threads + " thr";
+            BenchmarkUtil.report("LockContentionBenchmark", variant, "commits/sec", commits / secs);
+            BenchmarkUtil.report("LockContentionBenchmark", variant, "aborts/commit", (double) aborts.get() / commits);
+            BenchmarkUtil.report("LockContentionBenchmark", variant, "cpu us/commit", cpuNanos.get() / 1e3 / commits);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageChannel;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Scan throughput of a heap file read through the channel and through a
+ * memory mapping, with the buffer pool cleared before every scan so that
+ * every page is read from the file (the file itself stays in the OS cache).
+ * <p>
+ * The raw rows read every page of the file directly, including the
+ * RandomAccessFile-per-page path HeapFile used before it kept a channel.
+ * The scan rows run a full SeqScan through the buffer pool.
+ * <p>
+ * Settings: -Dbench.pages (file size, default 5000), -Dbench.runs (scans
+ * per variant, default 5).
+ */
+public class MmapScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = BenchmarkUtil.intProperty("bench.pages", 5000);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 5);
+
+        // 504 two-column tuples fill one page
+        HeapFile table = BenchmarkUtil.createTable(2, pages * 504, 1000, null);
+        File f = table.getFile();
+        int pageSize = BufferPool.getPageSize();
+        byte[] buf = new byte[pageSize];
+
+        // warm up, then measure
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            int n = print ? runs : 1;
+
+            long st = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                for (int i = 0; i < pages; i++) {
+                    RandomAccessFile raf = new RandomAccessFile(f, "r");
+                    raf.seek((long) i * pageSize);
+                    raf.read(buf);
+                    raf.close();
+                }
+            }
+            report(print, "raw, RandomAccessFile", (double) n * pages / BenchmarkUtil.secondsSince(st));
+
+            for (boolean mapped : new boolean[]{false, true}) {
+                PageChannel ch = new PageChannel(f);
+                ch.setMapped(mapped);
+                st = System.nanoTime();
+                for (int r = 0; r < n; r++) {
+                    for (int i = 0; i < pages; i++) {
+                        ch.read(buf, (long) i * pageSize);
+                    }
+                }
+                report(print, "raw, " + (mapped ? "mmap" : "channel"),
+                        (double) n * pages / BenchmarkUtil.secondsSince(st));
+                ch.close();
+            }
+
+            for (boolean mapped : new boolean[]{false, true}) {
+                table.setMemoryMapped(mapped);
+                long tuples = 0;
+                st = System.nanoTime();
+                for (int r = 0; r < n; r++) {
+                    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                    TransactionId tid = new TransactionId();
+                    SeqScan scan = new SeqScan(tid, table.getId());
+                    scan.open();
+                    while (scan.hasNext()) {
+                        scan.next();
+                        tuples++;
+                    }
+                    scan.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                double secs = BenchmarkUtil.secondsSince(st);
+                String variant = "SeqScan, " + (mapped ? "mmap" : "channel");
+                report(print, variant, (double) n * pages / secs);
+                if (print) {
+                    BenchmarkUtil.report("MmapScanBenchmark", variant, "tuples/sec", tuples / secs);
+                }
+            }
+            table.setMemoryMapped(false);
+        }
+    }
+
+    private static void report(boolean print, String variant, double pagesPerSec) {
+        if (print) {
+            BenchmarkUtil.report("MmapScanBenchmark", variant, "pages/sec", pagesPerSec);
+        }
+    }
+}
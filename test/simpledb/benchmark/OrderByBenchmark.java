@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Sort time and heap held by ORDER BY across input sizes, sorting in
+ * memory (an unbounded budget, which is what OrderBy always did) and
+ * externally under a fixed memory budget.
+ * <p>
+ * The heap held is the live heap right after open(), when the sort is
+ * done and the sorted data is held for output, less the live heap before
+ * the sort. That is the peak of the in-memory sort; the external sort
+ * peaks at its budget while it writes runs, plus one read buffer per
+ * run while it merges.
+ * <p>
+ * Settings: -Dbench.sizes (comma separated row counts, default
+ * 100000,400000,1000000), -Dbench.budget (external sort budget in KB,
+ * default 4096). Run with a heap large enough for the in-memory sort of
+ * the largest size.
+ */
+public class OrderByBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String sizes = System.getProperty("bench.sizes", "100000,400000,1000000");
+        long budget = BenchmarkUtil.intProperty("bench.budget", 4096) * 1024L;
+
+        for (String size : sizes.split(",")) {
+            int rows = Integer.parseInt(size.trim());
+            HeapFile table = BenchmarkUtil.createTable(2, rows, Integer.MAX_VALUE, null);
+            // a pool much smaller than the table, as for any big table, so
+            // that the sorted tuples are not also held by cached pages
+            Database.resetBufferPool(100);
+            // warm up
+            sort(table, Long.MAX_VALUE, null);
+            sort(table, budget, null);
+            sort(table, Long.MAX_VALUE, rows + " rows, in memory");
+            sort(table, budget, rows + " rows, " + budget / 1024 + "KB budget");
+        }
+    }
+
+    private static void sort(HeapFile table, long budget, String variant) throws Exception {
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(0, true, new SeqScan(tid, table.getId()));
+        op.setMemoryBudget(budget);
+        long before = BenchmarkUtil.usedHeap();
+        long st = System.nanoTime();
+        op.open();
+        long sorted = System.nanoTime();
+        long held = BenchmarkUtil.usedHeap() - before;
+        st += System.nanoTime() - sorted;
+        long n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+        int runs = op.getRunCount();
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+        if (variant != null) {
+            BenchmarkUtil.report("OrderByBenchmark", variant, "ms", secs * 1000);
+            BenchmarkUtil.report("OrderByBenchmark", variant, "heap held MB", held / 1e6);
+            BenchmarkUtil.report("OrderByBenchmark", variant, "runs", runs);
+            BenchmarkUtil.report("OrderByBenchmark", variant, "rows", n);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageChannel;
+
+/**
+ * Raw page I/O throughput of the old per-call file handles against one
+ * long-lived PageChannel. The old code paths are reproduced here:
+ * HeapFile opened a RandomAccessFile for every page read and write, and
+ * BTreeFile opened a BufferedInputStream and skipped to the page.
+ * <p>
+ * Pages come from the OS page cache, so the numbers measure the per-page
+ * system call overhead rather than the disk.
+ * <p>
+ * Settings: -Dbench.pages (file size, default 2000), -Dbench.ops (page
+ * operations per run, default 50000), -Dbench.threads (threads for the
+ * concurrent read run, default 4).
+ */
+public class PageIOBenchmark {
+
+    private interface PageOp {
+        void run(int pageNo, byte[] buf) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = BenchmarkUtil.intProperty("bench.pages", 2000);
+        int ops = BenchmarkUtil.intProperty("bench.ops", 50000);
+        int threads = BenchmarkUtil.intProperty("bench.threads", 4);
+        final int pageSize = BufferPool.getPageSize();
+
+        // 504 two-column tuples fill one page
+        HeapFile table = BenchmarkUtil.createTable(2, pages * 504, 1000, null);
+        final File f = table.getFile();
+        final PageChannel channel = new PageChannel(f);
+
+        PageOp rafRead = (pageNo, buf) -> {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            raf.seek((long) pageNo * pageSize);
+            raf.read(buf);
+            raf.close();
+        };
+        PageOp streamRead = (pageNo, buf) -> {
+            try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+                bis.skip((long) pageNo * pageSize);
+                bis.read(buf, 0, pageSize);
+            }
+        };
+        PageOp channelRead = (pageNo, buf) -> channel.read(buf, (long) pageNo * pageSize);
+        PageOp rafWrite = (pageNo, buf) -> {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            raf.seek((long) pageNo * pageSize);
+            raf.write(buf);
+            raf.close();
+        };
+        PageOp channelWrite = (pageNo, buf) -> channel.write(buf, (long) pageNo * pageSize);
+
+        for (boolean random : new boolean[]{false, true}) {
+            String order = random ? "random" : "sequential";
+            measure("RandomAccessFile read, " + order, rafRead, pages, ops, random, 1);
+            measure("stream+skip read, " + order, streamRead, pages, ops, random, 1);
+            measure("PageChannel read, " + order, channelRead, pages, ops, random, 1);
+        }
+        measure("RandomAccessFile read, " + threads + " thr", rafRead, pages, ops, true, threads);
+        measure("PageChannel read, " + threads + " thr", channelRead, pages, ops, true, threads);
+        measure("RandomAccessFile write", rafWrite, pages, ops, true, 1);
+        measure("PageChannel write", channelWrite, pages, ops, true, 1);
+        channel.close();
+    }
+
+    private static void measure(String variant, final PageOp op, final int pages, final int ops,
+                                final boolean random, int threads) throws Exception {
+        // warm up, then measure
+        for (int round = 0; round < 2; round++) {
+            final int n = round == 0 ? ops / 10 : ops;
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final long seed = i;
+                workers[i] = new Thread(() -> {
+                    Random r = new Random(seed);
+                    byte[] buf = new byte[BufferPool.getPageSize()];
+                    try {
+                        for (int k = 0; k < n; k++) {
+                            op.run(random ? r.nextInt(pages) : k % pages, buf);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            long st = System.nanoTime();
+            for (Thread w : workers) {
+                w.start();
+            }
+            for (Thread w : workers) {
+                w.join();
+            }
+            double secs = BenchmarkUtil.secondsSince(st);
+            if (round == 1) {
+                BenchmarkUtil.report("PageIOBenchmark", variant, "pages/sec", (double) n * threads / secs);
+            }
+        }
+    }
+}
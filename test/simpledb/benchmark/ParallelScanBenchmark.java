@@ -0,0 +1,122 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Speedup of scans split between worker threads by {@link Gather}, for 1
+ * up to -Dbench.workers workers:
+ * <ul>
+ * <li>filter: the rows of a table passing two filters, which the workers
+ * evaluate (about 5% of the rows)
+ * <li>count: a count of the rows passing the filters, computed as partial
+ * counts by the workers
+ * <li>group sum: a sum grouped by a column with 100 values, computed as
+ * partial sums by the workers
+ * <li>group avg: SUM, MIN, MAX and AVG grouped by a column with 100
+ * values, the average combined from partial sums and counts
+ * <li>many groups: COUNT and AVG grouped by a column with 10000 values,
+ * where merging the partial aggregates is a larger part of the work
+ * </ul>
+ * Each query is run with a cached table, and with a cold buffer pool so
+ * that the workers also read and decode the pages. The speedup is against
+ * the serial plan; it is bounded by the number of cores, printed first.
+ * <p>
+ * Settings: -Dbench.rows (default 1000000), -Dbench.workers (default the
+ * larger of 4 and the number of cores), -Dbench.runs (default 5).
+ */
+public class ParallelScanBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    private static final int WARMUP_RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 1000000);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxWorkers = BenchmarkUtil.intProperty("bench.workers", Math.max(4, cores));
+        int runs = BenchmarkUtil.intProperty("bench.runs", 5);
+
+        final HeapFile f = BenchmarkUtil.createTable(4, rows, 10000, null);
+        Database.resetBufferPool(f.numPages() + 10);
+        BenchmarkUtil.report("ParallelScanBenchmark", "cores", "count", cores);
+
+        Plan filter = tid -> new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(2000)),
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(7500)),
+                        new SeqScan(tid, f.getId())));
+        curve("filter", filter, maxWorkers, runs);
+        curve("count", tid -> new Aggregate(filter.build(tid), 0, Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT), maxWorkers, runs);
+        curve("group sum", tid -> new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(100)), new SeqScan(tid, f.getId())), 3, 0, Aggregator.Op.SUM),
+                maxWorkers, runs);
+        curve("group avg", tid -> new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(100)), new SeqScan(tid, f.getId())), new int[]{3, 3, 3, 3},
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG},
+                new int[]{0}), maxWorkers, runs);
+        curve("many groups", tid -> new Aggregate(new SeqScan(tid, f.getId()), new int[]{1, 3},
+                new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.AVG}, new int[]{0}),
+                maxWorkers, runs);
+    }
+
+    /** Measures a query with 1, 2, 4, ... workers, up to maxWorkers. */
+    private static void curve(String query, Plan plan, int maxWorkers, int runs) throws Exception {
+        for (boolean cold : new boolean[]{false, true}) {
+            String cache = cold ? "cold" : "cached";
+            double serial = measure(plan, 1, cold, runs);
+            BenchmarkUtil.report("ParallelScanBenchmark", query + ", " + cache + ", 1 worker", "ms/query", serial);
+            for (int workers = 2; workers <= maxWorkers; workers *= 2) {
+                double ms = measure(plan, workers, cold, runs);
+                String variant = query + ", " + cache + ", " + workers + " workers";
+                BenchmarkUtil.report("ParallelScanBenchmark", variant, "ms/query", ms);
+                BenchmarkUtil.report("ParallelScanBenchmark", variant, "speedup", serial / ms);
+            }
+        }
+    }
+
+    private static double measure(Plan plan, int workers, boolean cold, int runs) throws Exception {
+        // warm up, which also caches the table and lets the JIT compile
+        // the plan
+        long rows = run(plan, workers);
+        for (int r = 0; r < WARMUP_RUNS; r++) {
+            run(plan, workers);
+        }
+        double secs = 0;
+        for (int r = 0; r < runs; r++) {
+            if (cold) {
+                BenchmarkUtil.coldCache();
+            }
+            long st = System.nanoTime();
+            if (run(plan, workers) != rows) {
+                throw new IllegalStateException("result size changed between runs");
+            }
+            secs += BenchmarkUtil.secondsSince(st);
+        }
+        return secs * 1000 / runs;
+    }
+
+    private static long run(Plan plan, int workers) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = workers > 1 ? Gather.parallelize(plan.build(tid), workers) : plan.build(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.Filter;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Cold sequential scans with read-ahead off and on. The table's pages come
+ * from the OS page cache, so a simulated device latency is added to every
+ * page read; read-ahead overlaps that latency with the scan.
+ * <p>
+ * Each scan runs a filter over the table, with the buffer pool cleared
+ * first. Reports pages scanned per second, and for read-ahead the share of
+ * pages that were prefetched, the share of those the scan had to wait for
+ * and the share evicted before use. A pool smaller than the table checks
+ * that read-ahead still works once the pool is full.
+ * <p>
+ * Settings: -Dbench.pages (table size, default 2000), -Dbench.latency
+ * (microseconds per page read, default 100), -Dbench.runs (scans per
+ * variant, default 3).
+ */
+public class PrefetchScanBenchmark {
+
+    /** A heap file whose page reads take at least a fixed time. */
+    private static class SlowHeapFile extends HeapFile {
+        private final long latencyNanos;
+
+        SlowHeapFile(File f, int columns, long latencyNanos) {
+            super(f, Utility.getTupleDesc(columns));
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            long until = System.nanoTime() + latencyNanos;
+            Page p = super.readPage(pid);
+            for (long left = until - System.nanoTime(); left > 0; left = until - System.nanoTime()) {
+                LockSupport.parkNanos(left);
+            }
+            return p;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = BenchmarkUtil.intProperty("bench.pages", 2000);
+        int latency = BenchmarkUtil.intProperty("bench.latency", 100);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 3);
+
+        // 504 two-column tuples fill one page
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, pages * 504, 1000, null, null);
+        HeapFile table = new SlowHeapFile(f, 2, latency * 1000L);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        for (int poolPages : new int[]{BufferPool.DEFAULT_PAGES, pages * 2}) {
+            String pool = poolPages < pages ? "small pool" : "large pool";
+            // warm up, then measure
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;
+                int n = print ? runs : 1;
+                for (boolean prefetch : new boolean[]{false, true}) {
+                    long prefetched = 0, waits = 0, wasted = 0;
+                    double secs = 0;
+                    for (int r = 0; r < n; r++) {
+                        BufferPool bp = Database.resetBufferPool(poolPages);
+                        bp.setPrefetchEnabled(prefetch);
+                        long st = System.nanoTime();
+                        scan(table);
+                        secs += BenchmarkUtil.secondsSince(st);
+                        prefetched += bp.getPrefetchCount();
+                        waits += bp.getPrefetchWaitCount();
+                        wasted += bp.getPrefetchWastedCount();
+                    }
+                    if (print) {
+                        String variant = pool + ", " + (prefetch ? "read-ahead" : "no read-ahead");
+                        BenchmarkUtil.report("PrefetchScanBenchmark", variant, "pages/sec", n * pages / secs);
+                        if (prefetch) {
+                            double total = (double) n * pages;
+                            BenchmarkUtil.report("PrefetchScanBenchmark", variant, "prefetched share", prefetched / total);
+                            BenchmarkUtil.report("PrefetchScanBenchmark", variant, "waited share", waits / total);
+                            BenchmarkUtil.report("PrefetchScanBenchmark", variant, "wasted share", wasted / total);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void scan(HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)),
+                new SeqScan(tid, table.getId()));
+        filter.open();
+        while (filter.hasNext()) {
+            filter.next();
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Shows how well index point lookups keep their pages cached while a full
+ * table scan streams through the buffer pool, for every replacement policy.
+ * <p>
+ * The workload interleaves B+ tree equality lookups on a hot key range with
+ * a sequential scan of a heap file that is much larger than the pool: after
+ * every lookup the scan advances by a few pages. The run is single-threaded
+ * so that lock waits do not distort the counts; the interleaving is what a
+ * concurrent scan looks like to the pool.
+ * <p>
+ * Settings: -Dbench.pool (pool size, default 128), -Dbench.pages (heap
+ * pages, default 2000), -Dbench.rows (index rows, default 100000),
+ * -Dbench.ops (lookups, default 20000), -Dbench.stride (scan pages per
+ * lookup, default 4).
+ */
+public class ReplacementPolicyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = BenchmarkUtil.intProperty("bench.pool", 128);
+        int heapPages = BenchmarkUtil.intProperty("bench.pages", 2000);
+        int rows = BenchmarkUtil.intProperty("bench.rows", 100000);
+        int ops = BenchmarkUtil.intProperty("bench.ops", 20000);
+        int stride = BenchmarkUtil.intProperty("bench.stride", 4);
+
+        // 504 two-column tuples fill one heap page
+        HeapFile heap = BenchmarkUtil.createTable(2, heapPages * 504, 1000, null);
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, rows, rows, null, null, 0);
+
+        for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+            System.setProperty(ReplacementPolicy.POLICY_PROPERTY, type.getName());
+            BufferPool bp = Database.resetBufferPool(poolPages);
+            // warm up the JIT and the index working set, then measure
+            run(heap, index, rows, ops / 4, stride);
+            long indexHits = bp.getHitCount(index.getId());
+            long indexMisses = bp.getMissCount(index.getId());
+            long scanHits = bp.getHitCount(heap.getId());
+            long scanMisses = bp.getMissCount(heap.getId());
+
+            long st = System.nanoTime();
+            run(heap, index, rows, ops, stride);
+            double secs = BenchmarkUtil.secondsSince(st);
+
+            indexHits = bp.getHitCount(index.getId()) - indexHits;
+            indexMisses = bp.getMissCount(index.getId()) - indexMisses;
+            scanHits = bp.getHitCount(heap.getId()) - scanHits;
+            scanMisses = bp.getMissCount(heap.getId()) - scanMisses;
+            String variant = type.getName() + ", " + poolPages + " pages";
+            BenchmarkUtil.report("ReplacementPolicyBenchmark", variant, "index hit rate %",
+                    100.0 * indexHits / (indexHits + indexMisses));
+            BenchmarkUtil.report("ReplacementPolicyBenchmark", variant, "scan hit rate %",
+                    100.0 * scanHits / (scanHits + scanMisses));
+            BenchmarkUtil.report("ReplacementPolicyBenchmark", variant, "index misses", indexMisses);
+            BenchmarkUtil.report("ReplacementPolicyBenchmark", variant, "lookups/sec", ops / secs);
+        }
+        System.clearProperty(ReplacementPolicy.POLICY_PROPERTY);
+    }
+
+    private static int scanPos = 0;
+
+    private static void run(HeapFile heap, BTreeFile index, int rows, int ops, int stride) throws Exception {
+        Random r = new Random(0);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int op = 0; op < ops; op++) {
+            // the hot set is the first tenth of the key space
+            int key = r.nextInt(Math.max(1, rows / 10));
+            DbFileIterator it = index.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+
+            for (int i = 0; i < stride; i++) {
+                bp.getPage(tid, new HeapPageId(heap.getId(), scanPos), Permissions.READ_ONLY);
+                scanPos = (scanPos + 1) % heap.numPages();
+            }
+            if (op % 64 == 63) {
+                bp.transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        bp.transactionComplete(tid);
+    }
+}
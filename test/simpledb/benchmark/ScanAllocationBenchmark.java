@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Bytes allocated and time spent per page by a scan with a selective filter,
+ * the pattern where decoding every tuple of a page is mostly wasted work.
+ * <p>
+ * The cold rows clear the buffer pool before every scan, so every page is
+ * read and built again; the warm rows scan pages already cached. Allocation
+ * is measured with the thread allocation counter of the HotSpot JVM.
+ * <p>
+ * Settings: -Dbench.pages (table size, default 500), -Dbench.columns
+ * (default 4), -Dbench.runs (scans per variant, default 10).
+ */
+public class ScanAllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = BenchmarkUtil.intProperty("bench.pages", 500);
+        int columns = BenchmarkUtil.intProperty("bench.columns", 4);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 10);
+
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (columns * 4 * 8 + 1);
+        HeapFile table = BenchmarkUtil.createTable(columns, pages * tuplesPerPage, 1000, null);
+        Database.resetBufferPool(pages + 10).setPrefetchEnabled(false);
+
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // warm up, then measure
+        for (int round = 0; round < 2; round++) {
+            int n = round == 0 ? 2 : runs;
+            for (boolean cold : new boolean[]{true, false}) {
+                long bytes = 0;
+                long nanos = 0;
+                for (int r = 0; r < n; r++) {
+                    if (cold) {
+                        BenchmarkUtil.coldCache();
+                        Database.getBufferPool().setPrefetchEnabled(false);
+                    }
+                    long a = mx.getThreadAllocatedBytes(thread);
+                    long st = System.nanoTime();
+                    scan(table);
+                    nanos += System.nanoTime() - st;
+                    bytes += mx.getThreadAllocatedBytes(thread) - a;
+                }
+                if (round == 1) {
+                    String variant = (cold ? "cold" : "warm") + ", 1% selected";
+                    double scanned = (double) n * pages;
+                    BenchmarkUtil.report("ScanAllocationBenchmark", variant, "bytes/page", bytes / scanned);
+                    BenchmarkUtil.report("ScanAllocationBenchmark", variant, "us/page", nanos / 1e3 / scanned);
+                }
+            }
+        }
+    }
+
+    private static void scan(HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                new SeqScan(tid, table.getId()));
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Joins over inputs that are already sorted on the join key. Both inputs
+ * are B+ tree files keyed on the join column, whose scans return tuples in
+ * key order, so the merge join reads each input once and sorts nothing.
+ * <p>
+ * Equality joins are compared with the hash join; range joins (a.key &lt;
+ * b.key) with the nested-loop join, the only other operator that can run
+ * them, and with a merge join that has to sort unsorted heap file inputs.
+ * Tables are cached before measuring.
+ * <p>
+ * Settings: -Dbench.rows (rows per table for the equality join, default
+ * 500000), -Dbench.rangerows (rows per table for the range join, default
+ * 3000), -Dbench.runs (default 3).
+ */
+public class SortMergeJoinBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 500000);
+        int rangeRows = BenchmarkUtil.intProperty("bench.rangerows", 3000);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 3);
+
+        final BTreeFile left = BTreeUtility.createRandomBTreeFile(2, rows, rows, null, null, 0);
+        final BTreeFile right = BTreeUtility.createRandomBTreeFile(2, rows, rows, null, null, 0);
+        final BTreeFile rangeLeft = BTreeUtility.createRandomBTreeFile(2, rangeRows, rangeRows, null, null, 0);
+        final BTreeFile rangeRight = BTreeUtility.createRandomBTreeFile(2, rangeRows, rangeRows, null, null, 0);
+        final HeapFile heapLeft = BenchmarkUtil.createTable(2, rangeRows, rangeRows, null);
+        final HeapFile heapRight = BenchmarkUtil.createTable(2, rangeRows, rangeRows, null);
+        Database.resetBufferPool(left.numPages() + right.numPages() + rangeLeft.numPages()
+                + rangeRight.numPages() + heapLeft.numPages() + heapRight.numPages() + 10);
+
+        final JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        measure("equi, merge of sorted inputs", runs, tid ->
+                new SortMergeJoin(eq, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+        measure("equi, hash join", runs, tid ->
+                new HashEquiJoin(eq, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+
+        final JoinPredicate lt = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        measure("range, merge of sorted inputs", runs, tid ->
+                new SortMergeJoin(lt, new SeqScan(tid, rangeLeft.getId()), new SeqScan(tid, rangeRight.getId())));
+        measure("range, merge with sorts", runs, tid ->
+                new SortMergeJoin(lt, new SeqScan(tid, heapLeft.getId()), new SeqScan(tid, heapRight.getId())));
+        measure("range, nested loops", runs, tid ->
+                new Join(lt, new SeqScan(tid, rangeLeft.getId()), new SeqScan(tid, rangeRight.getId())));
+    }
+
+    private static void measure(String variant, int runs, Plan plan) throws Exception {
+        // warm up (also caches the tables), then measure
+        long out = run(plan);
+        long st = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            run(plan);
+        }
+        double secs = BenchmarkUtil.secondsSince(st);
+        BenchmarkUtil.report("SortMergeJoinBenchmark", variant, "ms/join", secs * 1000 / runs);
+        BenchmarkUtil.report("SortMergeJoinBenchmark", variant, "out tuples", out);
+    }
+
+    private static long run(Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = plan.build(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * ORDER BY ... LIMIT n as a full sort followed by a limit, which is what
+ * such a query cost before LIMIT was supported, against TopN.
+ * <p>
+ * Settings: -Dbench.rows (default 1000000), -Dbench.limit (default 10),
+ * -Dbench.runs (default 3).
+ */
+public class TopNBenchmark {
+
+    private interface Plan {
+        OpIterator build(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("bench.rows", 1000000);
+        final int limit = BenchmarkUtil.intProperty("bench.limit", 10);
+        int runs = BenchmarkUtil.intProperty("bench.runs", 3);
+
+        final HeapFile table = BenchmarkUtil.createTable(2, rows, Integer.MAX_VALUE, null);
+        Database.resetBufferPool(100);
+        measure("sort + limit " + limit, runs, tid ->
+                new Limit(limit, new OrderBy(0, false, new SeqScan(tid, table.getId()))));
+        measure("top " + limit, runs, tid ->
+                new TopN(0, false, limit, new SeqScan(tid, table.getId())));
+    }
+
+    private static void measure(String variant, int runs, Plan plan) throws Exception {
+        run(plan);
+        long st = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            run(plan);
+        }
+        BenchmarkUtil.report("TopNBenchmark", variant, "ms", BenchmarkUtil.secondsSince(st) * 1000 / runs);
+    }
+
+    private static void run(Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = plan.build(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Cost of committing a small transaction as the buffer pool and the number
+ * of pages locked by other transactions grow. A long-running reader holds
+ * shared locks on every page of a table that fills the pool; short
+ * transactions then each lock two pages and commit.
+ * <p>
+ * Settings: -Dbench.txns (short transactions per pool size, default 20000).
+ */
+public class TransactionCompleteBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int txns = BenchmarkUtil.intProperty("bench.txns", 20000);
+
+        for (int pages : new int[]{100, 1000, 5000}) {
+            // 504 two-column tuples fill one page
+            HeapFile table = BenchmarkUtil.createTable(2, pages * 504, 1000, null);
+            BufferPool bp = Database.resetBufferPool(pages);
+
+            TransactionId reader = new TransactionId();
+            for (int i = 0; i < pages; i++) {
+                bp.getPage(reader, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+            }
+
+            // warm up, then measure
+            run(bp, table, pages, txns / 10);
+            long st = System.nanoTime();
+            run(bp, table, pages, txns);
+            double secs = BenchmarkUtil.secondsSince(st);
+            bp.transactionComplete(reader);
+
+            String variant = pages + " pages locked";
+            BenchmarkUtil.report("TransactionCompleteBenchmark", variant, "us/commit", secs * 1e6 / txns);
+        }
+    }
+
+    private static void run(BufferPool bp, HeapFile table, int pages, int txns) throws Exception {
+        for (int i = 0; i < txns; i++) {
+            TransactionId tid = new TransactionId();
+            bp.getPage(tid, new HeapPageId(table.getId(), i % pages), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(table.getId(), (i + 1) % pages), Permissions.READ_ONLY);
+            bp.transactionComplete(tid, true);
+        }
+    }
+}
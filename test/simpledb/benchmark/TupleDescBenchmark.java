@@ -0,0 +1,104 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Per-call cost of the TupleDesc metadata used on hot paths, and of the
+ * operators that use it once per tuple: building a HeapPage (which sizes
+ * its slots from the table's TupleDesc) and a nested-loop join (which
+ * needs the merged output TupleDesc for every result and the inner
+ * child's TupleDesc for every pair).
+ * <p>
+ * Settings: -Dbench.fields (width of the descriptor, default 50),
+ * -Dbench.ops (calls per micro benchmark, default 2000000),
+ * -Dbench.rows (rows per join input, default 1000).
+ */
+public class TupleDescBenchmark {
+
+    private interface Op {
+        long run(int n) throws Exception;
+    }
+
+    /** Keeps results alive so that the JIT cannot drop the measured calls. */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int fields = BenchmarkUtil.intProperty("bench.fields", 50);
+        int ops = BenchmarkUtil.intProperty("bench.ops", 2000000);
+        int rows = BenchmarkUtil.intProperty("bench.rows", 1000);
+
+        final TupleDesc wide = Utility.getTupleDesc(fields, "f");
+        final String last = "f" + (fields - 1);
+        measure(fields + " fields, getSize", "ns/call", ops, n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) {
+                s += wide.getSize();
+            }
+            return s;
+        });
+        measure(fields + " fields, fieldNameToIndex", "ns/call", ops, n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) {
+                s += wide.fieldNameToIndex(last);
+            }
+            return s;
+        });
+        measure(fields + " fields, merge", "ns/call", ops / 100, n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) {
+                s += TupleDesc.merge(wide, wide).numFields();
+            }
+            return s;
+        });
+
+        final HeapFile table = BenchmarkUtil.createTable(2, 504, 1000, null);
+        final HeapPageId pid = new HeapPageId(table.getId(), 0);
+        final byte[] data = ((HeapPage) table.readPage(pid)).getPageData();
+        measure("HeapPage from bytes", "ns/page", ops / 100, n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) {
+                s += new HeapPage(pid, data).getNumEmptySlots();
+            }
+            return s;
+        });
+
+        final HeapFile outer = BenchmarkUtil.createTable(2, rows, 1000, null);
+        final HeapFile inner = BenchmarkUtil.createTable(2, rows, 1000, null);
+        measure("nested-loop join", "ns/pair", rows * rows, n -> {
+            TransactionId tid = new TransactionId();
+            OpIterator join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, outer.getId()), new SeqScan(tid, inner.getId()));
+            long s = 0;
+            join.open();
+            while (join.hasNext()) {
+                s += join.next().getTupleDesc().numFields();
+            }
+            join.close();
+            Database.getBufferPool().transactionComplete(tid);
+            return s;
+        });
+    }
+
+    /**
+     * Runs op once to warm up and once to measure, and reports the time per
+     * unit of work.
+     */
+    private static void measure(String variant, String metric, int n, Op op) throws Exception {
+        sink += op.run(n);
+        long st = System.nanoTime();
+        sink += op.run(n);
+        double nanos = System.nanoTime() - st;
+        BenchmarkUtil.report("TupleDescBenchmark", variant, metric, nanos / n);
+    }
+}